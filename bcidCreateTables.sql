@@ -76,6 +76,51 @@ CREATE TABLE `identifiers` (
 
 
 
+DROP TABLE IF EXISTS `identifierBlocks`;
+
+CREATE TABLE `identifierBlocks` (
+  `identifierBlocks_id` int(11) NOT NULL AUTO_INCREMENT,
+  `datasets_id` int DEFAULT NULL COMMENT 'The set of data that the reserved identifiers belong to, NULL for the allocation lock row',
+  `loadedSetUUID` char(36) COLLATE utf8_bin NOT NULL DEFAULT '' COMMENT 'a UUID that refers to this reservation',
+  `start` bigint(20) NOT NULL COMMENT 'the first identifiers_id in the block',
+  `count` bigint(20) NOT NULL COMMENT 'the number of identifiers_id values reserved, starting at start',
+  `ts` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT 'timestamp of reservation',
+  PRIMARY KEY `identifierBlocks_identifierBlocks_id` (`identifierBlocks_id`),
+  KEY `identifierBlocks_datasets_start_idx` (`datasets_id`, `start`),
+  KEY `identifierBlocks_loadedSetUUID_idx` (`loadedSetUUID`),
+  CONSTRAINT `FK_identifierBlocks_datasets` FOREIGN KEY(`datasets_id`) REFERENCES `datasets` (`datasets_id`)
+) ENGINE=Innodb DEFAULT CHARSET=utf8;
+
+-- Not a block: inserts into identifiers lock this row in share mode and reservations lock it for update
+INSERT INTO `identifierBlocks` (`identifierBlocks_id`, `datasets_id`, `loadedSetUUID`, `start`, `count`) VALUES (1, NULL, '', 0, 0);
+
+DROP TABLE IF EXISTS `loadedSetDeletes`;
+
+CREATE TABLE `loadedSetDeletes` (
+  `loadedSetDeletes_id` int(11) NOT NULL AUTO_INCREMENT COMMENT 'one delete of a loaded set',
+  `loadedSetUUID` char(36) COLLATE utf8_bin NOT NULL COMMENT 'the loaded set being deleted',
+  `status` varchar(16) NOT NULL DEFAULT 'running' COMMENT 'running or complete',
+  `deleted` bigint(20) NOT NULL DEFAULT '0' COMMENT 'number of identifiers deleted so far',
+  `ts` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT 'timestamp of last progress',
+  PRIMARY KEY `loadedSetDeletes_loadedSetDeletes_id` (`loadedSetDeletes_id`),
+  KEY `loadedSetDeletes_loadedSetUUID_idx` (`loadedSetUUID`),
+  KEY `loadedSetDeletes_status_idx` (`status`)
+) ENGINE=Innodb DEFAULT CHARSET=utf8;
+
+DROP TABLE IF EXISTS `mintRequests`;
+
+CREATE TABLE `mintRequests` (
+  `users_id` int(10) UNSIGNED NOT NULL COMMENT 'who sent the request',
+  `requestKey` varchar(64) NOT NULL COMMENT 'client supplied key identifying repeats of the same request',
+  `status` varchar(16) NOT NULL DEFAULT 'pending' COMMENT 'pending, complete or failed',
+  `attempt` int NOT NULL DEFAULT '1' COMMENT 'incremented each time the request is claimed again; only the current attempt may commit',
+  `datasets_id` int DEFAULT NULL COMMENT 'the dataset the request minted into',
+  `loadedSetUUID` char(36) COLLATE utf8_bin DEFAULT NULL COMMENT 'the loaded set the request minted, if it minted elements',
+  `result` text COMMENT 'the response handed back to repeats of this request',
+  `ts` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT 'timestamp of last change',
+  PRIMARY KEY `mintRequests_users_id_requestKey` (`users_id`, `requestKey`)
+) ENGINE=Innodb DEFAULT CHARSET=utf8;
+
 DROP TABLE IF EXISTS `expeditions`;
 
 CREATE TABLE `expeditions` (
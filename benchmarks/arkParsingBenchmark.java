@@ -0,0 +1,92 @@
+package benchmarks;
+
+import bcid.arkValidation;
+import bcid.arkValidator;
+import bcid.dataGroupEncoder;
+import bcid.elementEncoder;
+import bcid.resolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.SettingsManager;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting ARKs into shoulder and sourceID as resolver does, and fully decoding them as arkValidator does.  The
+ * sample mixes dataset ARKs, encoded elements and passed through localids.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class arkParsingBenchmark {
+
+    private static final String NAAN = "21547";
+
+    private String divider;
+    private arkValidator validator;
+    private String[] arks;
+    private String[] shoulderPlusIdentifiers;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        divider = sm.getDivider();
+        validator = new arkValidator();
+
+        dataGroupEncoder dataGroup = new dataGroupEncoder();
+        int[] datasetIds = benchmarkData.datasetIds(4);
+        long[] elementIds = benchmarkData.elementIds(5);
+        Random random = new Random(6);
+        arks = new String[benchmarkData.SIZE];
+        shoulderPlusIdentifiers = new String[benchmarkData.SIZE];
+        for (int j = 0; j < benchmarkData.SIZE; j++) {
+            // Dataset 1 is the EZID test shoulder, which only exists under the test NAAN
+            String naan = datasetIds[j] == 1 ? "99999" : NAAN;
+            String prefix = "ark:/" + naan + "/" + dataGroup.encode(datasetIds[j]);
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                arks[j] = prefix;
+            } else if (kind < 7) {
+                arks[j] = new elementEncoder(prefix).encode(elementIds[j]);
+            } else {
+                arks[j] = prefix + divider + benchmarkData.localid(random);
+            }
+            shoulderPlusIdentifiers[j] = arks[j].substring(("ark:/" + naan + "/").length());
+
+            arkValidation v = validator.validate(j, arks[j]);
+            if (!v.isValid() || v.getDatasets_id() != datasetIds[j]) {
+                throw new IllegalStateException(arks[j] + " does not decode to dataset " + datasetIds[j]);
+            }
+        }
+    }
+
+    private int next() {
+        return i = (i + 1) & benchmarkData.MASK;
+    }
+
+    @Benchmark
+    public String[] splitShoulderAndSourceID() {
+        return resolver.splitShoulderAndSourceID(shoulderPlusIdentifiers[next()], divider);
+    }
+
+    @Benchmark
+    public arkValidation validate() {
+        int j = next();
+        return validator.validate(j, arks[j]);
+    }
+}
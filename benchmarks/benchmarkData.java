@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * Samples of ids shaped like the ones we actually serve.  Most datasets are small and a few hold millions of
+ * elements, so ids are drawn log-uniformly rather than uniformly, which would make nearly every id the maximum
+ * length.  Every sample uses a fixed seed so runs can be compared.
+ */
+class benchmarkData {
+    // A power of two, so benchmarks can step through a sample with a mask
+    static final int SIZE = 4096;
+    static final int MASK = SIZE - 1;
+
+    static final long MAX_ELEMENT_ID = 100000000L;
+    static final int MAX_DATASET_ID = 100000;
+
+    /**
+     * identifiers_id values from 1 to MAX_ELEMENT_ID
+     */
+    static long[] elementIds(long seed) {
+        Random random = new Random(seed);
+        long[] ids = new long[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            ids[i] = logUniform(random, MAX_ELEMENT_ID);
+        }
+        return ids;
+    }
+
+    /**
+     * datasets_id values from 1 to MAX_DATASET_ID
+     */
+    static int[] datasetIds(long seed) {
+        Random random = new Random(seed);
+        int[] ids = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            ids[i] = (int) logUniform(random, MAX_DATASET_ID);
+        }
+        return ids;
+    }
+
+    /**
+     * Local identifiers of the kind passed through by suffixPassthrough datasets
+     */
+    static String localid(Random random) {
+        String[] collections = {"MBIO", "UF:Herp:", "CAS:ICH:", "MVZ-"};
+        return collections[random.nextInt(collections.length)] + (1 + random.nextInt(999999));
+    }
+
+    private static long logUniform(Random random, long max) {
+        return Math.max(1, Math.min(max, (long) Math.exp(random.nextDouble() * Math.log(max))));
+    }
+}
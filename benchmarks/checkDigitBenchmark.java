@@ -0,0 +1,63 @@
+package benchmarks;
+
+import bcid.CheckDigit;
+import bcid.elementEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CheckDigit on element identifiers, with and without their check character
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class checkDigitBenchmark {
+
+    private final CheckDigit checkDigit = new CheckDigit();
+    private String[] unchecked;
+    private String[] checked;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        elementEncoder encoder = new elementEncoder("ark:/21547/R2");
+        long[] ids = benchmarkData.elementIds(3);
+        unchecked = new String[benchmarkData.SIZE];
+        checked = new String[benchmarkData.SIZE];
+        for (int j = 0; j < benchmarkData.SIZE; j++) {
+            checked[j] = encoder.encode(ids[j]);
+            unchecked[j] = checkDigit.getCheckDigit(checked[j]);
+            if (!checkDigit.verify(checked[j])) {
+                throw new IllegalStateException(checked[j] + " does not verify");
+            }
+        }
+    }
+
+    private int next() {
+        return i = (i + 1) & benchmarkData.MASK;
+    }
+
+    @Benchmark
+    public String generate() {
+        return checkDigit.generate(unchecked[next()]);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return checkDigit.verify(checked[next()]);
+    }
+}
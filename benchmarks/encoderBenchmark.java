@@ -0,0 +1,141 @@
+package benchmarks;
+
+import bcid.CheckDigit;
+import bcid.dataGroupEncoder;
+import bcid.elementEncoder;
+import bcidExceptions.BCIDException;
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.SettingsManager;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * elementEncoder and dataGroupEncoder.  elementEncodeBigInteger is the encoding as it was done before encode(long),
+ * and dataGroupEncodeLegacy and dataGroupDecodeLegacy the floating point shoulder encoding before the integer
+ * rewrite, kept as the baselines the new code is measured against.  Setup checks the encoders still produce exactly
+ * the old identifiers and shoulders and round trip every sampled id, and fails the run if they don't.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class encoderBenchmark {
+
+    @Param({"ark:/21547/R2", "ark:/99999/fk4"})
+    public String prefix;
+
+    private elementEncoder element;
+    private dataGroupEncoder dataGroup;
+    private final legacyDataGroupEncoder legacyDataGroup = new legacyDataGroupEncoder();
+    private final Base64 base64 = new Base64(true);
+    private final CheckDigit checkDigit = new CheckDigit();
+    private String divider;
+
+    private long[] elementIds;
+    private BigInteger[] bigElementIds;
+    private String[] elements;
+    private int[] datasetIds;
+    private BigInteger[] bigDatasetIds;
+    private String[] shoulders;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void setup() throws BCIDException {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        divider = sm.getDivider();
+        element = new elementEncoder(prefix);
+        dataGroup = new dataGroupEncoder();
+
+        elementIds = benchmarkData.elementIds(1);
+        datasetIds = benchmarkData.datasetIds(2);
+        bigElementIds = new BigInteger[benchmarkData.SIZE];
+        bigDatasetIds = new BigInteger[benchmarkData.SIZE];
+        elements = new String[benchmarkData.SIZE];
+        shoulders = new String[benchmarkData.SIZE];
+        for (int j = 0; j < benchmarkData.SIZE; j++) {
+            // decode splits on the divider, so ids whose encoding contains it have never been decodable; step past them
+            while (element.encode(elementIds[j]).indexOf(divider, prefix.length() + divider.length()) >= 0) {
+                elementIds[j]++;
+            }
+            bigElementIds[j] = BigInteger.valueOf(elementIds[j]);
+            elements[j] = element.encode(elementIds[j]);
+            if (!elements[j].equals(encodeBigInteger(bigElementIds[j]))) {
+                throw new IllegalStateException(elementIds[j] + " encodes to " + elements[j] + ", not " +
+                        encodeBigInteger(bigElementIds[j]));
+            }
+            if (element.decode(elements[j]).longValue() != elementIds[j]) {
+                throw new IllegalStateException(elements[j] + " does not decode to " + elementIds[j]);
+            }
+            bigDatasetIds[j] = BigInteger.valueOf(datasetIds[j]);
+            shoulders[j] = dataGroup.encode(datasetIds[j]);
+            if (!shoulders[j].equals(legacyDataGroup.encode(bigDatasetIds[j]))) {
+                throw new IllegalStateException(datasetIds[j] + " encodes to " + shoulders[j] + ", not " +
+                        legacyDataGroup.encode(bigDatasetIds[j]));
+            }
+            // Dataset 1 is encoded as the EZID test shoulder fk4, which decode does not map back
+            if (datasetIds[j] != 1 && (dataGroup.decode(shoulders[j]).intValue() != datasetIds[j] ||
+                    !legacyDataGroup.decode(shoulders[j]).equals(bigDatasetIds[j]))) {
+                throw new IllegalStateException(shoulders[j] + " does not decode to " + datasetIds[j]);
+            }
+        }
+    }
+
+    private String encodeBigInteger(BigInteger big) {
+        return checkDigit.generate(prefix + divider + new String(base64.encode(big.toByteArray())).replace("\r\n", ""));
+    }
+
+    private int next() {
+        return i = (i + 1) & benchmarkData.MASK;
+    }
+
+    @Benchmark
+    public String elementEncodeLong() {
+        return element.encode(elementIds[next()]);
+    }
+
+    @Benchmark
+    public String elementEncodeBigInteger() {
+        return encodeBigInteger(bigElementIds[next()]);
+    }
+
+    @Benchmark
+    public BigInteger elementDecode() throws BCIDException {
+        return element.decode(elements[next()]);
+    }
+
+    @Benchmark
+    public String dataGroupEncode() {
+        return dataGroup.encode(datasetIds[next()]);
+    }
+
+    @Benchmark
+    public String dataGroupEncodeLegacy() {
+        return legacyDataGroup.encode(bigDatasetIds[next()]);
+    }
+
+    @Benchmark
+    public BigInteger dataGroupDecode() {
+        return dataGroup.decode(shoulders[next()]);
+    }
+
+    @Benchmark
+    public BigInteger dataGroupDecodeLegacy() {
+        return legacyDataGroup.decode(shoulders[next()]);
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import bcid.dataGroupEncoder;
+import com.ibm.icu.math.BigDecimal;
+
+import java.math.BigInteger;
+
+/**
+ * dataGroupEncoder's shoulder encoding and decoding as they were before the integer rewrite, with Math.pow and
+ * floating point division, kept as the baseline the rewrite is measured and checked against
+ */
+class legacyDataGroupEncoder {
+    private static final char[] chars = dataGroupEncoder.chars;
+    private static final byte[] codes = dataGroupEncoder.codes;
+
+    String encode(BigInteger i) {
+        // First spot is test dataset!
+        if (i.intValue() == 1) {
+            return "fk4";
+        }
+
+        String results = "";
+        int largeNumber = i.intValue();
+        // Calculate the number of characters are required to encode this number
+        int numCharactersPositionstoEncode = numCharactersPositionstoEncode(largeNumber);
+
+        // The selector tells us where to start our counts for character insertions
+        int selectorForCurrentPosition = largeNumber - optionsAtPreviousPositions(numCharactersPositionstoEncode);
+
+        for (int k = numCharactersPositionstoEncode; k > 0; k--) {
+            Double possibilitiesPerIncrement = new Double(optionsAtPosition(k) / chars.length);
+            int position = ceilingAsArrayPosition(selectorForCurrentPosition / possibilitiesPerIncrement);
+            results += chars[position];
+            selectorForCurrentPosition = ((Double) (selectorForCurrentPosition - (possibilitiesPerIncrement * position))).intValue();
+        }
+
+        return results + "2";
+    }
+
+    BigInteger decode(String shoulder) {
+        int numCharactersPositionstoDecode = shoulder.length() - 1;
+        Integer decodedInt = 0;
+        int j = numCharactersPositionstoDecode;
+        for (int i = 0; i < numCharactersPositionstoDecode; i++) {
+            Double possibilitiesPerIncrement = new Double(optionsAtPosition(j) / chars.length);
+            decodedInt += codes[shoulder.charAt(i)] * possibilitiesPerIncrement.intValue();
+            j--;
+        }
+        return new BigInteger(decodedInt.toString());
+    }
+
+    private int optionsAtPreviousPositions(int numCharactersPositionstoEncode) {
+        int optionsAtPreviousPositions = 0;
+        for (int i = numCharactersPositionstoEncode - 1; i > 0; i--) {
+            optionsAtPreviousPositions += Double.valueOf(Math.pow(chars.length, i)).intValue();
+        }
+        return optionsAtPreviousPositions;
+    }
+
+    private int optionsAtPosition(int numCharactersPositionstoEncode) {
+        return Double.valueOf(Math.pow(chars.length, numCharactersPositionstoEncode)).intValue();
+    }
+
+    private int numCharactersPositionstoEncode(int i) {
+        int numCharactersPositionstoEncode = 0;
+        int selector = 1;
+        int sumPreviousPossibilities = 0;
+        while (numCharactersPositionstoEncode < selector) {
+            int possibilities = optionsAtPosition(selector);
+            sumPreviousPossibilities += possibilities;
+            if (i <= sumPreviousPossibilities) {
+                numCharactersPositionstoEncode = selector;
+            } else {
+                selector++;
+            }
+        }
+        return numCharactersPositionstoEncode;
+    }
+
+    private int ceilingAsArrayPosition(Double position) {
+        BigDecimal bd = new BigDecimal(Double.toString(position));
+        return bd.setScale(0, BigDecimal.ROUND_CEILING).intValue() - 1;
+    }
+}
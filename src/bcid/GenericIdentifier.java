@@ -24,8 +24,8 @@ public abstract class GenericIdentifier implements GenericIdentifierInterface {
         sm.loadProperties();
 
         rights = sm.retrieveValue("rights");
-        resolverTargetPrefix = sm.retrieveValue("resolverTargetPrefix");
-        resolverMetadataPrefix = sm.retrieveValue("resolverMetadataPrefix");
+        resolverTargetPrefix = sm.getResolverTargetPrefix();
+        resolverMetadataPrefix = sm.getResolverMetadataPrefix();
     }
 
     /**
@@ -0,0 +1,178 @@
+package bcid;
+
+import net.sf.json.util.JSONUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves a stream of ARKs, one per line, writing one JSON result per line in input order.  ARKs are read
+ * inputParseChunkLines at a time and grouped by the dataset their shoulder decodes to, so every dataset is read once
+ * per request, with one query per chunk for the datasets that chunk is the first to need.  Datasets the
+ * datasetFilter knows don't exist are never queried.
+ * <p/>
+ * Each result gives the ARK's datasets_id, its resolution target and whether that forwards to a webaddress, its
+ * metadata page, the dataset's graph, data target and project, and under "bcid" the same metadata fields (who, what,
+ * when, title, doi, ...) the JSON rendering of resolverMetadataService gives, or found:false if the ARK is not in a
+ * dataset.
+ */
+public class arkBatchResolver {
+    private static Logger logger = LoggerFactory.getLogger(arkBatchResolver.class);
+
+    private final int chunkLines;
+    private final String divider;
+    // Every dataset looked up so far, with null for those that don't exist
+    private final Map<Integer, datasetRecord> datasets = new HashMap<Integer, datasetRecord>();
+
+    public arkBatchResolver() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        chunkLines = Math.max(1, Integer.parseInt(sm.retrieveValue("inputParseChunkLines", "10000")));
+        divider = sm.getDivider();
+    }
+
+    /**
+     * Resolve every ARK read from in, skipping blank lines, and write the results to out as newline delimited JSON
+     *
+     * @param in
+     * @param out
+     *
+     * @return the number of ARKs resolved
+     *
+     * @throws IOException if out cannot be written
+     */
+    public long resolve(Reader in, Writer out) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        long lineNumber = 0;
+        long count = 0;
+        long begin = System.currentTimeMillis();
+
+        StringBuilder sb = new StringBuilder();
+        List<String> arks = new ArrayList<String>(chunkLines);
+        boolean eof = false;
+        while (!eof) {
+            arks.clear();
+            long firstLine = lineNumber + 1;
+            String line;
+            while (arks.size() < chunkLines && (line = reader.readLine()) != null) {
+                arks.add(line.trim());
+            }
+            lineNumber += arks.size();
+            eof = arks.size() < chunkLines;
+
+            sb.setLength(0);
+            count += resolveChunk(arks, firstLine, sb);
+            out.write(sb.toString());
+            out.flush();
+        }
+        logger.info("Resolved {} ARKs from {} datasets in {} ms", new Object[]{count, datasets.size(),
+                System.currentTimeMillis() - begin});
+        return count;
+    }
+
+    private int resolveChunk(List<String> arks, long firstLine, StringBuilder sb) {
+        // Decode every shoulder first, so the chunk's new datasets can be read together
+        Integer[] datasets_ids = new Integer[arks.size()];
+        Set<Integer> needed = new LinkedHashSet<Integer>();
+        for (int i = 0; i < arks.size(); i++) {
+            if (arks.get(i).equals("")) {
+                continue;
+            }
+            datasets_ids[i] = datasetFilter.datasetsId(arks.get(i));
+            Integer datasets_id = datasets_ids[i];
+            if (datasets_id != null && !datasets.containsKey(datasets_id)) {
+                if (datasetFilter.mightExist(datasets_id)) {
+                    needed.add(datasets_id);
+                } else {
+                    datasets.put(datasets_id, null);
+                }
+            }
+        }
+        if (!needed.isEmpty()) {
+            // A connection is only held for the lookup, not while the client is read from or written to
+            Map<Integer, datasetRecord> found;
+            database db = new database(true);
+            try {
+                found = datasetRecord.lookup(db, needed);
+            } finally {
+                db.close();
+            }
+            // Only remember datasets as missing once the primary agrees
+            Set<Integer> notFound = new LinkedHashSet<Integer>(needed);
+            notFound.removeAll(found.keySet());
+            found.putAll(datasetRecord.lookupOnPrimary(notFound));
+            for (Integer datasets_id : needed) {
+                datasetRecord record = found.get(datasets_id);
+                if (record == null) {
+                    datasetFilter.markMissing(datasets_id);
+                }
+                datasets.put(datasets_id, record);
+            }
+        }
+
+        int count = 0;
+        for (int i = 0; i < arks.size(); i++) {
+            String ark = arks.get(i);
+            if (ark.equals("")) {
+                continue;
+            }
+            datasetRecord record = datasets_ids[i] == null ? null : datasets.get(datasets_ids[i]);
+            appendResult(sb, firstLine + i, ark, record);
+            sb.append('\n');
+            count++;
+        }
+        return count;
+    }
+
+    private void appendResult(StringBuilder sb, long line, String ark, datasetRecord record) {
+        sb.append("{\"line\":").append(line);
+        sb.append(",\"ark\":").append(JSONUtils.quote(ark));
+        sb.append(",\"found\":").append(record != null);
+        if (record == null) {
+            sb.append('}');
+            return;
+        }
+        sb.append(",\"datasets_id\":").append(record.getDatasets_id());
+        String sourceID = resolver.splitShoulderAndSourceID(ark.split("/", 3)[2], divider)[1];
+        try {
+            URI target = record.resolve(sourceID);
+            sb.append(",\"target\":").append(JSONUtils.quote(String.valueOf(target)));
+            sb.append(",\"forwarding\":").append(record.isForwarding(sourceID));
+            sb.append(",\"metadata\":").append(JSONUtils.quote(String.valueOf(record.getMetadataTarget(sourceID))));
+            URI dataTarget = record.resolveAs("tab");
+            if (dataTarget != null) {
+                sb.append(",\"dataTarget\":").append(JSONUtils.quote(dataTarget.toString()));
+            }
+        } catch (URISyntaxException e) {
+            sb.append(",\"error\":").append(JSONUtils.quote("unable to build a URI: " + e.getMessage()));
+        }
+        if (record.getGraph() != null) {
+            sb.append(",\"graph\":").append(JSONUtils.quote(record.getGraph()));
+        }
+        sb.append(",\"project_id\":").append(JSONUtils.quote(record.getProject_id()));
+        sb.append(",\"project_code\":").append(JSONUtils.quote(record.getProject_code()));
+        sb.append(",\"bcid\":{");
+        boolean first = true;
+        for (Map.Entry<String, String> field : new bcid(record, sourceID).getMetadata().entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append(JSONUtils.quote(field.getKey())).append(':').append(JSONUtils.quote(field.getValue()));
+            first = false;
+        }
+        sb.append("}}");
+    }
+}
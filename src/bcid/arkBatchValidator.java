@@ -0,0 +1,280 @@
+package bcid;
+
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Validates a stream of ARKs, one per line, writing one JSON result per line in input order.  Lines are read in
+ * chunks of inputParseChunkLines and validated with arkValidator on the same pool parallelRowReader parses input
+ * on, so the work spreads across cores while only a few chunks are held in memory.
+ * <p/>
+ * If asked to, it also checks that what each ARK refers to exists, with one query for the datasets in a chunk and
+ * one query per dataset for its elements and localids, run against the replica.  An element that has no row but
+ * falls inside a block reserved for its dataset exists too, and the blocks are looked up with one more query for
+ * any dataset that has such elements.
+ */
+public class arkBatchValidator {
+    private static Logger logger = LoggerFactory.getLogger(arkBatchValidator.class);
+
+    private final boolean checkExistence;
+    private final int chunkLines;
+
+    /**
+     * @param checkExistence whether to look up each ARK in the database
+     */
+    public arkBatchValidator(boolean checkExistence) {
+        this.checkExistence = checkExistence;
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        chunkLines = Math.max(1, Integer.parseInt(sm.retrieveValue("inputParseChunkLines", "10000")));
+    }
+
+    /**
+     * Validate every ARK read from in, skipping blank lines, and write the results to out as newline delimited JSON
+     *
+     * @param in
+     * @param out
+     *
+     * @return the number of ARKs validated
+     *
+     * @throws IOException if out cannot be written
+     */
+    public long validate(Reader in, Writer out) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        int maxInFlight = parallelRowReader.getExecutor().getMaximumPoolSize() * 2;
+        ArrayDeque<Future<List<arkValidation>>> inFlight = new ArrayDeque<Future<List<arkValidation>>>();
+        long lineNumber = 0;
+        long count = 0;
+        boolean eof = false;
+        long begin = System.currentTimeMillis();
+
+        try {
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                // Keep the pool supplied with chunks
+                while (!eof && inFlight.size() < maxInFlight) {
+                    final List<String> lines = new ArrayList<String>(chunkLines);
+                    final long firstLine = lineNumber + 1;
+                    String line;
+                    while (lines.size() < chunkLines && (line = reader.readLine()) != null) {
+                        lines.add(line);
+                    }
+                    lineNumber += lines.size();
+                    if (lines.size() < chunkLines) {
+                        eof = true;
+                    }
+                    if (!lines.isEmpty()) {
+                        inFlight.add(parallelRowReader.getExecutor().submit(new Callable<List<arkValidation>>() {
+                            public List<arkValidation> call() {
+                                return validateChunk(lines, firstLine);
+                            }
+                        }));
+                    }
+                }
+
+                Future<List<arkValidation>> next = inFlight.poll();
+                if (next == null) {
+                    break;
+                }
+                List<arkValidation> results = next.get();
+                if (checkExistence) {
+                    markExisting(results);
+                }
+                sb.setLength(0);
+                for (arkValidation result : results) {
+                    result.appendJSON(sb);
+                    sb.append('\n');
+                }
+                out.write(sb.toString());
+                out.flush();
+                count += results.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException("Server Error", "Interrupted while validating ARKs", e);
+        } catch (ExecutionException e) {
+            throw new ServerErrorException("Server Error", "Exception while validating ARKs", e.getCause());
+        }
+        logger.info("Validated {} ARKs in {} ms", count, System.currentTimeMillis() - begin);
+        return count;
+    }
+
+    private static List<arkValidation> validateChunk(List<String> lines, long firstLine) {
+        arkValidator validator = new arkValidator();
+        List<arkValidation> results = new ArrayList<arkValidation>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String ark = lines.get(i).trim();
+            if (!ark.equals("")) {
+                results.add(validator.validate(firstLine + i, ark));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Set exists on each valid result, with one query for the datasets and one per dataset for its identifiers.  A
+     * replica connection is borrowed for the chunk only, not while the client is read from or written to.
+     */
+    private void markExisting(List<arkValidation> results) {
+        Map<Integer, List<arkValidation>> byDataset = new LinkedHashMap<Integer, List<arkValidation>>();
+        for (arkValidation v : results) {
+            if (v.isValid()) {
+                List<arkValidation> list = byDataset.get(v.datasets_id);
+                if (list == null) {
+                    list = new ArrayList<arkValidation>();
+                    byDataset.put(v.datasets_id, list);
+                }
+                list.add(v);
+            }
+        }
+        if (byDataset.isEmpty()) {
+            return;
+        }
+
+        database db = new database(true);
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            Set<Integer> datasets = new HashSet<Integer>();
+            stmt = db.getConn().prepareStatement("SELECT datasets_id FROM datasets WHERE datasets_id IN (" +
+                    placeholders(byDataset.size()) + ")");
+            int p = 1;
+            for (Integer datasets_id : byDataset.keySet()) {
+                stmt.setInt(p++, datasets_id);
+            }
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                datasets.add(rs.getInt("datasets_id"));
+            }
+            db.close(stmt, rs);
+            stmt = null;
+            rs = null;
+
+            for (Map.Entry<Integer, List<arkValidation>> entry : byDataset.entrySet()) {
+                boolean datasetExists = datasets.contains(entry.getKey());
+                List<Long> ids = new ArrayList<Long>();
+                List<String> localids = new ArrayList<String>();
+                for (arkValidation v : entry.getValue()) {
+                    if (arkValidation.DATASET.equals(v.type) || !datasetExists) {
+                        v.exists = datasetExists;
+                    } else {
+                        v.exists = false;
+                        // A suffix that happens to verify may still be a passed through localid
+                        localids.add(v.suffix);
+                        if (v.identifiers_id != null) {
+                            ids.add(v.identifiers_id);
+                        }
+                    }
+                }
+                if (localids.isEmpty()) {
+                    continue;
+                }
+
+                StringBuilder sql = new StringBuilder("SELECT identifiers_id, localid FROM identifiers WHERE datasets_id = ? AND (localid IN (");
+                sql.append(placeholders(localids.size())).append(")");
+                if (!ids.isEmpty()) {
+                    sql.append(" OR identifiers_id IN (").append(placeholders(ids.size())).append(")");
+                }
+                sql.append(")");
+                stmt = db.getConn().prepareStatement(sql.toString());
+                p = 1;
+                stmt.setInt(p++, entry.getKey());
+                for (String localid : localids) {
+                    stmt.setString(p++, localid);
+                }
+                for (Long id : ids) {
+                    stmt.setLong(p++, id);
+                }
+                rs = stmt.executeQuery();
+                Set<Long> foundIds = new HashSet<Long>();
+                Set<String> foundLocalids = new HashSet<String>();
+                while (rs.next()) {
+                    foundIds.add(rs.getLong("identifiers_id"));
+                    String localid = rs.getString("localid");
+                    if (localid != null) {
+                        foundLocalids.add(localidFilter.normalize(localid));
+                    }
+                }
+                db.close(stmt, rs);
+                stmt = null;
+                rs = null;
+
+                long minReserved = Long.MAX_VALUE;
+                long maxReserved = Long.MIN_VALUE;
+                for (arkValidation v : entry.getValue()) {
+                    if (v.suffix != null && datasetExists) {
+                        v.exists = foundLocalids.contains(localidFilter.normalize(v.suffix)) ||
+                                (v.identifiers_id != null && foundIds.contains(v.identifiers_id));
+                        if (!v.exists && v.identifiers_id != null) {
+                            minReserved = Math.min(minReserved, v.identifiers_id);
+                            maxReserved = Math.max(maxReserved, v.identifiers_id);
+                        }
+                    }
+                }
+                if (minReserved > maxReserved) {
+                    continue;
+                }
+
+                // Reserved identifiers only have a row once something is attached to them
+                List<identifierBlock> blocks = new ArrayList<identifierBlock>();
+                stmt = db.getConn().prepareStatement("SELECT start, `count` FROM identifierBlocks " +
+                        "WHERE datasets_id = ? AND start <= ? AND start + `count` > ?");
+                stmt.setInt(1, entry.getKey());
+                stmt.setLong(2, maxReserved);
+                stmt.setLong(3, minReserved);
+                rs = stmt.executeQuery();
+                while (rs.next()) {
+                    blocks.add(new identifierBlock(null, null, rs.getLong("start"), rs.getLong("count")));
+                }
+                db.close(stmt, rs);
+                stmt = null;
+                rs = null;
+
+                for (arkValidation v : entry.getValue()) {
+                    if (Boolean.FALSE.equals(v.exists) && v.identifiers_id != null) {
+                        for (identifierBlock block : blocks) {
+                            if (block.contains(v.identifiers_id)) {
+                                v.exists = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        } finally {
+            db.close(stmt, rs);
+            db.close();
+        }
+    }
+
+    private static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder(n * 2);
+        for (int i = 0; i < n; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package bcid;
+
+import net.sf.json.util.JSONUtils;
+
+/**
+ * What arkValidator found out about one ARK: whether it is well formed, which dataset its shoulder encodes and,
+ * if it has a suffix, whether the suffix is an encoded element (its check character verifies) or a local
+ * identifier passed through as is.
+ */
+public class arkValidation {
+    public static final String DATASET = "dataset";
+    public static final String ELEMENT = "element";
+    public static final String LOCALID = "localid";
+
+    final long line;
+    final String ark;
+    String error;
+    String type;
+    String naan;
+    String shoulder;
+    String suffix;
+    Integer datasets_id;
+    Long identifiers_id;
+    Boolean exists;
+
+    arkValidation(long line, String ark) {
+        this.line = line;
+        this.ark = ark;
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public String getArk() {
+        return ark;
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    /**
+     * Why the ARK is not valid
+     *
+     * @return null if it is valid
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * dataset, element or localid
+     *
+     * @return
+     */
+    public String getType() {
+        return type;
+    }
+
+    public String getNaan() {
+        return naan;
+    }
+
+    public String getShoulder() {
+        return shoulder;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public Integer getDatasets_id() {
+        return datasets_id;
+    }
+
+    /**
+     * The decoded id of an element ARK
+     *
+     * @return
+     */
+    public Long getIdentifiers_id() {
+        return identifiers_id;
+    }
+
+    /**
+     * Whether the dataset or identifier is in the database
+     *
+     * @return null if this was not checked
+     */
+    public Boolean getExists() {
+        return exists;
+    }
+
+    /**
+     * Append this result to a buffer as a JSON object
+     *
+     * @param sb
+     */
+    public void appendJSON(StringBuilder sb) {
+        sb.append("{\"line\":").append(line);
+        sb.append(",\"ark\":").append(JSONUtils.quote(ark));
+        sb.append(",\"valid\":").append(isValid());
+        if (error != null) {
+            sb.append(",\"error\":").append(JSONUtils.quote(error));
+        } else {
+            sb.append(",\"type\":").append(JSONUtils.quote(type));
+            sb.append(",\"naan\":").append(JSONUtils.quote(naan));
+            sb.append(",\"shoulder\":").append(JSONUtils.quote(shoulder));
+            sb.append(",\"datasets_id\":").append(datasets_id);
+            if (suffix != null) {
+                sb.append(",\"suffix\":").append(JSONUtils.quote(suffix));
+            }
+            if (identifiers_id != null) {
+                sb.append(",\"identifiers_id\":").append(identifiers_id);
+            }
+        }
+        if (exists != null) {
+            sb.append(",\"exists\":").append(exists);
+        }
+        sb.append('}');
+    }
+}
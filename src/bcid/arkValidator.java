@@ -0,0 +1,146 @@
+package bcid;
+
+import bcidExceptions.BCIDException;
+import util.SettingsManager;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks ARKs without looking anything up in the database: the shoulder is decoded to a datasets_id with
+ * dataGroupEncoder and the suffix, if any, is verified and decoded with elementEncoder.  The ARK is split into
+ * shoulder and suffix with resolver.splitShoulderAndSourceID, as resolution does.  A validator keeps an
+ * elementEncoder per prefix it has seen, so it must not be shared between threads.
+ */
+public class arkValidator {
+    private static final String SCHEME = "ark:/";
+
+    private final dataGroupEncoder shoulderEncoder = new dataGroupEncoder();
+    private final Map<String, elementEncoder> encoders = new HashMap<String, elementEncoder>();
+    private final String divider;
+
+    public arkValidator() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        divider = sm.getDivider();
+    }
+
+    /**
+     * Validate one ARK
+     *
+     * @param line the line of input it came from, for reporting
+     * @param ark
+     *
+     * @return
+     */
+    public arkValidation validate(long line, String ark) {
+        arkValidation v = new arkValidation(line, ark);
+        if (!ark.startsWith(SCHEME)) {
+            v.error = "does not start with " + SCHEME;
+            return v;
+        }
+        int naanEnd = ark.indexOf('/', SCHEME.length());
+        if (naanEnd < 0) {
+            v.error = "has no shoulder";
+            return v;
+        }
+        v.naan = ark.substring(SCHEME.length(), naanEnd);
+        if (v.naan.length() == 0) {
+            v.error = "has no NAAN";
+            return v;
+        }
+        for (int i = 0; i < v.naan.length(); i++) {
+            if (!Character.isDigit(v.naan.charAt(i))) {
+                v.error = "NAAN " + v.naan + " is not numeric";
+                return v;
+            }
+        }
+
+        // The shoulder runs up to and including its first digit
+        String[] split = resolver.splitShoulderAndSourceID(ark.substring(naanEnd + 1), divider);
+        v.shoulder = split[0];
+        int letters = v.shoulder.length() - 1;
+        if (v.shoulder.equals("") || !Character.isDigit(v.shoulder.charAt(letters))) {
+            v.error = "shoulder has no digit";
+            return v;
+        }
+        if (v.naan.equals("99999") && v.shoulder.equals("fk4")) {
+            v.datasets_id = 1;
+        } else {
+            for (int i = 0; i < letters; i++) {
+                char c = v.shoulder.charAt(i);
+                if (c >= dataGroupEncoder.codes.length || dataGroupEncoder.codes[c] == 0) {
+                    v.error = "shoulder " + v.shoulder + " contains " + c;
+                    return v;
+                }
+            }
+            if (letters == 0) {
+                v.error = "shoulder " + v.shoulder + " has no letters";
+                return v;
+            }
+            if (letters > dataGroupEncoder.MAX_SHOULDER_LETTERS) {
+                v.error = "shoulder " + v.shoulder + " is longer than any dataset's";
+                return v;
+            }
+            // Shoulders too large for a datasets_id overflow when decoded, so only accept what encodes back the same
+            v.datasets_id = shoulderEncoder.decode(v.shoulder).intValue();
+            if (v.datasets_id < 1 || !shoulderEncoder.encode(v.datasets_id).equals(v.shoulder)) {
+                v.error = "shoulder " + v.shoulder + " does not belong to any dataset";
+                return v;
+            }
+        }
+
+        String suffix = split[1];
+        if (suffix.equals("")) {
+            v.type = arkValidation.DATASET;
+            return v;
+        }
+        v.suffix = suffix;
+
+        // An encoded element verifies against its check character; anything else is a passed through localid
+        String prefix = SCHEME + v.naan + "/" + v.shoulder;
+        elementEncoder encoder = encoders.get(prefix);
+        if (encoder == null) {
+            encoder = new elementEncoder(prefix);
+            encoders.put(prefix, encoder);
+        }
+        if (mightBeEncoded(suffix)) {
+            try {
+                BigInteger id = encoder.decode(ark);
+                if (id.signum() > 0 && id.bitLength() < 64) {
+                    v.type = arkValidation.ELEMENT;
+                    v.identifiers_id = id.longValue();
+                    return v;
+                }
+            } catch (BCIDException e) {
+                // Fails its check character, so not an encoded element
+            }
+        }
+        v.type = arkValidation.LOCALID;
+        return v;
+    }
+
+    /**
+     * Whether a suffix has the form of an encoded element, which elementEncoder.decode can verify: base64
+     * characters, up to any "/", long enough for at least one byte and a check character, and free of the divider
+     * decode() splits on
+     */
+    private boolean mightBeEncoded(String suffix) {
+        int end = suffix.indexOf('/');
+        if (end < 0) {
+            end = suffix.length();
+        }
+        int chars = end - 1;
+        if (chars < 2 || chars % 4 == 1) {
+            return false;
+        }
+        for (int i = 0; i < end; i++) {
+            char c = suffix.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return divider.equals("") || suffix.substring(0, end).indexOf(divider) < 0;
+    }
+}
@@ -79,7 +79,7 @@ public class bcid extends GenericIdentifier {
         dataGroupMinter dataset = setDatasets_id(dataset_id);
         try {
             if (sourceID != null && !sourceID.equals("")) {
-                identifier = new URI(dataset.identifier + sm.retrieveValue("divider") + sourceID);
+                identifier = new URI(dataset.identifier + sm.getDivider() + sourceID);
             } else {
                 identifier = dataset.identifier;
             }
@@ -105,14 +105,14 @@ public class bcid extends GenericIdentifier {
 
         try {
             if (sourceID != null && !sourceID.equals("")) {
-                identifier = new URI(dataset.identifier + sm.retrieveValue("divider") + sourceID);
+                identifier = new URI(dataset.identifier + sm.getDivider() + sourceID);
             } else {
                 identifier = dataset.identifier;
             }
             projectCode = dataset.getProject(dataset_id);
         } catch (URISyntaxException e) {
             //TODO should we silence this exception?
-            logger.warn("URISyntaxException for uri: {}", dataset.identifier + sm.retrieveValue("divider") + sourceID, e);
+            logger.warn("URISyntaxException for uri: {}", dataset.identifier + sm.getDivider() + sourceID, e);
         }
         // Reformat webAddress in this constructor if there is a sourceID
         if (sourceID != null && webAddress != null && !sourceID.toString().trim().equals("") && !webAddress.toString().trim().equals("")) {
@@ -128,6 +128,52 @@ public class bcid extends GenericIdentifier {
     }
 
 
+    /**
+     * Create a data group from a dataset that has already been read, or an element of it if the dataset has a
+     * webAddress and a sourceID is given.  This is what bcid(datasets_id) and bcid(sourceID, webAddress, datasets_id)
+     * give for resolver.printMetadata, without querying the dataset again.
+     *
+     * @param dataset
+     * @param sourceID may be null
+     */
+    public bcid(datasetRecord dataset, String sourceID) {
+        when = dataset.getTs();
+        this.graph = dataset.getGraph();
+        this.webAddress = dataset.getWebAddress();
+        this.dataset_id = dataset.getDatasets_id();
+        this.what = dataset.getResourceType();
+        this.title = dataset.getTitle();
+        this.projectCode = dataset.getProject_code();
+        this.datasetsTs = dataset.getTs();
+        this.datasetsPrefix = dataset.getPrefix();
+        this.doi = dataset.getDoi();
+        this.level = bcid.UNREGISTERED_ELEMENT;
+        this.who = dataset.getWho();
+        identifiersEzidRequest = false;
+        identifiersEzidMade = false;
+        datasetsEzidMade = dataset.isEzidMade();
+        datasetsEzidRequest = dataset.isEzidRequest();
+        datasetsSuffixPassthrough = dataset.isSuffixPassthrough();
+
+        if (sourceID != null && webAddress != null) {
+            try {
+                identifier = new URI(sourceID.equals("") ? datasetsPrefix : datasetsPrefix + sm.getDivider() + sourceID);
+            } catch (URISyntaxException e) {
+                //TODO should we silence this exception?
+                logger.warn("URISyntaxException for uri: {}", datasetsPrefix + sm.getDivider() + sourceID, e);
+            }
+            // Reformat webAddress if there is a sourceID
+            if (!sourceID.trim().equals("") && !webAddress.toString().trim().equals("")) {
+                try {
+                    this.webAddress = new URI(webAddress + sourceID);
+                } catch (URISyntaxException e) {
+                    //TODO should we silence this exception?
+                    logger.warn("URISyntaxException for uri: {}", webAddress + sourceID, e);
+                }
+            }
+        }
+    }
+
     /**
      * Create an element by passing in an BigInteger for the specific slot in the database and a string representation of this
      * ARK.
@@ -195,7 +241,7 @@ public class bcid extends GenericIdentifier {
     private void setSourceID(String sourceID, dataGroupMinter dataset) {
         try {
             if (sourceID != null && !sourceID.equals("")) {
-                identifier = new URI(dataset.identifier + sm.retrieveValue("divider") + sourceID);
+                identifier = new URI(dataset.identifier + sm.getDivider() + sourceID);
             } else {
                 identifier = dataset.identifier;
             }
@@ -282,7 +328,7 @@ public class bcid extends GenericIdentifier {
         this.datasetsTs = dataset.ts;
         this.datasetsPrefix = dataset.getPrefix();
         this.doi = dataset.doi;
-        this.level = this.UNREGISTERED_ELEMENT;
+        this.level = bcid.UNREGISTERED_ELEMENT;
         this.who = dataset.who;
         identifiersEzidRequest = false;
         identifiersEzidMade = false;
@@ -0,0 +1,85 @@
+package bcid;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What happened to the rows of a bulk load: how many were read and loaded, and which were skipped because their
+ * localid was repeated in the load or already taken in the dataset, or, rarely, which the server would not load.  Only the first few skipped rows are kept, so
+ * the report stays small however many there are.
+ */
+public class bulkLoadReport {
+    public static final String REPEATED = "localid repeated in this load";
+    public static final String EXISTS = "localid already exists in this dataset";
+    public static final String REJECTED = "row could not be loaded";
+
+    private final String loadedSetUUID;
+    private final int limit;
+    private long rows;
+    private long loaded;
+    private long duplicateCount;
+    private final List<JSONObject> duplicates = new ArrayList<JSONObject>();
+
+    bulkLoadReport(String loadedSetUUID, int limit) {
+        this.loadedSetUUID = loadedSetUUID;
+        this.limit = limit;
+    }
+
+    void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    void setLoaded(long loaded) {
+        this.loaded = loaded;
+    }
+
+    void addDuplicate(long line, String localid, String reason) {
+        duplicateCount++;
+        if (duplicates.size() < limit) {
+            JSONObject duplicate = new JSONObject();
+            duplicate.put("line", line);
+            duplicate.put("localid", localid);
+            duplicate.put("reason", reason);
+            duplicates.add(duplicate);
+        }
+    }
+
+    public String getLoadedSetUUID() {
+        return loadedSetUUID;
+    }
+
+    /**
+     * The number of rows read from the input
+     *
+     * @return
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * The number of rows inserted into identifiers
+     *
+     * @return
+     */
+    public long getLoaded() {
+        return loaded;
+    }
+
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject report = new JSONObject();
+        report.put("loadedSetUUID", loadedSetUUID);
+        report.put("rows", rows);
+        report.put("loaded", loaded);
+        report.put("duplicateCount", duplicateCount);
+        report.put("duplicates", JSONArray.fromObject(duplicates));
+        return report;
+    }
+}
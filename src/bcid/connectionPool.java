@@ -0,0 +1,861 @@
+package bcid;
+
+import bcidExceptions.ServerErrorException;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A small pool of JDBC connections to the backend bcid database, shared by every database object.
+ * Connections are opened lazily up to a maximum size, validated when they are borrowed, handed out wrapped so that
+ * Connection.close() returns them to the pool, and closed by a background thread once they have sat idle too long.
+ * <p/>
+ * Settings are read from the util.SettingsManager using a key prefix, so the primary pool uses bcidUrl, bcidUser,
+ * bcidPassword, bcidClass, bcidPoolMinSize, bcidPoolMaxSize, bcidPoolMaxWait, bcidPoolValidationTimeout,
+ * bcidPoolIdleTimeout, bcidPoolEvictionInterval, bcidPoolLeakThreshold and bcidPoolTrackBorrowers.  If
+ * bcidDataSource names a JNDI DataSource then connections are borrowed from the container instead and the sizing
+ * settings are ignored.
+ * <p/>
+ * The pool keeps counters of borrows, wait times and statements.  Connections held longer than the leak threshold
+ * are reported as leak suspects, and connections that are garbage collected without ever being closed are
+ * reclaimed.  Capturing a stack trace on every borrow is expensive, so where each connection was borrowed is only
+ * recorded when bcidPoolTrackBorrowers = true or debug = true.
+ * <p/>
+ * LOAD DATA LOCAL INFILE lets the server ask the client for any file it can read, so it is never enabled on pooled
+ * connections.  identifierBulkLoader gets its own unpooled connection to the primary from openBulkLoadConnection(),
+ * with bcidBulkLoadConnectionProperties added on top, or from the bcidBulkLoadDataSource JNDI DataSource.
+ */
+public class connectionPool {
+
+    private static Logger logger = LoggerFactory.getLogger(connectionPool.class);
+
+    private static connectionPool primary;
+    private static connectionPool replica;
+
+    // Upper bounds, in milliseconds, of the borrow wait histogram buckets.  The last bucket counts everything slower.
+    static final long[] WAIT_BUCKETS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    // Connector/J properties used unless <prefix>ConnectionProperties is set in the settings file
+    static final String DEFAULT_CONNECTION_PROPERTIES = "rewriteBatchedStatements=true;useServerPrepStmts=true;" +
+            "cachePrepStmts=true;prepStmtCacheSize=250;prepStmtCacheSqlLimit=2048";
+
+    // Connector/J properties added to the pool's for bulk load connections unless <prefix>BulkLoadConnectionProperties is set
+    static final String DEFAULT_BULK_LOAD_CONNECTION_PROPERTIES = "allowLoadLocalInfile=true";
+
+    private final String name;
+    private String url;
+    private Properties connectionProperties = new Properties();
+    private Properties bulkLoadConnectionProperties = new Properties();
+    private DataSource dataSource;
+    private String bulkLoadDataSourceName;
+
+    private int minSize;
+    private int maxSize;
+    private long maxWait;
+    private int validationTimeout;
+    private long idleTimeout;
+    private long leakThreshold;
+    private boolean trackBorrowers;
+
+    // Most recently used connections are kept at the head of the deque so that idle ones collect at the tail
+    private final LinkedBlockingDeque<idleConnection> idle = new LinkedBlockingDeque<idleConnection>();
+    private Semaphore permits;
+    private final AtomicInteger open = new AtomicInteger();
+    private ScheduledExecutorService evictor;
+    private volatile boolean shutdown = false;
+
+    // Outstanding borrows, each mapped to a weak reference on the connection handed out so we notice if it is
+    // garbage collected without having been closed
+    private final ConcurrentHashMap<borrowedConnection, leakReference> borrowed =
+            new ConcurrentHashMap<borrowedConnection, leakReference>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(WAIT_BUCKETS.length + 1);
+    private final AtomicLong leaksReclaimed = new AtomicLong();
+    private final AtomicLong statementsCreated = new AtomicLong();
+    private final AtomicLong statementsLeftOpen = new AtomicLong();
+
+    /**
+     * Return the pool for the primary bcid database, creating it on first use
+     *
+     * @return
+     */
+    public static synchronized connectionPool getPrimary() {
+        if (primary == null) {
+            primary = new connectionPool("bcid");
+        }
+        return primary;
+    }
+
+    /**
+     * Return the pool for the read-only replica of the bcid database, configured with the bcidReplica settings
+     * (bcidReplicaUrl, bcidReplicaPoolMaxSize, bcidReplicaDataSource, ...).  If no replica is configured then
+     * this is the primary pool.
+     *
+     * @return
+     */
+    public static synchronized connectionPool getReplica() {
+        if (replica == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            if (sm.retrieveValue("bcidReplicaUrl").trim().equals("") &&
+                    sm.retrieveValue("bcidReplicaDataSource").trim().equals("")) {
+                return getPrimary();
+            }
+            replica = new connectionPool("bcidReplica");
+        }
+        return replica;
+    }
+
+    /**
+     * Return every pool that has been created so far
+     *
+     * @return
+     */
+    public static synchronized List<connectionPool> getPools() {
+        List<connectionPool> pools = new ArrayList<connectionPool>();
+        if (primary != null) {
+            pools.add(primary);
+        }
+        if (replica != null) {
+            pools.add(replica);
+        }
+        return pools;
+    }
+
+    /**
+     * Close all idle connections and stop the eviction thread of every pool that has been created.
+     */
+    public static synchronized void shutdownAll() {
+        if (primary != null) {
+            primary.shutdown();
+            primary = null;
+        }
+        if (replica != null) {
+            replica.shutdown();
+            replica = null;
+        }
+    }
+
+    /**
+     * Create a pool using the settings that begin with the given prefix
+     *
+     * @param name the settings prefix, e.g. "bcid"
+     */
+    protected connectionPool(String name) {
+        this.name = name;
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+
+        leakThreshold = Long.parseLong(sm.retrieveValue(name + "PoolLeakThreshold", "60000"));
+        long evictionInterval = Long.parseLong(sm.retrieveValue(name + "PoolEvictionInterval", "60000"));
+        trackBorrowers = sm.retrieveValue(name + "PoolTrackBorrowers", "false").equalsIgnoreCase("true") ||
+                sm.retrieveValue("debug", "false").equalsIgnoreCase("true");
+
+        bulkLoadDataSourceName = sm.retrieveValue(name + "BulkLoadDataSource").trim();
+        String jndiName = sm.retrieveValue(name + "DataSource");
+        if (!jndiName.trim().equals("")) {
+            try {
+                dataSource = (DataSource) new InitialContext().lookup(jndiName.trim());
+            } catch (NamingException e) {
+                throw new ServerErrorException("Server Error", "Unable to find the DataSource " + jndiName, e);
+            }
+            logger.info("{} connections are borrowed from the JNDI DataSource {}", name, jndiName);
+        } else {
+            try {
+                Class.forName(sm.retrieveValue(name + "Class", "com.mysql.jdbc.Driver"));
+            } catch (ClassNotFoundException e) {
+                throw new ServerErrorException("Server Error", "Driver issues accessing BCID system", e);
+            }
+            url = sm.retrieveValue(name + "Url");
+            // A replica usually shares the primary's account, so fall back to the bcid credentials
+            connectionProperties.setProperty("user", sm.retrieveValue(name + "User", sm.retrieveValue("bcidUser")));
+            connectionProperties.setProperty("password",
+                    sm.retrieveValue(name + "Password", sm.retrieveValue("bcidPassword")));
+            // Send batches as multi-row INSERTs and keep prepared statements cached per connection
+            setProperties(connectionProperties,
+                    sm.retrieveValue(name + "ConnectionProperties", DEFAULT_CONNECTION_PROPERTIES));
+            bulkLoadConnectionProperties.putAll(connectionProperties);
+            setProperties(bulkLoadConnectionProperties,
+                    sm.retrieveValue(name + "BulkLoadConnectionProperties", DEFAULT_BULK_LOAD_CONNECTION_PROPERTIES));
+
+            minSize = Integer.parseInt(sm.retrieveValue(name + "PoolMinSize", "2"));
+            maxSize = Integer.parseInt(sm.retrieveValue(name + "PoolMaxSize", "20"));
+            maxWait = Long.parseLong(sm.retrieveValue(name + "PoolMaxWait", "10000"));
+            validationTimeout = Integer.parseInt(sm.retrieveValue(name + "PoolValidationTimeout", "2"));
+            idleTimeout = Long.parseLong(sm.retrieveValue(name + "PoolIdleTimeout", "300000"));
+
+            permits = new Semaphore(maxSize, true);
+        }
+
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, connectionPool.this.name + "-pool-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    reclaimCollected();
+                    reportLeakSuspects();
+                    if (dataSource == null) {
+                        evictIdle();
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("Exception while maintaining the {} connection pool.", connectionPool.this.name, e);
+                }
+            }
+        }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection from the pool.  The connection must be given back by calling close() on it.
+     *
+     * @return
+     */
+    public Connection getConnection() {
+        if (shutdown) {
+            throw new ServerErrorException("Server Error", "The " + name + " connection pool has been shut down");
+        }
+        long start = System.nanoTime();
+
+        if (dataSource != null) {
+            try {
+                Connection physical = dataSource.getConnection();
+                recordWait(System.nanoTime() - start);
+                return wrap(physical);
+            } catch (SQLException e) {
+                throw new ServerErrorException("Server Error", "SQL Exception accessing BCID system", e);
+            }
+        }
+
+        try {
+            if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new ServerErrorException("Server Error", "Timed out after " + maxWait +
+                        " ms waiting for a connection from the " + name + " connection pool");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException("Server Error", "Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            Connection physical = null;
+            idleConnection candidate;
+            while (physical == null && (candidate = idle.pollFirst()) != null) {
+                if (isValid(candidate.connection)) {
+                    physical = candidate.connection;
+                } else {
+                    discard(candidate.connection);
+                }
+            }
+            if (physical == null) {
+                physical = DriverManager.getConnection(url, connectionProperties);
+                open.incrementAndGet();
+            }
+            recordWait(System.nanoTime() - start);
+            return wrap(physical);
+        } catch (SQLException e) {
+            permits.release();
+            throw new ServerErrorException("Server Error", "SQL Exception accessing BCID system", e);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The number of physical connections currently open, borrowed or idle
+     *
+     * @return
+     */
+    public int getOpenCount() {
+        return open.get();
+    }
+
+    /**
+     * The number of open connections waiting in the pool to be borrowed
+     *
+     * @return
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * The number of connections currently borrowed and not yet closed
+     *
+     * @return
+     */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public long getBorrowCount() {
+        return borrows.get();
+    }
+
+    /**
+     * The number of borrowers that gave up after waiting the maximum time for a connection
+     *
+     * @return
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * The number of connections that were garbage collected without being closed, and so returned by the pool itself
+     *
+     * @return
+     */
+    public long getLeaksReclaimedCount() {
+        return leaksReclaimed.get();
+    }
+
+    public long getStatementsCreatedCount() {
+        return statementsCreated.get();
+    }
+
+    /**
+     * The number of statements that were still open when their connection was returned, and were closed by the pool
+     *
+     * @return
+     */
+    public long getStatementsLeftOpenCount() {
+        return statementsLeftOpen.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = borrows.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1000000.0 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1000000.0;
+    }
+
+    /**
+     * Counts of borrows by how long they waited for a connection.  Entry i counts waits of less than
+     * WAIT_BUCKETS[i] milliseconds (and at least the previous bound); the last entry counts all longer waits.
+     *
+     * @return
+     */
+    public long[] getWaitHistogram() {
+        long[] counts = new long[waitHistogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = waitHistogram.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Describe the connections that have been borrowed for longer than the leak threshold.  Each entry records how
+     * long ago the connection was borrowed, by which thread, and where.
+     *
+     * @return
+     */
+    public List<leakSuspect> getLeakSuspects() {
+        List<leakSuspect> suspects = new ArrayList<leakSuspect>();
+        long now = System.currentTimeMillis();
+        for (borrowedConnection b : borrowed.keySet()) {
+            if (now - b.borrowedAt > leakThreshold) {
+                suspects.add(new leakSuspect(now - b.borrowedAt, b.thread, b.borrowedFrom));
+            }
+        }
+        return suspects;
+    }
+
+    /**
+     * Return the pool counters as JSON.  Stack traces of leak suspects are only included when debug = true,
+     * the same rule used for exceptions returned by the REST services.
+     *
+     * @return
+     */
+    public JSONObject toJSON() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        boolean debug = sm.retrieveValue("debug", "false").equalsIgnoreCase("true");
+
+        JSONObject obj = new JSONObject();
+        obj.put("name", name);
+        obj.put("jndi", dataSource != null);
+        obj.put("open", getOpenCount());
+        obj.put("active", getActiveCount());
+        obj.put("idle", getIdleCount());
+        obj.put("maxSize", maxSize);
+        obj.put("borrows", getBorrowCount());
+        obj.put("timeouts", getTimeoutCount());
+        obj.put("averageWaitMillis", getAverageWaitMillis());
+        obj.put("maxWaitMillis", getMaxWaitMillis());
+
+        JSONObject histogram = new JSONObject();
+        long[] counts = getWaitHistogram();
+        for (int i = 0; i < WAIT_BUCKETS.length; i++) {
+            histogram.put("<" + WAIT_BUCKETS[i] + "ms", counts[i]);
+        }
+        histogram.put(">=" + WAIT_BUCKETS[WAIT_BUCKETS.length - 1] + "ms", counts[WAIT_BUCKETS.length]);
+        obj.put("waitHistogram", histogram);
+
+        obj.put("statementsCreated", getStatementsCreatedCount());
+        obj.put("statementsLeftOpen", getStatementsLeftOpenCount());
+        obj.put("leaksReclaimed", getLeaksReclaimedCount());
+
+        JSONArray suspects = new JSONArray();
+        for (leakSuspect suspect : getLeakSuspects()) {
+            JSONObject s = new JSONObject();
+            s.put("ageMillis", suspect.getAgeMillis());
+            s.put("thread", suspect.getThread());
+            if (debug) {
+                s.put("stackTrace", suspect.getStackTrace());
+            }
+            suspects.add(s);
+        }
+        obj.put("leakSuspects", suspects);
+        return obj;
+    }
+
+    /**
+     * Open a connection to the primary bcid database that may use LOAD DATA LOCAL INFILE.  It does not come from
+     * the pool and is really closed by close(), so only hold it for the length of one bulk load.
+     *
+     * @return
+     */
+    public static Connection openBulkLoadConnection() {
+        return getPrimary().openBulkLoad();
+    }
+
+    private Connection openBulkLoad() {
+        if (shutdown) {
+            throw new ServerErrorException("Server Error", "The " + name + " connection pool has been shut down");
+        }
+        try {
+            if (!bulkLoadDataSourceName.equals("")) {
+                return ((DataSource) new InitialContext().lookup(bulkLoadDataSourceName)).getConnection();
+            }
+            if (dataSource != null) {
+                throw new ServerErrorException("Server Error", "Bulk loads need " + name + "BulkLoadDataSource to " +
+                        "name a DataSource that allows LOAD DATA LOCAL INFILE when " + name + "DataSource is set");
+            }
+            return DriverManager.getConnection(url, bulkLoadConnectionProperties);
+        } catch (NamingException e) {
+            throw new ServerErrorException("Server Error", "Unable to find the DataSource " + bulkLoadDataSourceName, e);
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error", "SQL Exception accessing BCID system", e);
+        }
+    }
+
+    /**
+     * Close all idle connections and stop the eviction thread.  Borrowed connections are closed as they come back.
+     */
+    public void shutdown() {
+        shutdown = true;
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        idleConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            discard(candidate.connection);
+        }
+    }
+
+    /**
+     * Set Connector/J properties given as name=value pairs separated by semicolons
+     */
+    private static void setProperties(Properties properties, String values) {
+        for (String property : values.split(";")) {
+            int equals = property.indexOf('=');
+            if (equals > 0) {
+                properties.setProperty(property.substring(0, equals).trim(), property.substring(equals + 1).trim());
+            }
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrows.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, nanos)) {
+            // retry until we either set a new maximum or someone else set a larger one
+        }
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < WAIT_BUCKETS.length && millis >= WAIT_BUCKETS[bucket]) {
+            bucket++;
+        }
+        waitHistogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * Called by a borrowed connection when it is closed.  The connection is reset and put back at the head of the
+     * idle queue, or closed if it is broken or the pool is shutting down.
+     *
+     * @param physical
+     */
+    private void release(Connection physical) {
+        if (dataSource != null) {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                logger.warn("SQLException while attempting to close connection.", e);
+            }
+            return;
+        }
+
+        try {
+            if (shutdown || physical.isClosed()) {
+                discard(physical);
+                return;
+            }
+            // Leave the connection the way a new one would be for the next borrower
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (physical.isReadOnly()) {
+                physical.setReadOnly(false);
+            }
+            idle.offerFirst(new idleConnection(physical));
+        } catch (SQLException e) {
+            logger.warn("SQLException while returning a connection to the {} pool, discarding it.", name, e);
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Return the connections of borrowers that were garbage collected without closing them.  Their physical
+     * connections may be part way through a transaction, so they are closed rather than reused.
+     */
+    private void reclaimCollected() {
+        Reference<?> ref;
+        while ((ref = collected.poll()) != null) {
+            borrowedConnection b = ((leakReference) ref).handler;
+            if (borrowed.remove(b) != null) {
+                leaksReclaimed.incrementAndGet();
+                if (b.borrowedFrom != null) {
+                    logger.warn("A connection from the {} pool was never closed; reclaiming it.  It was borrowed " +
+                            "by thread {} here:", name, b.thread, b.borrowedFrom);
+                } else {
+                    logger.warn("A connection from the {} pool borrowed by thread {} was never closed; reclaiming " +
+                            "it.  Set {}PoolTrackBorrowers = true to record where.", name, b.thread, name);
+                }
+                Connection physical = b.takePhysical();
+                if (physical != null) {
+                    if (dataSource == null) {
+                        discard(physical);
+                        permits.release();
+                    } else {
+                        release(physical);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Log each connection once when it has been borrowed for longer than the leak threshold
+     */
+    private void reportLeakSuspects() {
+        long now = System.currentTimeMillis();
+        for (borrowedConnection b : borrowed.keySet()) {
+            if (!b.reported && now - b.borrowedAt > leakThreshold) {
+                b.reported = true;
+                if (b.borrowedFrom != null) {
+                    logger.warn("A connection from the {} pool has been borrowed for {} ms by thread {} and not " +
+                            "closed.  It was borrowed here:", name, now - b.borrowedAt, b.thread, b.borrowedFrom);
+                } else {
+                    logger.warn("A connection from the {} pool has been borrowed for {} ms by thread {} and not " +
+                            "closed.", name, now - b.borrowedAt, b.thread);
+                }
+            }
+        }
+    }
+
+    /**
+     * Close connections that have been idle longer than the idle timeout, keeping at least the minimum size open
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<idleConnection> it = idle.descendingIterator();
+        while (it.hasNext() && open.get() > minSize) {
+            idleConnection candidate = it.next();
+            if (now - candidate.since > idleTimeout && idle.remove(candidate)) {
+                discard(candidate.connection);
+            }
+        }
+    }
+
+    private boolean isValid(Connection physical) {
+        try {
+            return physical.isValid(validationTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(Connection physical) {
+        open.decrementAndGet();
+        try {
+            physical.close();
+        } catch (SQLException e) {
+            logger.warn("SQLException while attempting to close connection.", e);
+        }
+    }
+
+    private Connection wrap(Connection physical) {
+        borrowedConnection handler = new borrowedConnection(physical);
+        Connection proxy = (Connection) Proxy.newProxyInstance(
+                connectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                handler);
+        borrowed.put(handler, new leakReference(proxy, handler, collected));
+        return proxy;
+    }
+
+    /**
+     * A connection that has been borrowed for longer than the leak threshold
+     */
+    public static class leakSuspect {
+        private final long ageMillis;
+        private final String thread;
+        private final Throwable borrowedFrom;
+
+        leakSuspect(long ageMillis, String thread, Throwable borrowedFrom) {
+            this.ageMillis = ageMillis;
+            this.thread = thread;
+            this.borrowedFrom = borrowedFrom;
+        }
+
+        public long getAgeMillis() {
+            return ageMillis;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        /**
+         * The stack trace of the code that borrowed the connection, or null if borrowers are not being tracked
+         *
+         * @return
+         */
+        public String getStackTrace() {
+            if (borrowedFrom == null) {
+                return null;
+            }
+            StringWriter sw = new StringWriter();
+            borrowedFrom.printStackTrace(new PrintWriter(sw));
+            return sw.toString();
+        }
+    }
+
+    /**
+     * An idle physical connection and the time it was returned to the pool
+     */
+    private static class idleConnection {
+        final Connection connection;
+        final long since = System.currentTimeMillis();
+
+        idleConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Becomes enqueued when a borrowed connection is garbage collected.  It holds the handler strongly so the
+     * physical connection can still be reclaimed afterwards.
+     */
+    private static class leakReference extends WeakReference<Object> {
+        final borrowedConnection handler;
+
+        leakReference(Object proxy, borrowedConnection handler, ReferenceQueue<Object> queue) {
+            super(proxy, queue);
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Stands in for a physical connection while it is borrowed.  close() closes any statements the borrower left
+     * open and hands the physical connection back to the pool; any use after that fails instead of touching a
+     * connection that may now belong to someone else.
+     * <p/>
+     * Statements are handed out wrapped as well, so that a statement closed by the borrower is forgotten straight
+     * away and a connection that creates many statements does not hold on to all of them until it is returned.
+     */
+    private class borrowedConnection implements InvocationHandler {
+        private Connection physical;
+        private final Set<Statement> statements = Collections.newSetFromMap(new IdentityHashMap<Statement, Boolean>());
+        final long borrowedAt = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final Throwable borrowedFrom = trackBorrowers ?
+                new Throwable("Connection borrowed from the " + name + " pool") : null;
+        volatile boolean reported = false;
+
+        borrowedConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if (methodName.equals("close")) {
+                Connection c = takePhysical();
+                if (c != null) {
+                    leakReference ref = borrowed.remove(this);
+                    if (ref != null) {
+                        ref.clear();
+                    }
+                    release(c);
+                }
+                return null;
+            } else if (methodName.equals("isClosed")) {
+                Connection c = physical;
+                return c == null || c.isClosed();
+            } else if (methodName.equals("equals")) {
+                return proxy == args[0];
+            } else if (methodName.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (methodName.equals("toString")) {
+                return "pooled " + name + " connection " + physical;
+            }
+
+            Connection c = physical;
+            if (c == null) {
+                throw new SQLException("Connection has already been returned to the " + name + " pool");
+            }
+            Object result;
+            try {
+                result = method.invoke(c, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement) {
+                statementsCreated.incrementAndGet();
+                Statement stmt = (Statement) result;
+                synchronized (this) {
+                    statements.add(stmt);
+                }
+                return Proxy.newProxyInstance(
+                        connectionPool.class.getClassLoader(),
+                        new Class<?>[]{method.getReturnType()},
+                        new borrowedStatement(this, proxy, stmt));
+            }
+            return result;
+        }
+
+        synchronized void forget(Statement stmt) {
+            statements.remove(stmt);
+        }
+
+        /**
+         * Detach the physical connection from this handler, closing any statements left open on it.  Returns null
+         * if it was already detached.
+         *
+         * @return
+         */
+        synchronized Connection takePhysical() {
+            Connection c = physical;
+            if (c != null) {
+                physical = null;
+                for (Statement stmt : statements) {
+                    try {
+                        if (!stmt.isClosed()) {
+                            statementsLeftOpen.incrementAndGet();
+                            stmt.close();
+                        }
+                    } catch (SQLException e) {
+                        logger.warn("SQLException while attempting to close PreparedStatement.", e);
+                    }
+                }
+                statements.clear();
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Stands in for a statement created on a borrowed connection.  close() removes the statement from the
+     * connection's list of open statements; getConnection() returns the pooled connection rather than the
+     * physical one.
+     */
+    private static class borrowedStatement implements InvocationHandler {
+        private final borrowedConnection handler;
+        private final Object connection;
+        private final Statement statement;
+
+        borrowedStatement(borrowedConnection handler, Object connection, Statement statement) {
+            this.handler = handler;
+            this.connection = connection;
+            this.statement = statement;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if (methodName.equals("equals")) {
+                return proxy == args[0];
+            } else if (methodName.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (methodName.equals("getConnection")) {
+                return connection;
+            }
+            Object result;
+            try {
+                result = method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (methodName.equals("close")) {
+                handler.forget(statement);
+            }
+            return result;
+        }
+    }
+}
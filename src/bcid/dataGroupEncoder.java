@@ -1,6 +1,5 @@
 package bcid;
 
-import com.ibm.icu.math.BigDecimal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +16,9 @@ import java.util.HashMap;
  * plus a spot for a digit at the end, currently only encoding the digit "2"
  * If we have 3 letters in the shoulder including 1 digit this gives 1,217,727 possible permutations.
  * 4 letters and 1 digit will give 74,549,800 possible permutations.
+ * <p/>
+ * The letters are a bijective base 51 numeral: A..z stand for 1..51, so the shoulders run A, B, .. z, AA, AB, ..
+ * All of the arithmetic is done on ints and longs with the powers of 51 worked out once.
  */
 public class dataGroupEncoder extends GenericIdentifier implements encoder {
     private boolean debug = false;
@@ -24,6 +26,37 @@ public class dataGroupEncoder extends GenericIdentifier implements encoder {
 
     private static Logger logger = LoggerFactory.getLogger(dataGroupEncoder.class);
 
+    // The number of shoulder characters
+    private static final int BASE = 51;
+
+    // POWERS[k] is 51^k, up to the largest that fits in a long
+    private static final long[] POWERS = new long[12];
+
+    // The weight of each character when decoding a shoulder with a given number of characters.  This is 51^(k-1),
+    // capped the way the original floating point version capped it, so that over-long shoulders decode as before.
+    private static final int[] DECODE_WEIGHTS = new int[8];
+
+    // The most letters a shoulder can have, those of the shoulder of the largest datasets_id
+    public static final int MAX_SHOULDER_LETTERS;
+
+    static {
+        int letters = 0;
+        for (int n = Integer.MAX_VALUE; n > 0; n = (n - 1) / BASE) {
+            letters++;
+        }
+        MAX_SHOULDER_LETTERS = letters;
+    }
+
+    static {
+        POWERS[0] = 1;
+        for (int k = 1; k < POWERS.length; k++) {
+            POWERS[k] = POWERS[k - 1] * BASE;
+        }
+        for (int k = 1; k < DECODE_WEIGHTS.length; k++) {
+            DECODE_WEIGHTS[k] = (int) (Math.min(POWERS[k], Integer.MAX_VALUE) / BASE);
+        }
+    }
+
     /**
      * Tell if DEBUG mode is on or off
      *
@@ -49,54 +82,99 @@ public class dataGroupEncoder extends GenericIdentifier implements encoder {
      * @return returns the encoded String
      */
     public String encode(BigInteger i) {
+        return encode(i.intValue());
+    }
 
+    /**
+     * Encode a dataset value
+     *
+     * @param datasets_id
+     * @return returns the encoded String
+     */
+    public String encode(int datasets_id) {
         // First spot is test dataset!
-        if (i.intValue() == 1) {
+        if (datasets_id == 1) {
             return "fk4";
         }
-
-        String results = "";
-        int largeNumber = i.intValue();
-        // Calculate the number of characters are required to encode this number
-        int numCharactersPositionstoEncode = numCharactersPositionstoEncode(largeNumber);
-
-        if (debug) {
-            int possAtCharPosition = optionsAtPosition(numCharactersPositionstoEncode);
-            int sumPossAtPreviousCharPositions = optionsAtPreviousPositions(numCharactersPositionstoEncode);
-            int totalPossibilities = sumPossAtPreviousCharPositions + possAtCharPosition;
-            System.out.println("Integer to encode=" + i);
-            System.out.println("# Character positions required to encode = " + numCharactersPositionstoEncode);
-            System.out.println("# Possibilities for last set: " + possAtCharPosition);
-            System.out.println("# Possibilities for 0 to (n-1) positions: " + sumPossAtPreviousCharPositions);
-            System.out.println("# Total possibilities: " + totalPossibilities);
+        if (datasets_id < 1) {
+            logger.warn("Cannot encode a shoulder for {}", datasets_id);
+            return "2";
         }
 
-        // The selector tells us where to start our counts for character insertions
-        int selectorForCurrentPosition = largeNumber - optionsAtPreviousPositions(numCharactersPositionstoEncode);
-
-        // Fill characters by looping each position
-        // We run the loop from the last position going to the first position, calculating possibilities at each position
-        // The characters are appended from first to last (opposite of our probability calculation)
-        // This gives an encoding output of: aaa, aab, aac, aba, abb, abc, etc...
-        for (int k = numCharactersPositionstoEncode; k > 0; k--) {
-            // Calculate the number of possibilities in this position, which is
-            Double possibilitiesPerIncrement = new Double(optionsAtPosition(k) / this.chars.length);
-            // The position indicates how far down the character stack we search to fill in the appropriate character
-            int position = ceilingAsArrayPosition(selectorForCurrentPosition / possibilitiesPerIncrement);
-            // Start appending character to output
-            try {
-                results += this.chars[position];
-            } catch (ArrayIndexOutOfBoundsException e) {
-                logger.warn("Increment = " + i + ", position = " + position + ", selector=" + selectorForCurrentPosition + ", possperincrement =" + possibilitiesPerIncrement);
+        if (debug) {
+            int positions = 1;
+            long previous = 0;
+            while (datasets_id > previous + POWERS[positions]) {
+                previous += POWERS[positions++];
             }
-
-            // Update selector for current Position
-            selectorForCurrentPosition = ((Double) (selectorForCurrentPosition - (possibilitiesPerIncrement * position))).intValue();
+            System.out.println("Integer to encode=" + datasets_id);
+            System.out.println("# Character positions required to encode = " + positions);
+            System.out.println("# Possibilities for last set: " + POWERS[positions]);
+            System.out.println("# Possibilities for 0 to (n-1) positions: " + previous);
+            System.out.println("# Total possibilities: " + (previous + POWERS[positions]));
         }
 
-        return results + "2";
+        // Fill the characters from last to first
+        char[] shoulder = new char[8];
+        int pos = shoulder.length;
+        shoulder[--pos] = '2';
+        int n = datasets_id;
+        while (n > 0) {
+            int digit = (n - 1) % BASE;
+            shoulder[--pos] = chars[digit];
+            n = (n - 1) / BASE;
+        }
+        return new String(shoulder, pos, shoulder.length - pos);
     }
 
+    /**
+     * Encode the shoulders of a run of consecutive datasets, such as when listing or synchronizing many datasets.
+     * Each shoulder after the first is worked out by incrementing the previous one rather than from scratch.
+     *
+     * @param start the first datasets_id
+     * @param count the number of shoulders
+     * @return the shoulders of datasets start to start + count - 1
+     * @throws IllegalArgumentException if count is negative or the range runs past the largest datasets_id
+     */
+    public String[] encodeRange(int start, int count) {
+        if (count < 0 || (long) start + count - 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cannot encode " + count + " shoulders from " + start);
+        }
+        String[] shoulders = new String[count];
+        // digits[pos..7] hold the letters of the current shoulder as values 1..51, most significant first
+        int[] digits = new int[8];
+        int pos = digits.length;
+        for (int i = 0; i < count; i++) {
+            int value = start + i;
+            if (value <= 1) {
+                shoulders[i] = encode(value);
+                continue;
+            }
+            if (pos == digits.length) {
+                // The first shoulder that is encoded normally
+                for (int n = value; n > 0; n = (n - 1) / BASE) {
+                    digits[--pos] = (n - 1) % BASE + 1;
+                }
+            } else {
+                int k = digits.length - 1;
+                while (k >= pos && digits[k] == BASE) {
+                    digits[k--] = 1;
+                }
+                if (k >= pos) {
+                    digits[k]++;
+                } else {
+                    digits[--pos] = 1;
+                }
+            }
+            char[] shoulder = new char[digits.length - pos + 1];
+            for (int k = pos; k < digits.length; k++) {
+                shoulder[k - pos] = chars[digits[k] - 1];
+            }
+            shoulder[shoulder.length - 1] = '2';
+            shoulders[i] = new String(shoulder);
+        }
+        return shoulders;
+    }
 
     /**
      * Decode a string for the shoulderEncoder
@@ -132,83 +210,15 @@ public class dataGroupEncoder extends GenericIdentifier implements encoder {
             shoulder = entireString;
         }
 
-        // Convert the shoulder/text representation to a BigInteger
+        // Sum each character's value times its weight, ignoring the trailing digit
         int numCharactersPositionstoDecode = shoulder.length() - 1;
-        Integer decodedInt = 0;
+        int decodedInt = 0;
         int j = numCharactersPositionstoDecode;
-        // Loop each position and sum the character position * possibilities at each increment
         for (int i = 0; i < numCharactersPositionstoDecode; i++) {
-            // Calculate the number of possibilities in this position
-            Double possibilitiesPerIncrement = new Double(optionsAtPosition(j) / this.chars.length);
-            // Add to the decodedInt value:  numeric position of character * the number of possibilities at this increment
-            decodedInt += this.codes[shoulder.charAt(i)] * possibilitiesPerIncrement.intValue();
-
+            decodedInt += codes[shoulder.charAt(i)] * DECODE_WEIGHTS[Math.min(j, DECODE_WEIGHTS.length - 1)];
             j--;
         }
-        return new BigInteger(decodedInt.toString());
-    }
-
-    /**
-     * Sum the total of all possible options at previous positions
-     *
-     * @param numCharactersPositionstoEncode
-     * @return
-     */
-    private int optionsAtPreviousPositions(int numCharactersPositionstoEncode) {
-        int optionsAtPreviousPositions = 0;
-        for (int i = numCharactersPositionstoEncode - 1; i > 0; i--) {
-            optionsAtPreviousPositions += Double.valueOf(Math.pow(chars.length, i)).intValue();
-        }
-        return optionsAtPreviousPositions;
-    }
-
-    /**
-     * Calculate the number of possibilities at a particular position
-     *
-     * @param numCharactersPositionstoEncode
-     * @return
-     */
-    private int optionsAtPosition(int numCharactersPositionstoEncode) {
-        return Double.valueOf(Math.pow(chars.length, numCharactersPositionstoEncode)).intValue();
-    }
-
-    /**
-     * Calculate the number of character positions needed
-     *
-     * @param i
-     * @return
-     */
-    private int numCharactersPositionstoEncode(int i) {
-        // Fetch number of character Positions needed for this encoding
-        int numCharactersPositionstoEncode = 0;
-        int selector = 1;
-        int sumPreviousPossibilities = 0;
-        while (numCharactersPositionstoEncode < selector) {
-            int possibilities = optionsAtPosition(selector);
-            // Add in # possibilities from previous position
-            sumPreviousPossibilities += possibilities;
-            if (i <= sumPreviousPossibilities) {
-                numCharactersPositionstoEncode = selector;
-            } else {
-                selector++;
-            }
-        }
-        return numCharactersPositionstoEncode;
-
-    }
-
-    /**
-     * An Excel-like Ceiling function, returning integer versions of double values attached to the next highest number,
-     * so 1.11, 1.2, 1.5, 1.6 all become 2
-     * 1.0 stays as 1
-     * This is returned as array position so we can use directly with mapping encoded characters to their position in the array
-     *
-     * @param position
-     * @return
-     */
-    private int ceilingAsArrayPosition(Double position) {
-        BigDecimal bd = new BigDecimal(Double.toString(position));
-        return bd.setScale(0, BigDecimal.ROUND_CEILING).intValue() - 1;
+        return BigInteger.valueOf(decodedInt);
     }
 
     /** No digits used and eliminate uppercase O, not to confuse with Zero (0), this scheme used to construct shoulders for the EZID system, characters used for encoding are ABCDEFGHIJKLMNPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz **/
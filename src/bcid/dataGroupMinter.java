@@ -34,6 +34,7 @@ public class dataGroupMinter extends dataGroupEncoder {
     protected String ts = "";
     private Boolean suffixPassThrough = false;
     private Integer datasets_id = null;
+    private Integer users_id = null;
     protected boolean ezidRequest;
     protected boolean ezidMade;
     protected String who = "";
@@ -57,6 +58,15 @@ public class dataGroupMinter extends dataGroupEncoder {
         return datasets_id;
     }
 
+    /**
+     * The user who owns the dataset, if it was loaded by datasets_id or minted with this object
+     *
+     * @return
+     */
+    public Integer getUsers_id() {
+        return users_id;
+    }
+
     public Boolean getSuffixPassThrough() {
         return suffixPassThrough;
     }
@@ -71,7 +81,7 @@ public class dataGroupMinter extends dataGroupEncoder {
      * the mint method.
      */
     public dataGroupMinter(boolean ezidRequest, Boolean suffixPassThrough) {
-        db = new database();
+        db = new database(readOnlyRouting());
         conn = db.getConn();
         // Generate defaults in constructor, these will be overridden later
         shoulder = "fk4";
@@ -90,7 +100,7 @@ public class dataGroupMinter extends dataGroupEncoder {
      * @param ezidRequest
      */
     public dataGroupMinter(Integer NAAN, String shoulder, boolean ezidRequest, Boolean suffixPassThrough) {
-        db = new database();
+        db = new database(readOnlyRouting());
         conn = db.getConn();
         setBow(NAAN);
         prefix = bow + shoulder;
@@ -108,7 +118,7 @@ public class dataGroupMinter extends dataGroupEncoder {
      * @param datasets_id
      */
     public dataGroupMinter(Integer datasets_id) {
-        db = new database();
+        db = new database(readOnlyRouting());
         conn = db.getConn();
         String sql = "SELECT " +
                 "d.prefix as prefix," +
@@ -120,7 +130,8 @@ public class dataGroupMinter extends dataGroupEncoder {
                 "d.ts as ts, " +
                 "CONCAT_WS(' ',u.firstName, u.lastName) as who, " +
                 "d.webAddress as webAddress," +
-                "d.graph as graph" +
+                "d.graph as graph," +
+                "d.users_id as users_id" +
                 // NOTE: the projectCode query here fails if dataset has not been associated yet.
                 // I removed the reference here so we can return just information on the datagroup and
                 // not rely on any other dependencies.
@@ -156,6 +167,7 @@ public class dataGroupMinter extends dataGroupEncoder {
             //this.projectCode = rs.getString("projectCode");
             this.ts = rs.getString("ts");
             this.who = rs.getString("who");
+            this.users_id = rs.getInt("users_id");
             Integer naan = new Integer(prefix.split("/")[1]);
             this.datasets_id = datasets_id;
             this.suffixPassThrough = rs.getBoolean("suffixPassthrough");
@@ -179,13 +191,29 @@ public class dataGroupMinter extends dataGroupEncoder {
                // this.webAddress = null;
             }
         } catch (SQLException e) {
+            // The caller never gets a dataGroupMinter to close, so give the connection back here
+            close();
             throw new ServerErrorException(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
         } finally {
             db.close(stmt, rs);
         }
     }
 
 
+    /**
+     * Whether this object's connection may come from the read-only replica.  Data group metadata is read from
+     * the replica inside a read-only routing scope (see database.beginReadOnly); subclasses that mint override
+     * this so they always write to, and read back from, the primary.
+     *
+     * @return
+     */
+    protected boolean readOnlyRouting() {
+        return database.isReadOnlyRouting();
+    }
+
     /**
      * Get the projectCode given a datasets_id
      *
@@ -249,6 +277,7 @@ public class dataGroupMinter extends dataGroupEncoder {
      * @param title
      */
     public Integer mint(Integer NAAN, Integer who, String resourceType, String doi, String webaddress, String graph, String title, Boolean finalCopy) {
+        users_id = who;
 
         // Never request EZID for user=demo
         if (db.getUserName(who).equalsIgnoreCase("demo")) {
@@ -301,6 +330,10 @@ public class dataGroupMinter extends dataGroupEncoder {
             db.close(updateStatement, null);
         }
 
+        // Nothing should have resolved to the new dataset, but don't rely on it
+        resolutionCache.invalidate(datasets_id);
+        datasetFilter.add(datasets_id);
+
         // Create the shoulder identifier (String dataset identifier)
         shoulder = encode(new BigInteger(datasets_id.toString()));
 
@@ -696,6 +729,7 @@ public class dataGroupMinter extends dataGroupEncoder {
             Integer result = stmt.executeUpdate();
             // result should be '1', if not, nothing was updated
             if (result >= 1) {
+                resolutionCache.invalidate(prefix);
                 return true;
             } else {
                 // if here, then nothing was updated due to the dataset not being found
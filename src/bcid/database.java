@@ -3,14 +3,14 @@ package bcid;
 import bcidExceptions.ServerErrorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import util.SettingsManager;
 
 import java.sql.*;
 
 /**
  * Creates the connection for the backend bcid database.
- * Settings come from the util.SettingsManager/Property file defining the user/password/url/class
- * for the mysql database where the data lives.
+ * Connections are borrowed from the shared bcid.connectionPool, whose settings come from the
+ * util.SettingsManager/Property file defining the user/password/url/class for the mysql database where the data lives.
+ * Calling close() returns the connection to the pool.
  */
 public class database {
 
@@ -18,26 +18,65 @@ public class database {
     protected Connection conn;
     final static Logger logger = LoggerFactory.getLogger(database.class);
 
+    // How many read-only routing scopes the current thread has entered
+    private static final ThreadLocal<Integer> readOnlyDepth = new ThreadLocal<Integer>();
+
     /**
-     * Load settings for creating this database connection from the bcidsettings.properties file
+     * Borrow a connection for this database object from the connection pool.  Inside a read-only routing scope
+     * (see beginReadOnly) the connection comes from the replica pool, otherwise from the primary.
      */
     public database() {
-        try {
-            SettingsManager sm = SettingsManager.getInstance();
-            sm.loadProperties();
-            String bcidUser = sm.retrieveValue("bcidUser");
-            String bcidPassword = sm.retrieveValue("bcidPassword");
-            String bcidUrl = sm.retrieveValue("bcidUrl");
-            String bcidClass = sm.retrieveValue("bcidClass");
-
-            Class.forName(bcidClass);
-            conn = DriverManager.getConnection(bcidUrl, bcidUser, bcidPassword);
-        } catch (ClassNotFoundException e) {
-            throw new ServerErrorException("Server Error","Driver issues accessing BCID system", e);
-        } catch (SQLException e) {
-            throw new ServerErrorException("Server Error","SQL Exception accessing BCID system", e);
+        this(isReadOnlyRouting());
+    }
+
+    /**
+     * Borrow a connection for this database object, from the replica pool if readOnly is true and a replica is
+     * configured, otherwise from the primary.  Anything that writes, or reads back what it has just written,
+     * must use the primary.
+     *
+     * @param readOnly
+     */
+    public database(boolean readOnly) {
+        if (readOnly) {
+            conn = connectionPool.getReplica().getConnection();
+            try {
+                conn.setReadOnly(true);
+            } catch (SQLException e) {
+                logger.warn("SQLException while attempting to mark connection read only.", e);
+            }
+        } else {
+            conn = connectionPool.getPrimary().getConnection();
         }
+    }
 
+    /**
+     * Route database objects created by the current thread to the replica pool until the matching endReadOnly().
+     * Read-only request paths such as resolution opt in to this; minting never does.  Calls may be nested.
+     */
+    public static void beginReadOnly() {
+        Integer depth = readOnlyDepth.get();
+        readOnlyDepth.set(depth == null ? 1 : depth + 1);
+    }
+
+    /**
+     * Leave the read-only routing scope entered by beginReadOnly().  Always call this in a finally block.
+     */
+    public static void endReadOnly() {
+        Integer depth = readOnlyDepth.get();
+        if (depth == null || depth <= 1) {
+            readOnlyDepth.remove();
+        } else {
+            readOnlyDepth.set(depth - 1);
+        }
+    }
+
+    /**
+     * Tell whether the current thread is inside a read-only routing scope
+     *
+     * @return
+     */
+    public static boolean isReadOnlyRouting() {
+        return readOnlyDepth.get() != null;
     }
 
     public Connection getConn() {
@@ -67,6 +106,9 @@ public class database {
        close((Statement)stmt,rs);
     }
 
+    /**
+     * Return the connection to the pool.  Calling close more than once is harmless.
+     */
     public void close() {
         try {
             conn.close();
@@ -0,0 +1,305 @@
+package bcid;
+
+import net.sf.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells whether a datasets_id can exist without asking the database, so ARKs whose shoulders decode to datasets that
+ * were never minted are turned away cheaply.  datasets_ids are handed out by auto increment and are dense, so the
+ * filter is simply a bit per id, read from the replica on a background thread every datasetFilterRefresh
+ * milliseconds.  Datasets minted here are added straight away.
+ * <p/>
+ * An auto increment id is taken when its row is inserted but only seen once the transaction commits, and the
+ * replica may be behind, so a gap below the newest ids may yet be filled.  The filter only turns away ids up to the
+ * largest one whose row was already datasetFilterSettle milliseconds old when it was read; anything above that
+ * always passes.
+ * <p/>
+ * ids that pass the filter but turn out, on the primary too, not to exist are remembered for negativeCacheTTL
+ * milliseconds, up to negativeCacheSize of them.
+ */
+public class datasetFilter {
+    private static Logger logger = LoggerFactory.getLogger(datasetFilter.class);
+
+    private static BitSet ids;
+    private static int maxId;
+    private static int settledMaxId;
+    private static long builtAt;
+    private static boolean building;
+    private static ThreadPoolExecutor executor;
+
+    private static final Map<Integer, Long> missing = new LinkedHashMap<Integer, Long>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+            return size() > negativeCacheSize;
+        }
+    };
+
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong negativeHits = new AtomicLong();
+
+    private static volatile long refresh;
+    private static volatile long settle;
+    private static volatile long negativeCacheTTL;
+    private static volatile int negativeCacheSize;
+
+    static {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        refresh = Long.parseLong(sm.retrieveValue("datasetFilterRefresh", "600000"));
+        settle = Long.parseLong(sm.retrieveValue("datasetFilterSettle", "60000"));
+        negativeCacheTTL = Long.parseLong(sm.retrieveValue("negativeCacheTTL", "30000"));
+        negativeCacheSize = Integer.parseInt(sm.retrieveValue("negativeCacheSize", "10000"));
+    }
+
+    /**
+     * The datasets_id an ARK's shoulder decodes to, the same way resolver decodes it
+     *
+     * @param ark
+     *
+     * @return the datasets_id, or null if the ARK is not of the form ark:/NAAN/shoulder...
+     */
+    public static Integer datasetsId(String ark) {
+        String bits[] = ark.split("/", 3);
+        if (bits.length < 3) {
+            return null;
+        }
+        String shoulder = resolver.splitShoulderAndSourceID(bits[2], "")[0];
+        if (shoulder.equals("fk4") && bits[1].equals("99999")) {
+            return 1;
+        }
+        try {
+            return new dataGroupEncoder().decode(shoulder).intValue();
+        } catch (RuntimeException e) {
+            // The shoulder has characters the encoder has never heard of
+            return null;
+        }
+    }
+
+    /**
+     * Whether an ARK might belong to an existing dataset
+     *
+     * @param ark
+     *
+     * @return false if the ARK certainly does not resolve
+     */
+    public static boolean mightResolve(String ark) {
+        Integer datasets_id = datasetsId(ark);
+        if (datasets_id == null) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        return mightExist(datasets_id);
+    }
+
+    /**
+     * Whether a dataset might exist
+     *
+     * @param datasets_id
+     *
+     * @return false if the dataset certainly does not exist
+     */
+    public static boolean mightExist(int datasets_id) {
+        if (datasets_id < 1) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        refreshIfStale();
+        synchronized (datasetFilter.class) {
+            if (ids != null && datasets_id <= settledMaxId && !ids.get(datasets_id)) {
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+        synchronized (missing) {
+            Long expires = missing.get(datasets_id);
+            if (expires != null) {
+                if (expires > System.currentTimeMillis()) {
+                    negativeHits.incrementAndGet();
+                    return false;
+                }
+                missing.remove(datasets_id);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record a newly minted dataset
+     *
+     * @param datasets_id
+     */
+    public static void add(int datasets_id) {
+        synchronized (datasetFilter.class) {
+            if (ids != null) {
+                ids.set(datasets_id);
+                maxId = Math.max(maxId, datasets_id);
+            }
+        }
+        synchronized (missing) {
+            missing.remove(datasets_id);
+        }
+    }
+
+    /**
+     * Record that a dataset which passed the filter does not exist.  Callers look it up on the primary first (see
+     * datasetRecord.lookupOnPrimary), so one the replica has not caught up with is not turned away.
+     *
+     * @param datasets_id
+     */
+    public static void markMissing(int datasets_id) {
+        if (negativeCacheTTL <= 0) {
+            return;
+        }
+        synchronized (missing) {
+            missing.put(datasets_id, System.currentTimeMillis() + negativeCacheTTL);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "dataset-filter");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Queue a rebuild of the filter if it is older than datasetFilterRefresh.  Requests carry on with the old one
+     * meanwhile; until the first build succeeds every dataset passes.
+     */
+    private static void refreshIfStale() {
+        synchronized (datasetFilter.class) {
+            if (building || (builtAt > 0 && System.currentTimeMillis() - builtAt < refresh)) {
+                return;
+            }
+            building = true;
+        }
+        try {
+            getExecutor().execute(new Runnable() {
+                public void run() {
+                    rebuild();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            synchronized (datasetFilter.class) {
+                building = false;
+            }
+        }
+    }
+
+    private static void rebuild() {
+        BitSet built = null;
+        int builtMax = 0;
+        int builtSettledMax = 0;
+        long started = System.currentTimeMillis();
+        database db = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            db = new database(true);
+            // ts is the insert time, or later if the row has been updated, so this errs towards letting ids pass
+            stmt = db.getConn().prepareStatement(
+                    "SELECT datasets_id, ts < NOW() - INTERVAL ? SECOND AS settled FROM datasets");
+            stmt.setLong(1, settle / 1000);
+            rs = stmt.executeQuery();
+            built = new BitSet();
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                built.set(id);
+                builtMax = Math.max(builtMax, id);
+                if (rs.getBoolean(2)) {
+                    builtSettledMax = Math.max(builtSettledMax, id);
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("SQLException building the dataset filter; datasets will be looked up", e);
+            built = null;
+        } catch (RuntimeException e) {
+            logger.warn("Exception building the dataset filter; datasets will be looked up", e);
+            built = null;
+        } finally {
+            if (db != null) {
+                db.close(stmt, rs);
+                db.close();
+            }
+            synchronized (datasetFilter.class) {
+                if (built != null) {
+                    // Keep datasets added while the filter was being read
+                    if (ids != null) {
+                        for (int i = ids.nextSetBit(builtSettledMax + 1); i >= 0; i = ids.nextSetBit(i + 1)) {
+                            built.set(i);
+                            builtMax = Math.max(builtMax, i);
+                        }
+                    }
+                    ids = built;
+                    maxId = builtMax;
+                    settledMaxId = builtSettledMax;
+                }
+                // Try again after a full interval even if the build failed, rather than on every request
+                builtAt = started;
+                building = false;
+            }
+        }
+        if (built != null) {
+            logger.debug("Built the dataset filter for {} datasets in {} ms", built.cardinality(),
+                    System.currentTimeMillis() - started);
+        }
+    }
+
+    /**
+     * Stop the background thread
+     */
+    public static void shutdown() {
+        ThreadPoolExecutor toStop;
+        synchronized (datasetFilter.class) {
+            toStop = executor;
+            executor = null;
+        }
+        if (toStop != null) {
+            toStop.shutdownNow();
+        }
+    }
+
+    /**
+     * The filter's size and how many lookups it and the negative cache have turned away
+     *
+     * @return
+     */
+    public static JSONObject toJSON() {
+        JSONObject stats = new JSONObject();
+        synchronized (datasetFilter.class) {
+            stats.put("datasets", ids == null ? 0 : ids.cardinality());
+            stats.put("maxId", maxId);
+            stats.put("settledMaxId", settledMaxId);
+            stats.put("builtAt", builtAt);
+        }
+        synchronized (missing) {
+            stats.put("negativeCacheSize", missing.size());
+        }
+        stats.put("rejected", rejected.get());
+        stats.put("negativeHits", negativeHits.get());
+        return stats;
+    }
+}
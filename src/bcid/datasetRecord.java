@@ -0,0 +1,320 @@
+package bcid;
+
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What resolution needs to know about a dataset: its prefix, webaddress, suffixPassthrough, graph and project, and
+ * the title, resourceType, timestamp, DOI, EZID flags and creator shown as its metadata, read in a single query
+ * instead of through dataGroupMinter, getResourceType, getProject and getProjectID.  It works out the same
+ * resolution and metadata targets as resolver.resolveARK did with a bcid.
+ */
+public class datasetRecord {
+    private static Logger logger = LoggerFactory.getLogger(datasetRecord.class);
+
+    // Every table is joined on its key or an indexed column.  A dataset that has not been attached to an expedition
+    // still resolves, with no project.
+    static final String SELECT = "SELECT d.datasets_id, d.prefix, d.webAddress, d.suffixPassthrough, d.graph, " +
+            "d.title, d.resourceType, d.ts, d.doi, d.ezidMade, d.ezidRequest, " +
+            "CONCAT_WS(' ', u.firstName, u.lastName) AS who, " +
+            "p.project_id, p.project_code " +
+            "FROM datasets d " +
+            "LEFT JOIN users u ON u.user_id = d.users_id " +
+            "LEFT JOIN expeditionsBCIDs eb ON eb.datasets_id = d.datasets_id " +
+            "LEFT JOIN expeditions e ON e.expedition_id = eb.expedition_id " +
+            "LEFT JOIN projects p ON p.project_id = e.project_id ";
+
+    private final int datasets_id;
+    private final String prefix;
+    private final URI webAddress;
+    private final boolean suffixPassthrough;
+    private final String graph;
+    private final String project_id;
+    private final String project_code;
+    private final String title;
+    private final String resourceType;
+    private final String ts;
+    private final String doi;
+    private final boolean ezidMade;
+    private final boolean ezidRequest;
+    private final String who;
+
+    private datasetRecord(ResultSet rs) throws SQLException {
+        datasets_id = rs.getInt("datasets_id");
+        prefix = rs.getString("prefix");
+        suffixPassthrough = rs.getBoolean("suffixPassthrough");
+        graph = rs.getString("graph");
+        project_id = rs.getString("project_id");
+        project_code = rs.getString("project_code");
+        title = rs.getString("title");
+        resourceType = rs.getString("resourceType");
+        ts = rs.getString("ts");
+        doi = rs.getString("doi");
+        ezidMade = rs.getBoolean("ezidMade");
+        ezidRequest = rs.getBoolean("ezidRequest");
+        who = rs.getString("who");
+
+        URI uri = null;
+        String webaddress = rs.getString("webAddress");
+        if (webaddress != null) {
+            try {
+                uri = new URI(webaddress);
+            } catch (URISyntaxException e) {
+                logger.warn("URISyntaxException with uri: {} and datasetId: {}", webaddress, datasets_id, e);
+            }
+        }
+        webAddress = uri;
+    }
+
+    /**
+     * Read a dataset
+     *
+     * @param db
+     * @param datasets_id
+     *
+     * @return the dataset, or null if there is no such dataset
+     */
+    public static datasetRecord lookup(database db, int datasets_id) {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = db.getConn().prepareStatement(SELECT + "WHERE d.datasets_id = ? LIMIT 1");
+            stmt.setInt(1, datasets_id);
+            rs = stmt.executeQuery();
+            return rs.next() ? new datasetRecord(rs) : null;
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error", "Exception looking up dataset " + datasets_id, e);
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
+
+    /**
+     * Read several datasets in one query
+     *
+     * @param db
+     * @param datasets_ids
+     *
+     * @return the datasets that exist, by datasets_id
+     */
+    public static Map<Integer, datasetRecord> lookup(database db, Collection<Integer> datasets_ids) {
+        Map<Integer, datasetRecord> records = new HashMap<Integer, datasetRecord>();
+        if (datasets_ids.isEmpty()) {
+            return records;
+        }
+        StringBuilder sql = new StringBuilder(SELECT).append("WHERE d.datasets_id IN (");
+        for (int i = 0; i < datasets_ids.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")");
+
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = db.getConn().prepareStatement(sql.toString());
+            int p = 1;
+            for (Integer datasets_id : datasets_ids) {
+                stmt.setInt(p++, datasets_id);
+            }
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                // A dataset in several expeditions comes back once for each; like getProjectID, take the first
+                int datasets_id = rs.getInt("datasets_id");
+                if (!records.containsKey(datasets_id)) {
+                    records.put(datasets_id, new datasetRecord(rs));
+                }
+            }
+            return records;
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error", "Exception looking up " + datasets_ids.size() + " datasets", e);
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
+
+    /**
+     * Read datasets that a lookup on the replica did not find from the primary, since the replica may not have
+     * caught up with datasets just minted.  Without a replica the first lookup was already made on the primary, so
+     * nothing is read again.
+     *
+     * @param datasets_ids
+     *
+     * @return the datasets that exist on the primary, by datasets_id
+     */
+    public static Map<Integer, datasetRecord> lookupOnPrimary(Collection<Integer> datasets_ids) {
+        if (datasets_ids.isEmpty() || connectionPool.getReplica() == connectionPool.getPrimary()) {
+            return new HashMap<Integer, datasetRecord>();
+        }
+        database db = new database(false);
+        try {
+            return lookup(db, datasets_ids);
+        } finally {
+            db.close();
+        }
+    }
+
+    public int getDatasets_id() {
+        return datasets_id;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public URI getWebAddress() {
+        return webAddress;
+    }
+
+    public boolean isSuffixPassthrough() {
+        return suffixPassthrough;
+    }
+
+    public String getGraph() {
+        return graph;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return the resourceType URI, shown as erc.what
+     */
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    /**
+     * @return when the dataset was created, shown as erc.when
+     */
+    public String getTs() {
+        return ts;
+    }
+
+    public String getDoi() {
+        return doi;
+    }
+
+    public boolean isEzidMade() {
+        return ezidMade;
+    }
+
+    public boolean isEzidRequest() {
+        return ezidRequest;
+    }
+
+    /**
+     * @return the creator's first and last name, shown as erc.who
+     */
+    public String getWho() {
+        return who;
+    }
+
+    /**
+     * @return the project_id, or "" if the dataset is not attached to a project
+     */
+    public String getProject_id() {
+        return project_id == null ? "" : project_id;
+    }
+
+    /**
+     * @return the project_code, or "" if the dataset is not attached to a project
+     */
+    public String getProject_code() {
+        return project_code == null ? "" : project_code;
+    }
+
+    /**
+     * Whether an ARK in this dataset with the given sourceID is forwarded to a webaddress rather than to its
+     * metadata
+     *
+     * @param sourceID
+     *
+     * @return
+     */
+    public boolean isForwarding(String sourceID) {
+        if (webAddress == null || webAddress.toString().trim().equals("")) {
+            return false;
+        }
+        if (sourceID != null && !sourceID.trim().equals("")) {
+            return true;
+        }
+        return !suffixPassthrough && !webAddress.toString().equalsIgnoreCase("null");
+    }
+
+    /**
+     * Where an ARK in this dataset with the given sourceID resolves to: the webaddress with the sourceID appended,
+     * the webaddress alone, or the ARK's metadata
+     *
+     * @param sourceID
+     *
+     * @return
+     *
+     * @throws URISyntaxException
+     */
+    public URI resolve(String sourceID) throws URISyntaxException {
+        if (isForwarding(sourceID)) {
+            if (sourceID != null && !sourceID.trim().equals("")) {
+                return new URI(webAddress + sourceID);
+            }
+            return webAddress;
+        }
+        return getMetadataTarget(sourceID);
+    }
+
+    /**
+     * The metadata page of an ARK in this dataset
+     *
+     * @param sourceID
+     *
+     * @return
+     *
+     * @throws URISyntaxException
+     */
+    public URI getMetadataTarget(String sourceID) throws URISyntaxException {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        String identifier = prefix;
+        if (sourceID != null && !sourceID.equals("")) {
+            identifier = prefix + sm.getDivider() + sourceID;
+            // bcid drops an identifier that is not a valid URI
+            try {
+                new URI(identifier);
+            } catch (URISyntaxException e) {
+                logger.warn("URISyntaxException thrown", e);
+                identifier = null;
+            }
+        }
+        return new URI(sm.getResolverMetadataPrefix() + identifier);
+    }
+
+    /**
+     * Where the dataset's content can be fetched in another format, as resolver.resolveArkAs
+     *
+     * @param format
+     *
+     * @return the URI, or null if the dataset has no graph
+     *
+     * @throws URISyntaxException
+     */
+    public URI resolveAs(String format) throws URISyntaxException {
+        if (graph == null) {
+            return null;
+        }
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        return new URI(sm.retrieveValue("contentResolutionRoot") + format + "?graphs=" + graph + "&project_id=" +
+                getProject_id());
+    }
+}
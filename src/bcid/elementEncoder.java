@@ -5,6 +5,7 @@ import org.apache.commons.codec.binary.Base64;
 import util.SettingsManager;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
 /**
  * The element encoder operates by equating encoded Strings directly to BigIntegers in the database.
@@ -40,6 +41,25 @@ public class elementEncoder implements encoder {
 
     String prefix = null;
 
+    // URL safe base64 alphabet, as used by commons-codec when urlSafe is set
+    private static final char[] base64Chars =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] base64Codes = new byte[128];
+
+    static {
+        for (int i = 0; i < base64Codes.length; i++) base64Codes[i] = -1;
+        for (int i = 0; i < base64Chars.length; i++) base64Codes[base64Chars[i]] = (byte) i;
+    }
+
+    // The divider and prefix + divider, read once, and whether they allow the long fast paths
+    private final String divider;
+    private final char[] head;
+    private final boolean fastEncode;
+    private final boolean fastDecode;
+
+    // Reused by encode(long): the head followed by room for 12 base64 characters and the check character
+    private final char[] buffer;
+
     static SettingsManager sm;
     static {
         sm = SettingsManager.getInstance();
@@ -47,12 +67,28 @@ public class elementEncoder implements encoder {
     }
 
     /**
-     * Instantiate the encoderBCID class by passing in a prefix to work with
+     * Instantiate the encoderBCID class by passing in a prefix to work with.  An encoder reuses an internal buffer,
+     * so it must not be shared between threads.
      *
      * @param prefix
      */
     public elementEncoder(String prefix) {
         this.prefix = prefix;
+        this.divider = sm.getDivider();
+        this.head = (prefix + divider).toCharArray();
+        this.buffer = Arrays.copyOf(head, head.length + 13);
+
+        boolean checkable = true;
+        for (char c : head) {
+            if (c >= CheckDigit.codes.length) {
+                checkable = false;
+            }
+        }
+        fastEncode = checkable;
+        // decode() splits on the divider and strips the prefix with regular expressions; the fast path only takes
+        // the cases where that is the same as a literal match
+        fastDecode = checkable && prefix != null && divider.length() == 1 && !isRegexSpecial(divider.charAt(0)) &&
+                !hasRegexSpecial(prefix) && prefix.split("/").length == 3 && prefix.indexOf(divider) < 0;
     }
 
     /**
@@ -65,12 +101,57 @@ public class elementEncoder implements encoder {
      * @return A String representation of this BigInteger
      */
     public String encode(BigInteger big) {
+        if (big.signum() >= 0 && big.bitLength() < 64) {
+            return encode(big.longValue());
+        }
         CheckDigit checkDigit = new CheckDigit();
-        String strVal = prefix + sm.retrieveValue("divider") + new String(base64.encode(big.toByteArray()));
+        String strVal = prefix + divider + new String(base64.encode(big.toByteArray()));
         strVal = strVal.replace("\r\n", "");
         return checkDigit.generate(strVal);
     }
 
+    /**
+     * Encode an identifiers_id, producing the same String as encode(BigInteger.valueOf(id)) without going through
+     * BigInteger: the base64 characters of the id's two's complement bytes and the check character are written
+     * straight into a reused buffer.
+     *
+     * @param id
+     * @return A String representation of this id
+     */
+    public String encode(long id) {
+        if (id < 0 || !fastEncode) {
+            CheckDigit checkDigit = new CheckDigit();
+            return checkDigit.generate(prefix + divider + new String(base64.encode(BigInteger.valueOf(id).toByteArray())).replace("\r\n", ""));
+        }
+
+        // BigInteger.toByteArray() of a non-negative number: big endian, with room for a zero sign bit
+        int numBytes = (64 - Long.numberOfLeadingZeros(id)) / 8 + 1;
+        int pos = head.length;
+        int i = numBytes;
+        while (i >= 3) {
+            int group = (byteAt(id, i - 1) << 16) | (byteAt(id, i - 2) << 8) | byteAt(id, i - 3);
+            buffer[pos++] = base64Chars[(group >>> 18) & 0x3f];
+            buffer[pos++] = base64Chars[(group >>> 12) & 0x3f];
+            buffer[pos++] = base64Chars[(group >>> 6) & 0x3f];
+            buffer[pos++] = base64Chars[group & 0x3f];
+            i -= 3;
+        }
+        // No padding is written for a partial group
+        if (i == 2) {
+            int group = (byteAt(id, 1) << 16) | (byteAt(id, 0) << 8);
+            buffer[pos++] = base64Chars[(group >>> 18) & 0x3f];
+            buffer[pos++] = base64Chars[(group >>> 12) & 0x3f];
+            buffer[pos++] = base64Chars[(group >>> 6) & 0x3f];
+        } else if (i == 1) {
+            int group = byteAt(id, 0) << 16;
+            buffer[pos++] = base64Chars[(group >>> 18) & 0x3f];
+            buffer[pos++] = base64Chars[(group >>> 12) & 0x3f];
+        }
+
+        buffer[pos] = checkCharacter(buffer, pos);
+        return new String(buffer, 0, pos + 1);
+    }
+
     /**
      * Base64 decode identifiers into integer representations.
      * 1. verify that the entire string is good w/ check digit
@@ -80,6 +161,97 @@ public class elementEncoder implements encoder {
      * @return a BigIntgeger representation of this BCID
      */
     public BigInteger decode(String entireString) throws BCIDException {
+        if (fastDecode && entireString.startsWith(prefix) && entireString.startsWith(divider, prefix.length())) {
+            int start = head.length;
+            int end = entireString.indexOf('/', start);
+            if (end < 0) {
+                end = entireString.length();
+            }
+            long value = decodeLong(entireString, start, end);
+            if (value >= 0) {
+                return BigInteger.valueOf(value);
+            }
+            if (value == NOT_VERIFIED) {
+                throw new BCIDException(entireString + " does not verify");
+            }
+        }
+        return decodeBigInteger(entireString);
+    }
+
+    // Results of decodeLong other than a decoded id
+    private static final long NOT_VERIFIED = -1;
+    private static final long USE_BIGINTEGER = -2;
+
+    /**
+     * Verify and decode the suffix at [start, end) of an identifier that begins with prefix + divider, without
+     * creating any objects
+     *
+     * @return the id, NOT_VERIFIED, or USE_BIGINTEGER for anything this does not handle exactly as
+     *         decodeBigInteger would
+     */
+    private long decodeLong(String s, int start, int end) {
+        int suffixLength = end - start;
+        if (suffixLength < 2) {
+            return USE_BIGINTEGER;
+        }
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            // The divider may itself be a base64 character, and decodeBigInteger would split on it
+            if (c >= base64Codes.length || base64Codes[c] < 0 || c == divider.charAt(0)) {
+                return USE_BIGINTEGER;
+            }
+        }
+
+        // The check character covers prefix + divider + suffix
+        int length = head.length + suffixLength;
+        if (length > 30) {
+            return NOT_VERIFIED;
+        }
+        int n = length - 1;
+        int factor = 1;
+        int sum = 0;
+        for (int i = end - 1; i >= start; i--) {
+            int addend = factor * CheckDigit.codes[s.charAt(i)];
+            factor = (factor == 2) ? 1 : 2;
+            sum += (addend / n) + (addend % n);
+        }
+        for (int i = head.length - 1; i >= 0; i--) {
+            int addend = factor * CheckDigit.codes[head[i]];
+            factor = (factor == 2) ? 1 : 2;
+            sum += (addend / n) + (addend % n);
+        }
+        if (sum % n != 0) {
+            return NOT_VERIFIED;
+        }
+
+        // Base64 decode everything but the check character
+        int chars = suffixLength - 1;
+        int numBytes = chars / 4 * 3 + (chars % 4 == 3 ? 2 : chars % 4 == 2 ? 1 : 0);
+        if (numBytes == 0 || numBytes > 8 || chars % 4 == 1) {
+            return USE_BIGINTEGER;
+        }
+        long value = 0;
+        int bits = 0;
+        int buffered = 0;
+        int bytes = 0;
+        for (int i = start; i < start + chars && bytes < numBytes; i++) {
+            buffered = (buffered << 6) | base64Codes[s.charAt(i)];
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                value = (value << 8) | ((buffered >>> bits) & 0xff);
+                buffered &= (1 << bits) - 1;
+                bytes++;
+            }
+        }
+        // Sign extend, as new BigInteger(byte[]) does
+        if (numBytes < 8) {
+            value = (value << (64 - 8 * numBytes)) >> (64 - 8 * numBytes);
+        }
+        return value < 0 ? USE_BIGINTEGER : value;
+    }
+
+    private BigInteger decodeBigInteger(String entireString) throws BCIDException {
         CheckDigit checkDigit = new CheckDigit();
 
         // Pull off potential last piece of string which would represent the local Identifier
@@ -90,13 +262,13 @@ public class elementEncoder implements encoder {
         String bits[] = entireString.split("/");
         String scheme = bits[0];
         String naan = bits[1];
-        String datasetPlusSuffix[] = bits[2].split(sm.retrieveValue("divider"));
+        String datasetPlusSuffix[] = bits[2].split(divider);
         String dataset = datasetPlusSuffix[0];
 
         sbEntireString.append(scheme + "/" + naan + "/" + dataset);
 
         if (datasetPlusSuffix.length > 1) {
-            sbEntireString.append(sm.retrieveValue("divider") + datasetPlusSuffix[1]);
+            sbEntireString.append(divider + datasetPlusSuffix[1]);
         }
         String encodedString = sbEntireString.toString();
 
@@ -105,7 +277,7 @@ public class elementEncoder implements encoder {
             throw new BCIDException(entireString + " does not verify");
         }
         // Get just the encoded portion of the string minus the prefix
-        String encodedPiece = encodedString.replaceFirst(prefix, "").replaceFirst(sm.retrieveValue("divider"), "");
+        String encodedPiece = encodedString.replaceFirst(prefix, "").replaceFirst(divider, "");
 
         // Now check the Actual String, minus check Character
         String actualString = checkDigit.getCheckDigit(encodedPiece);
@@ -113,4 +285,38 @@ public class elementEncoder implements encoder {
         // Now return the integer that was encoded here.
         return new BigInteger(base64.decode(actualString));
     }
+
+    /**
+     * The check character for the first length characters of chars, as CheckDigit.generate computes it
+     */
+    private static char checkCharacter(char[] chars, int length) {
+        int factor = 2;
+        int sum = 0;
+        int n = length;
+        for (int i = length - 1; i >= 0; i--) {
+            int addend = factor * CheckDigit.codes[chars[i]];
+            factor = (factor == 2) ? 1 : 2;
+            sum += (addend / n) + (addend % n);
+        }
+        int remainder = sum % n;
+        return CheckDigit.chars[(n - remainder) % n];
+    }
+
+    // Byte i, counting from the least significant, of the numBytes-long big endian form of id
+    private static int byteAt(long id, int i) {
+        return i >= 8 ? 0 : (int) (id >>> (8 * i)) & 0xff;
+    }
+
+    private static boolean isRegexSpecial(char c) {
+        return ".$|()[]{}^?*+\\".indexOf(c) >= 0;
+    }
+
+    private static boolean hasRegexSpecial(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (isRegexSpecial(s.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,57 @@
+package bcid;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens uploaded element input for reading.  Input may be sent gzip compressed to cut down transfer time for large
+ * files; it is recognised by the gzip magic number rather than by a content type or file name, which clients do not
+ * set consistently, and decompressed as it is read.
+ */
+public class elementInput {
+
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    /**
+     * Open a UTF-8 reader over a stream, decompressing it if it is gzipped
+     *
+     * @param in closed if it cannot be opened
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    public static Reader open(InputStream in) throws IOException {
+        return new InputStreamReader(decompressed(in), "UTF-8");
+    }
+
+    /**
+     * The content of a stream, decompressed if it is gzipped
+     *
+     * @param in closed if it cannot be opened
+     *
+     * @return
+     *
+     * @throws IOException
+     */
+    public static InputStream decompressed(InputStream in) throws IOException {
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(in, 65536);
+            buffered.mark(2);
+            int first = buffered.read();
+            int second = buffered.read();
+            buffered.reset();
+            if (first >= 0 && second >= 0 && ((first << 8) | second) == GZIP_MAGIC) {
+                return new BufferedInputStream(new GZIPInputStream(buffered, 65536), 65536);
+            }
+            return buffered;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package bcid;
 
 import bcidExceptions.BCIDException;
+import bcidExceptions.BadRequestException;
 import bcidExceptions.ServerErrorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.SettingsManager;
 import util.timer;
 
+import java.io.IOException;
 import java.lang.Exception;
 import java.lang.Integer;
 import java.lang.NullPointerException;
@@ -15,6 +17,7 @@ import java.lang.System;
 import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -37,6 +40,7 @@ public class elementMinter extends dataGroupMinter {
     private Integer startingNumber;
     private String publisher;
     private String creator;
+    private mintRequest claim;
 
     private static Logger logger = LoggerFactory.getLogger(elementMinter.class);
 
@@ -92,6 +96,26 @@ public class elementMinter extends dataGroupMinter {
         init();
     }
 
+    /**
+     * Only commit elements minted by mintList or bulkLoad while the given mint request still holds its claim, so an
+     * attempt that has been taken over by a retry stops instead of minting alongside it
+     *
+     * @param request may be null
+     */
+    public void setMintRequest(mintRequest request) {
+        this.claim = request;
+    }
+
+    /**
+     * Minting always uses the primary database, so that identifiers can be read back right after they are inserted
+     *
+     * @return
+     */
+    @Override
+    protected boolean readOnlyRouting() {
+        return false;
+    }
+
     /**
      * Initialize stuff
      */
@@ -141,28 +165,47 @@ public class elementMinter extends dataGroupMinter {
     }
 
     /**
-     * Delete identifiers in table for a particular loadedSetuuid
+     * Delete identifiers in table for a particular loadedSetuuid.  Large sets are deleted a chunk at a time, see
+     * loadedSetDeleter.
      *
      * @param uuid
      *
-     * @return an int representing results from the executeUpdate command, i believe indicating the number
-     * of items deleted.
+     * @return the number of identifiers deleted
      */
     public int deleteLoadedSetUUID(String uuid) {
-        PreparedStatement stmt = null;
         try {
-            String sql = "DELETE FROM identifiers WHERE loadedSetUUID=?";
-            stmt = conn.prepareStatement(sql);
-            stmt.setString(1, uuid);
+            return (int) new loadedSetDeleter(db).delete(uuid);
+        } catch (SQLException e) {
+            throw new ServerErrorException("Server Error",
+                    "SQLException trying to delete loadedSetUUID: " + uuid + " from identifiers table", e);
+        }
+    }
+
+    /**
+     * Remove what earlier transactions committed of a mint that failed part way through, such as one rejected for a
+     * repeated localid.  The caller never saw the loadedSetUUID, so nothing else could clean it up.
+     */
+    private void discardLoadedSet(String loadedSetUUID) {
+        try {
+            deleteLoadedSetUUIDInBackground(loadedSetUUID);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to delete loaded set {} after a failed mint", loadedSetUUID, e);
+        }
+    }
 
-            return stmt.executeUpdate();
+    /**
+     * Delete identifiers for a particular loadedSetUUID on a background thread, for cleaning up after a failed
+     * mint that nothing will retry
+     *
+     * @param uuid
+     */
+    public void deleteLoadedSetUUIDInBackground(String uuid) {
+        try {
+            new loadedSetDeleter(db).deleteInBackground(uuid);
         } catch (SQLException e) {
-            //TODO should we silence this exception?
-            logger.warn("SQLException trying to delete loadedSetUUID: {} from identifiers table.", uuid, e);
-        } finally {
-            db.close(stmt, null);
+            throw new ServerErrorException("Server Error",
+                    "SQLException trying to delete loadedSetUUID: " + uuid + " from identifiers table", e);
         }
-        return 0;
     }
 
     /**
@@ -207,74 +250,187 @@ public class elementMinter extends dataGroupMinter {
         // A single ID to refer to this list of elements that are being inserted in the database
         String loadedSetUUID = this.generateUUIDString();
 
-        // Turn off autocommits just for this method
-        //conn.setAutoCommit(false);
-        PreparedStatement insertStatement = null;
+        identifierInserter inserter = null;
+        boolean minted = false;
         try {
-            int insertSize = 1000;
-            if (insertSize > elementList.size()) {
-                insertSize = elementList.size();
+            inserter = new identifierInserter(db, conn, loadedSetUUID, true);
+            // Screen for duplicate localids when, as usual, every element is in the same dataset
+            Integer datasets_id = null;
+            for (Object element : elementList) {
+                Integer id = ((bcid) element).dataset_id;
+                if (id == null || (datasets_id != null && !datasets_id.equals(id))) {
+                    datasets_id = null;
+                    break;
+                }
+                datasets_id = id;
+            }
+            if (datasets_id != null) {
+                inserter.screen(localidFilter.forDataset(db, datasets_id), datasets_id);
             }
-
-            // Begin prepared statement logic
-            insertStatement = conn.prepareStatement(formatSQL(insertSize));
             Iterator ids = elementList.iterator();
-            int rowcount = 0;
-            int paramcount = 1;
             // Loop through identifiers
             while (ids.hasNext()) {
                 bcid id = (bcid) ids.next();
+                inserter.add(id.webAddress == null ? null : id.webAddress.toString(), id.sourceID, id.dataset_id);
+            }
+            inserter.finish();
+            minted = true;
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        } catch (IOException e) {
+            // There is no listener, so this cannot happen
+            throw new ServerErrorException(e);
+        } finally {
+            if (inserter != null) {
+                inserter.close();
+            }
+            if (!minted) {
+                discardLoadedSet(loadedSetUUID);
+            }
+        }
+        t.lap("end mintList");
+        return loadedSetUUID.toString();
+    }
+
+    /**
+     * Mint elements read one at a time from an iterator, such as an elementRowReader.  Rows are inserted in
+     * bounded batches so memory use does not depend on how many rows there are.  All rows are minted into
+     * this minter's dataset.  A localid that is repeated or already used in the dataset is rejected with a
+     * BadRequestException before the batch containing it is sent.
+     *
+     * @param rows
+     *
+     * @return the loadedSetUUID that refers to this set of elements
+     */
+    public String mintList(Iterator<elementRow> rows) {
+        try {
+            return mintList(rows, null);
+        } catch (IOException e) {
+            // Only the writer can throw this
+            throw new ServerErrorException(e);
+        }
+    }
+
+    /**
+     * Mint elements read one at a time from an iterator, handing each encoded identifier to a writer as soon as the
+     * row it belongs to is committed.  The identifiers are built from the keys the database generates during the
+     * insert, so there is no need to read them back with getIdentifiers afterwards.  Identifiers arrive in the same
+     * order as the rows.
+     *
+     * @param rows
+     * @param writer receives the encoded identifiers, may be null
+     *
+     * @return the loadedSetUUID that refers to this set of elements
+     *
+     * @throws IOException if the writer fails
+     */
+    public String mintList(Iterator<elementRow> rows, final identifierWriter writer) throws IOException {
+        String loadedSetUUID = this.generateUUIDString();
+        boolean minted = false;
+        try {
+            mintList(rows, writer, loadedSetUUID);
+            minted = true;
+        } finally {
+            if (!minted) {
+                discardLoadedSet(loadedSetUUID);
+            }
+        }
+        return loadedSetUUID;
+    }
+
+    /**
+     * Mint elements as in mintList(rows, writer), under a loadedSetUUID chosen by the caller
+     *
+     * @param rows
+     * @param writer        receives the encoded identifiers, may be null
+     * @param loadedSetUUID
+     *
+     * @return the loadedSetUUID
+     *
+     * @throws IOException if the writer fails
+     */
+    public String mintList(Iterator<elementRow> rows, final identifierWriter writer, String loadedSetUUID)
+            throws IOException {
+        timer t = new timer();
+        t.lap("begin mintList");
 
-                if (id.webAddress != null)
-                    insertStatement.setString(paramcount++, id.webAddress.toString());
-                else
-                    insertStatement.setString(paramcount++, null);
-
-                insertStatement.setString(paramcount++, id.sourceID);
-                insertStatement.setString(paramcount++, loadedSetUUID.toString());
-                insertStatement.setInt(paramcount++, id.dataset_id);
-
-                // Execute a commit at every so many number of rows
-                if ((rowcount + 1) % insertSize == 0) {
-                    insertStatement.execute();
-                    insertStatement.clearParameters();
-                    // Adjust the size of the next prepared statement
-                    if (insertSize >= (elementList.size() - rowcount)) {
-                        int lastSectionSize = elementList.size() - (rowcount + 1);
-                        insertStatement = conn.prepareStatement(formatSQL(lastSectionSize));
+        int datasets_id = this.getDatasets_id();
+
+        identifierInserter.keyListener listener = null;
+        if (writer != null) {
+            // If this is suffixPassthrough then use prefix + localid, else use the current encode function
+            final boolean suffixPassThrough = this.getSuffixPassThrough();
+            final String divider = sm.getDivider();
+            final elementEncoder encoder = new elementEncoder(prefix);
+            listener = new identifierInserter.keyListener() {
+                public void inserted(long identifiers_id, String localid) throws IOException {
+                    if (suffixPassThrough) {
+                        writer.write(prefix + divider + localid);
+                    } else {
+                        writer.write(encoder.encode(identifiers_id));
                     }
-                    paramcount = 1;
                 }
-                rowcount++;
-            }
-            // Finish up, last statement
-            if (paramcount > 1) {
-                insertStatement.execute();
-            }
+            };
+        }
 
+        identifierInserter inserter = null;
+        long rowcount;
+        try {
+            inserter = new identifierInserter(db, conn, loadedSetUUID, true, listener);
+            inserter.claim(claim);
+            inserter.screen(localidFilter.forDataset(db, datasets_id), datasets_id);
+            while (rows.hasNext()) {
+                elementRow row = rows.next();
+                inserter.add(row.webAddress == null ? null : row.webAddress.toString(), row.localid, datasets_id);
+            }
+            rowcount = inserter.finish();
         } catch (SQLException e) {
             throw new ServerErrorException(e);
         } finally {
-            db.close(insertStatement, null);
+            if (inserter != null) {
+                inserter.close();
+            }
         }
-        t.lap("end mintList");
-        return loadedSetUUID.toString();
+        t.lap("end mintList, " + rowcount + " rows");
+        return loadedSetUUID;
     }
 
     /**
-     * Special function to prepare SQL statement
+     * Mint a very large set of elements with MySQL's bulk loader rather than batched INSERTs.  Rows whose localid
+     * is repeated in the input or already exists in this dataset are skipped and listed in the report instead of
+     * failing the load.  The identifiers can be read back afterwards with writeIdentifiers.
      *
-     * @param rowcount
+     * @param rows
      *
-     * @return
+     * @return a report of the load, including its loadedSetUUID
+     */
+    public bulkLoadReport bulkLoad(Iterator<elementRow> rows) {
+        return bulkLoad(rows, this.generateUUIDString());
+    }
+
+    /**
+     * Bulk load elements as in bulkLoad(rows), under a loadedSetUUID chosen by the caller
+     *
+     * @param rows
+     * @param loadedSetUUID
+     *
+     * @return a report of the load
      */
-    private String formatSQL(Integer rowcount) {
-        StringBuffer sql = new StringBuffer("INSERT INTO identifiers ( webaddress, localid, loadedSetUUID, datasets_id) " +
-                "values (?,?,?,?)");
-        for (int i = 1; i < rowcount; i++) {
-            sql.append(",(?,?,?,?)");
+    public bulkLoadReport bulkLoad(Iterator<elementRow> rows, String loadedSetUUID) {
+        // LOAD DATA LOCAL INFILE is only allowed on a connection of its own, see connectionPool
+        Connection bulkConn = connectionPool.openBulkLoadConnection();
+        try {
+            bulkLoadReport report = new identifierBulkLoader(db, bulkConn, this.getDatasets_id(), claim)
+                    .load(rows, loadedSetUUID);
+            localidFilter.invalidate(this.getDatasets_id());
+            return report;
+        } finally {
+            try {
+                bulkConn.close();
+            } catch (SQLException e) {
+                logger.warn("SQLException while attempting to close the bulk load connection.", e);
+            }
         }
-        return sql.toString();
     }
 
     /**
@@ -287,28 +443,77 @@ public class elementMinter extends dataGroupMinter {
      */
 
     public ArrayList getIdentifiers(String datasetUUID) {
-        ArrayList results = new ArrayList();
+        final ArrayList results = new ArrayList();
+        try {
+            writeIdentifiers(datasetUUID, new identifierWriter() {
+                public void write(String identifier) {
+                    results.add(identifier);
+                }
+            });
+        } catch (IOException e) {
+            // Adding to a list never throws
+            throw new ServerErrorException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Hand each encoded identifier for a loadedSetUUID to a writer, in the order they were minted.  Rows are
+     * streamed from the database rather than fetched all at once, so this can be used for very large sets.
+     * If the loadedSetUUID is a block reserved with reserveBCIDs, every identifier in the block is written,
+     * whether or not it has a row yet.  No other query may be run on this minter until it returns.
+     *
+     * @param datasetUUID
+     * @param writer
+     *
+     * @throws IOException if the writer fails
+     */
+    public void writeIdentifiers(String datasetUUID, identifierWriter writer) throws IOException {
         PreparedStatement stmt = null;
         ResultSet rs = null;
         try {
+            ArrayList<identifierBlock> blocks = new ArrayList<identifierBlock>();
+            stmt = conn.prepareStatement("SELECT start, `count` FROM identifierBlocks WHERE loadedSetUUID = ? " +
+                    "AND datasets_id IS NOT NULL ORDER BY start");
+            stmt.setString(1, datasetUUID);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                blocks.add(new identifierBlock(prefix, datasetUUID, rs.getLong("start"), rs.getLong("count")));
+            }
+            db.close(stmt, rs);
+            rs = null;
+            for (identifierBlock block : blocks) {
+                block.writeIdentifiers(writer);
+            }
+
             String sql = "SELECT " +
                     "i.identifiers_id as id," +
                     "d.prefix as prefix," +
                     "i.localid as localid" +
                     " FROM identifiers as i, datasets as d " +
                     " WHERE i.loadedSetUUID = ?" +
-                    " AND i.datasets_id=d.datasets_id";
-            stmt = conn.prepareStatement(sql);
+                    " AND i.datasets_id=d.datasets_id" +
+                    " ORDER BY i.identifiers_id";
+            stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // Tells Connector/J to stream rows instead of reading the whole result into memory
+            stmt.setFetchSize(Integer.MIN_VALUE);
             stmt.setString(1, datasetUUID);
             rs = stmt.executeQuery();
 
+            boolean suffixPassThrough = this.getSuffixPassThrough();
+            String divider = sm.getDivider();
+            elementEncoder encoder = new elementEncoder(prefix);
             while (rs.next()) {
+                if (inBlock(blocks, rs.getLong("id"))) {
+                    // Already written with the rest of its block
+                    continue;
+                }
                 // If this is suffixPassthrough then use prefix + localid
-                if (this.getSuffixPassThrough()) {
-                    results.add(rs.getString("prefix") + sm.retrieveValue("divider") + rs.getString("localid"));
+                if (suffixPassThrough) {
+                    writer.write(rs.getString("prefix") + divider + rs.getString("localid"));
                     // else use the current encode function
                 } else {
-                    results.add(new elementEncoder(prefix).encode(new BigInteger(rs.getString("id"))));
+                    writer.write(encoder.encode(rs.getLong("id")));
                 }
             }
 
@@ -317,7 +522,15 @@ public class elementMinter extends dataGroupMinter {
         } finally {
             db.close(stmt, rs);
         }
-        return results;
+    }
+
+    private static boolean inBlock(ArrayList<identifierBlock> blocks, long identifiers_id) {
+        for (identifierBlock block : blocks) {
+            if (block.contains(identifiers_id)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -367,58 +580,168 @@ public class elementMinter extends dataGroupMinter {
      * in our database.  If the user that requests these returns to the triplifier then we will turn them
      * into EZIDs for them at that time.  As such, all that is needed to register these is an email address
      * of a responsible party.
+     * <p/>
+     * The identifiers are reserved as a block with reserveBCIDs, so this takes the same time however many are
+     * asked for.  getIdentifiers and writeIdentifiers list every identifier in the block.
      *
      * @param numIdentifiers
      *
-     * @return An ArrayList of all the GUIDs
+     * @return the loadedSetUUID that refers to the new identifiers
      *
      * @throws java.net.URISyntaxException
      */
     public String createBCIDs(int numIdentifiers, URI what) throws URISyntaxException {
-        String datasetIdentifier = this.generateUUIDString();
+        return reserveBCIDs(numIdentifiers).getLoadedSetUUID();
+    }
+
+
+    /**
+     * Reserve a block of identifiers for this dataset without inserting a row for each one.  The block is recorded in
+     * the identifierBlocks table, and only the last identifier in it is written to identifiers, which moves the
+     * AUTO_INCREMENT counter past the block so later inserts never receive an id inside it.  Rows for the other
+     * identifiers are written by attach() once a localid or webaddress is known.
+     * <p/>
+     * The block is placed while holding identifierBlock's allocation lock for update, which waits for inserts that
+     * are already under way to commit and holds off new ones until the reservation commits.  Reservations in other
+     * datasets and reads are not blocked.
+     *
+     * @param numIdentifiers
+     *
+     * @return the reserved block
+     */
+    public identifierBlock reserveBCIDs(long numIdentifiers) {
+        if (numIdentifiers < 1) {
+            throw new BadRequestException("Must reserve at least one identifier");
+        }
+        String loadedSetUUID = this.generateUUIDString();
+        long start;
 
-        PreparedStatement insertStatement = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        boolean autoCommit = true;
+        boolean committed = false;
         try {
-            // Turn off autocommits just for this method
+            autoCommit = conn.getAutoCommit();
             conn.setAutoCommit(false);
+            identifierBlock.lockAllocation(db, conn, true);
 
-            // Use auto increment in database to assign the actual identifier.. this is threadsafe this way
-            // Also, use auto date assignment feature for when this was applied.
-            String insertString = "INSERT INTO identifiers(ezidRequest,loadedSetUUID, datasets_id) " +
-                    "values (?,?,?)";
-            insertStatement = conn.prepareStatement(insertString);
-
-            int count = 0;
-            while (count < numIdentifiers) {
-                insertStatement.setInt(1, FALSE);
-                // insertStatement.setString(2, what.toString());
-                insertStatement.setString(2, datasetIdentifier.toString());
-                insertStatement.setInt(3, this.getDatasets_id());
-                insertStatement.addBatch();
-                // Execute a commit at every 1000 rows
-                if (count + 1 % 1000 == 0) {
-                    insertStatement.executeBatch();
-                    conn.commit();
-                }
-                count++;
+            // Start after everything that has been inserted or reserved so far
+            start = startingNumber;
+            stmt = conn.prepareStatement("SELECT max(identifiers_id) as maxid FROM identifiers");
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                start = Math.max(start, rs.getLong("maxid") + 1);
             }
-            // Execute remainder as batch
-            insertStatement.executeBatch();
+            db.close(stmt, rs);
+
+            stmt = conn.prepareStatement("SELECT max(start + `count`) as nextid FROM identifierBlocks");
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                start = Math.max(start, rs.getLong("nextid"));
+            }
+            db.close(stmt, rs);
+            rs = null;
+
+            stmt = conn.prepareStatement("INSERT INTO identifierBlocks (datasets_id, loadedSetUUID, start, `count`) " +
+                    "VALUES (?,?,?,?)");
+            stmt.setInt(1, this.getDatasets_id());
+            stmt.setString(2, loadedSetUUID);
+            stmt.setLong(3, start);
+            stmt.setLong(4, numIdentifiers);
+            stmt.executeUpdate();
+            db.close(stmt, null);
+
+            stmt = conn.prepareStatement("INSERT INTO identifiers (identifiers_id, ezidRequest, loadedSetUUID, datasets_id) " +
+                    "VALUES (?,?,?,?)");
+            stmt.setLong(1, start + numIdentifiers - 1);
+            stmt.setInt(2, FALSE);
+            stmt.setString(3, loadedSetUUID);
+            stmt.setInt(4, this.getDatasets_id());
+            stmt.executeUpdate();
+
             conn.commit();
+            committed = true;
         } catch (SQLException e) {
             throw new ServerErrorException(e);
         } finally {
-            db.close(insertStatement, null);
+            db.close(stmt, rs);
             try {
-                conn.setAutoCommit(true);
+                if (!committed) {
+                    conn.rollback();
+                }
+                conn.setAutoCommit(autoCommit);
             } catch (SQLException e) {
-                logger.warn("SQLException thrown while trying to setAutoCommit(true).", e);
+                logger.warn("SQLException trying to finish the transaction reserving identifiers.", e);
             }
         }
 
-        return datasetIdentifier.toString();
+        logger.info("Reserved {} identifiers starting at {} for loaded set {}",
+                new Object[]{numIdentifiers, start, loadedSetUUID});
+        return new identifierBlock(prefix, loadedSetUUID, start, numIdentifiers);
     }
 
+    /**
+     * Attach a localid and webaddress to an identifier minted in this dataset.  If the identifier was reserved with
+     * reserveBCIDs and has no row yet, the row is written now.
+     *
+     * @param identifier the encoded identifier
+     * @param localid    may be null
+     * @param webAddress may be null
+     *
+     * @return the identifiers_id
+     *
+     * @throws BCIDException if the identifier does not decode or was never minted or reserved in this dataset
+     */
+    public BigInteger attach(String identifier, String localid, URI webAddress) throws BCIDException {
+        BigInteger id = new elementEncoder(prefix).decode(identifier);
+        String target = webAddress == null ? null : webAddress.toString();
+
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("UPDATE identifiers SET localid = ?, webaddress = ? " +
+                    "WHERE identifiers_id = ? AND datasets_id = ?");
+            stmt.setString(1, localid);
+            stmt.setString(2, target);
+            stmt.setLong(3, id.longValue());
+            stmt.setInt(4, this.getDatasets_id());
+            if (stmt.executeUpdate() > 0) {
+                localidFilter.invalidate(this.getDatasets_id());
+                return id;
+            }
+            db.close(stmt, null);
+
+            // Not written yet, so it has to fall inside one of this dataset's reserved blocks
+            stmt = conn.prepareStatement("SELECT loadedSetUUID FROM identifierBlocks " +
+                    "WHERE datasets_id = ? AND start <= ? AND start + `count` > ?");
+            stmt.setInt(1, this.getDatasets_id());
+            stmt.setLong(2, id.longValue());
+            stmt.setLong(3, id.longValue());
+            rs = stmt.executeQuery();
+            if (!rs.next()) {
+                throw new BCIDException(identifier + " was not minted or reserved in " + prefix);
+            }
+            String loadedSetUUID = rs.getString("loadedSetUUID");
+            db.close(stmt, rs);
+            rs = null;
+
+            stmt = conn.prepareStatement("INSERT INTO identifiers " +
+                    "(identifiers_id, localid, webaddress, ezidRequest, loadedSetUUID, datasets_id) VALUES (?,?,?,?,?,?)");
+            stmt.setLong(1, id.longValue());
+            stmt.setString(2, localid);
+            stmt.setString(3, target);
+            stmt.setInt(4, FALSE);
+            stmt.setString(5, loadedSetUUID);
+            stmt.setInt(6, this.getDatasets_id());
+            stmt.executeUpdate();
+            localidFilter.invalidate(this.getDatasets_id());
+            return id;
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
 
     /**
      * validate uuid, to make sure it conforms to the generic structure expected of uuids
@@ -448,7 +771,7 @@ public class elementMinter extends dataGroupMinter {
         if (!validateUUID(uuidAsString)) {
             throw new BCIDException("Invalid uuid: " + uuidAsString);
         }
-        return prefix + sm.retrieveValue("divider") + UUID.fromString(uuidAsString).toString();
+        return prefix + sm.getDivider() + UUID.fromString(uuidAsString).toString();
     }
 
     /**
@@ -463,7 +786,7 @@ public class elementMinter extends dataGroupMinter {
         } catch (Exception e) {
             e.printStackTrace();
         }
-        Integer naan = new Integer(sm.retrieveValue("bcidNAAN"));
+        Integer naan = sm.getBcidNAAN();
 
         // Create the shoulder
         dataGroupMinter minterDataset = null;
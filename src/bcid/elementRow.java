@@ -0,0 +1,18 @@
+package bcid;
+
+import java.net.URI;
+
+/**
+ * A single element waiting to be minted: the local identifier supplied by the user and an optional webaddress
+ * that the minted identifier should resolve to.  Unlike bcid, an elementRow does not touch the database, so
+ * large input files can be read one row at a time.
+ */
+public class elementRow {
+    public final String localid;
+    public final URI webAddress;
+
+    public elementRow(String localid, URI webAddress) {
+        this.localid = localid;
+        this.webAddress = webAddress;
+    }
+}
@@ -0,0 +1,225 @@
+package bcid;
+
+import bcidExceptions.BadRequestException;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Turns one line of element input into an elementRow.  The supported formats are:
+ * <ul>
+ * <li>pipe: localid|webaddress, the original format</li>
+ * <li>csv: localid,webaddress with optional double quoted fields, as written by spreadsheets</li>
+ * <li>tsv: localid and webaddress separated by a tab</li>
+ * <li>ndjson: one JSON object per line, {"localid": ..., "webaddress": ...}</li>
+ * </ul>
+ * Each record must fit on one line, so that input can be split at any line break and parsed in pieces.  For csv and
+ * tsv a first line starting with a "localid" column is taken to be a header and skipped, and for every format but
+ * pipe blank lines are skipped.  A parser has no state, so one instance can be shared between threads.
+ */
+public class elementRowParser {
+    public static final String PIPE = "pipe";
+    public static final String CSV = "csv";
+    public static final String TSV = "tsv";
+    public static final String NDJSON = "ndjson";
+
+    // The size of the identifiers.localid column
+    static final int MAX_LOCALID_LENGTH = 255;
+
+    private final String format;
+
+    private elementRowParser(String format) {
+        this.format = format;
+    }
+
+    /**
+     * Get the parser for a format
+     *
+     * @param format one of pipe, csv, tsv or ndjson; null means pipe
+     *
+     * @return
+     *
+     * @throws BadRequestException if the format is not supported
+     */
+    public static elementRowParser forFormat(String format) {
+        if (format == null || format.trim().equals("")) {
+            return new elementRowParser(PIPE);
+        }
+        String f = format.trim().toLowerCase();
+        if (f.equals(PIPE) || f.equals(CSV) || f.equals(TSV) || f.equals(NDJSON)) {
+            return new elementRowParser(f);
+        }
+        throw new BadRequestException("Unsupported input format " + format + ", must be one of pipe, csv, tsv or ndjson");
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Parse one line of input
+     *
+     * @param line
+     * @param lineNumber the 1-based number of the line, used to recognise a header
+     *
+     * @return the row, or null if the line is a header or blank line that should be skipped
+     *
+     * @throws IllegalArgumentException with a description of the problem if the line is not valid
+     */
+    public elementRow parse(String line, long lineNumber) {
+        List<String> fields;
+        if (format.equals(PIPE)) {
+            fields = splitPipe(line);
+        } else if (line.trim().equals("")) {
+            return null;
+        } else if (format.equals(NDJSON)) {
+            return toRow(parseJSON(line));
+        } else if (format.equals(CSV)) {
+            fields = splitCSV(line);
+        } else {
+            fields = split(line, '\t');
+        }
+
+        if (lineNumber == 1 && !format.equals(PIPE) && fields.get(0).trim().equalsIgnoreCase("localid")) {
+            return null;
+        }
+        if (fields.size() > 2) {
+            throw new IllegalArgumentException("expected localid and webaddress but found " + fields.size() + " fields");
+        }
+        return toRow(new String[]{
+                fields.size() > 0 ? fields.get(0) : null,
+                fields.size() > 1 ? fields.get(1) : null});
+    }
+
+    /**
+     * Build a row, appending the localid to the webaddress as bcid does
+     */
+    private elementRow toRow(String[] fields) {
+        String localid = fields[0];
+        String webaddress = fields[1];
+        if (localid != null && localid.length() > MAX_LOCALID_LENGTH) {
+            throw new IllegalArgumentException("localid is longer than " + MAX_LOCALID_LENGTH + " characters");
+        }
+        if (!format.equals(PIPE)) {
+            // Empty fields mean no value
+            if (localid != null && localid.equals("")) {
+                localid = null;
+            }
+            if (webaddress != null && webaddress.trim().equals("")) {
+                webaddress = null;
+            }
+        }
+
+        URI webAddress = null;
+        if (webaddress != null) {
+            if (localid != null && !localid.trim().equals("") && !webaddress.trim().equals("")) {
+                webaddress = webaddress + localid;
+            }
+            try {
+                webAddress = new URI(webaddress);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("invalid webaddress " + webaddress + ": " + e.getReason());
+            }
+        }
+        return new elementRow(localid, webAddress);
+    }
+
+    // Empty tokens are skipped, as inputFileParser always did
+    private static List<String> splitPipe(String line) {
+        List<String> fields = new ArrayList<String>(2);
+        StringTokenizer st = new StringTokenizer(line, "|");
+        while (st.hasMoreTokens() && fields.size() < 2) {
+            fields.add(st.nextToken());
+        }
+        return fields;
+    }
+
+    private static List<String> split(String line, char separator) {
+        List<String> fields = new ArrayList<String>(2);
+        int start = 0;
+        for (int i = line.indexOf(separator); i >= 0; i = line.indexOf(separator, start)) {
+            fields.add(line.substring(start, i));
+            start = i + 1;
+        }
+        fields.add(line.substring(start));
+        return fields;
+    }
+
+    private static List<String> splitCSV(String line) {
+        List<String> fields = new ArrayList<String>(2);
+        StringBuilder field = new StringBuilder();
+        int i = 0;
+        while (true) {
+            field.setLength(0);
+            if (i < line.length() && line.charAt(i) == '"') {
+                // A quoted field, in which "" stands for one quote
+                i++;
+                while (true) {
+                    if (i >= line.length()) {
+                        throw new IllegalArgumentException("unterminated quoted field");
+                    }
+                    char c = line.charAt(i++);
+                    if (c == '"') {
+                        if (i < line.length() && line.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                }
+                if (i < line.length() && line.charAt(i) != ',') {
+                    throw new IllegalArgumentException("unexpected character after quoted field at column " + (i + 1));
+                }
+            } else {
+                while (i < line.length() && line.charAt(i) != ',') {
+                    field.append(line.charAt(i++));
+                }
+            }
+            fields.add(field.toString());
+            if (i >= line.length()) {
+                return fields;
+            }
+            // Skip the comma
+            i++;
+        }
+    }
+
+    private static String[] parseJSON(String line) {
+        Object json;
+        try {
+            json = JSONSerializer.toJSON(line.trim());
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("invalid JSON: " + e.getMessage());
+        }
+        if (!(json instanceof JSONObject) || ((JSONObject) json).isNullObject()) {
+            throw new IllegalArgumentException("expected a JSON object");
+        }
+        JSONObject object = (JSONObject) json;
+        return new String[]{stringValue(object, "localid"), stringValue(object, "webaddress")};
+    }
+
+    private static String stringValue(JSONObject object, String key) {
+        if (!object.has(key)) {
+            return null;
+        }
+        Object value = object.get(key);
+        if (value == null || value instanceof JSONNull) {
+            return null;
+        }
+        if (value instanceof JSONObject || value instanceof JSONArray) {
+            throw new IllegalArgumentException(key + " must be a string");
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,94 @@
+package bcid;
+
+import bcidExceptions.BadRequestException;
+import bcidExceptions.ServerErrorException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads element input from a Reader, one row at a time, in any of the formats elementRowParser understands.  This
+ * is the streaming counterpart of inputFileParser: only the current line is held in memory, however large the
+ * input is.  An invalid line stops the read with a BadRequestException naming the line.
+ */
+public class elementRowReader implements Iterator<elementRow> {
+
+    private BufferedReader reader;
+    private final elementRowParser parser;
+    private elementRow next;
+    private int lineNumber = 0;
+
+    /**
+     * Read pipe delimited localid|webaddress lines
+     *
+     * @param reader
+     */
+    public elementRowReader(Reader reader) {
+        this(reader, elementRowParser.forFormat(elementRowParser.PIPE));
+    }
+
+    public elementRowReader(Reader reader, elementRowParser parser) {
+        if (reader instanceof BufferedReader) {
+            this.reader = (BufferedReader) reader;
+        } else {
+            this.reader = new BufferedReader(reader);
+        }
+        this.parser = parser;
+    }
+
+    public boolean hasNext() {
+        if (next == null) {
+            next = readRow();
+        }
+        return next != null;
+    }
+
+    public elementRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        elementRow row = next;
+        next = null;
+        return row;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * The number of lines read so far
+     *
+     * @return
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    private elementRow readRow() {
+        while (true) {
+            String line;
+            try {
+                line = reader.readLine();
+            } catch (IOException e) {
+                throw new ServerErrorException("Server Error", "IOException while reading input on line " + (lineNumber + 1), e);
+            }
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+
+            try {
+                elementRow row = parser.parse(line, lineNumber);
+                if (row != null) {
+                    return row;
+                }
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException("Invalid input on line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+    }
+}
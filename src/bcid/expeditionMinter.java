@@ -43,8 +43,8 @@ public class expeditionMinter {
         sm = SettingsManager.getInstance();
         sm.loadProperties();
 
-        resolverTargetPrefix = sm.retrieveValue("resolverTargetPrefix");
-        resolverMetadataPrefix = sm.retrieveValue("resolverMetadataPrefix");
+        resolverTargetPrefix = sm.getResolverTargetPrefix();
+        resolverMetadataPrefix = sm.getResolverMetadataPrefix();
     }
 
     public void close() {
@@ -136,6 +136,8 @@ public class expeditionMinter {
             insertStatement.setInt(1, expedition_id);
             insertStatement.setInt(2, datasetsId);
             insertStatement.execute();
+            // The dataset's project is part of where it resolves to
+            resolutionCache.invalidate(datasetsId);
         } catch (SQLException e) {
             throw new ServerErrorException("Db error attaching Reference to Expedition", e);
         } finally {
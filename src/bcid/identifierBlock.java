@@ -0,0 +1,137 @@
+package bcid;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A contiguous range of identifiers_id values reserved for a dataset by elementMinter.reserveBCIDs.  Only the range is
+ * stored, in the identifierBlocks table, so reserving a block costs the same whatever its size.  Identifiers in the
+ * block are encoded on demand, and a row in identifiers is only written for one once a localid or webaddress is
+ * attached to it with elementMinter.attach.
+ * <p/>
+ * The row of identifierBlocks with identifierBlocks_id ALLOCATION_LOCK is not a block.  It is a lock between
+ * reservations and inserts that take their identifiers_id from AUTO_INCREMENT: every inserting transaction locks it
+ * in share mode before its first insert, and a reservation locks it for update while it places a block.  So a
+ * block is only ever placed when no transaction holds an AUTO_INCREMENT value that has not yet been committed, and
+ * the row written for the block's last identifier moves AUTO_INCREMENT past the block before inserts resume.
+ */
+public class identifierBlock {
+    static final int ALLOCATION_LOCK = 1;
+
+    private final String prefix;
+    private final String loadedSetUUID;
+    private final long start;
+    private final long count;
+
+    public identifierBlock(String prefix, String loadedSetUUID, long start, long count) {
+        this.prefix = prefix;
+        this.loadedSetUUID = loadedSetUUID;
+        this.start = start;
+        this.count = count;
+    }
+
+    /**
+     * The UUID that refers to this reservation, the same as the loadedSetUUID of identifiers attached from it
+     *
+     * @return
+     */
+    public String getLoadedSetUUID() {
+        return loadedSetUUID;
+    }
+
+    /**
+     * The first identifiers_id in the block
+     *
+     * @return
+     */
+    public long getStart() {
+        return start;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Whether an identifiers_id falls inside the block
+     *
+     * @param identifiers_id
+     *
+     * @return
+     */
+    public boolean contains(long identifiers_id) {
+        return identifiers_id >= start && identifiers_id - start < count;
+    }
+
+    /**
+     * The encoded form of the first identifier in the block
+     *
+     * @return
+     */
+    public String getFirst() {
+        return new elementEncoder(prefix).encode(start);
+    }
+
+    /**
+     * The encoded form of the last identifier in the block
+     *
+     * @return
+     */
+    public String getLast() {
+        return new elementEncoder(prefix).encode(start + count - 1);
+    }
+
+    /**
+     * Hand every identifier in the block, encoded, to a writer in order
+     *
+     * @param writer
+     *
+     * @throws IOException if the writer fails
+     */
+    public void writeIdentifiers(identifierWriter writer) throws IOException {
+        elementEncoder encoder = new elementEncoder(prefix);
+        for (long i = 0; i < count; i++) {
+            writer.write(encoder.encode(start + i));
+        }
+    }
+
+    /**
+     * Lock the allocation row for the rest of the current transaction, in share mode before inserting identifiers
+     * or exclusively before reserving a block.  The row is created if it is missing.
+     *
+     * @param db        used to close the statement
+     * @param conn      a connection with autocommit turned off
+     * @param exclusive true when reserving a block
+     */
+    static void lockAllocation(database db, Connection conn, boolean exclusive) throws SQLException {
+        String sql = "SELECT identifierBlocks_id FROM identifierBlocks WHERE identifierBlocks_id = ?" +
+                (exclusive ? " FOR UPDATE" : " LOCK IN SHARE MODE");
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement(sql);
+            stmt.setInt(1, ALLOCATION_LOCK);
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                return;
+            }
+            db.close(stmt, rs);
+            rs = null;
+
+            stmt = conn.prepareStatement("INSERT IGNORE INTO identifierBlocks " +
+                    "(identifierBlocks_id, datasets_id, loadedSetUUID, start, `count`) VALUES (?, NULL, '', 0, 0)");
+            stmt.setInt(1, ALLOCATION_LOCK);
+            stmt.executeUpdate();
+            db.close(stmt, null);
+
+            stmt = conn.prepareStatement(sql);
+            stmt.setInt(1, ALLOCATION_LOCK);
+            rs = stmt.executeQuery();
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
+}
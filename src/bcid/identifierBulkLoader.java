@@ -0,0 +1,363 @@
+package bcid;
+
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+
+/**
+ * Loads a very large set of elements into identifiers with MySQL's bulk loader instead of INSERT statements.
+ * <p/>
+ * Rows are spooled to a temporary file and streamed to the server with LOAD DATA LOCAL INFILE into a temporary
+ * staging table that is unique on localid.  Rows whose localid is repeated in the load, or already exists in the
+ * dataset, are reported with their line number and left out, as is any row the server drops for another reason.  The rest are copied into identifiers with a single
+ * INSERT ... SELECT, and everything happens in one transaction, which holds identifierBlock's allocation lock in
+ * share mode from the INSERT on.
+ */
+class identifierBulkLoader {
+    private static Logger logger = LoggerFactory.getLogger(identifierBulkLoader.class);
+
+    private final database db;
+    private final Connection conn;
+    private final int datasets_id;
+    private final mintRequest claim;
+
+    /**
+     * @param claim if not null, the load is only committed if this mint request still holds its claim
+     */
+    identifierBulkLoader(database db, Connection conn, int datasets_id, mintRequest claim) {
+        this.db = db;
+        this.conn = conn;
+        this.datasets_id = datasets_id;
+        this.claim = claim;
+    }
+
+    /**
+     * Load the rows under the given loadedSetUUID
+     *
+     * @param rows
+     * @param loadedSetUUID
+     *
+     * @return a report of how many rows were loaded and which were skipped
+     */
+    bulkLoadReport load(Iterator<elementRow> rows, String loadedSetUUID) {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        bulkLoadReport report = new bulkLoadReport(loadedSetUUID,
+                Integer.parseInt(sm.retrieveValue("mintBulkReportLimit", "1000")));
+        long begin = System.currentTimeMillis();
+
+        File spool = null;
+        Statement stmt = null;
+        boolean autoCommit = true;
+        boolean staged = false;
+        try {
+            spool = File.createTempFile("identifierLoad", ".tsv");
+            report.setRows(spool(rows, spool));
+
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            stmt = conn.createStatement();
+            stmt.execute("CREATE TEMPORARY TABLE identifierLoad (" +
+                    "line bigint NOT NULL PRIMARY KEY, " +
+                    "webaddress text COLLATE utf8_bin, " +
+                    "localid varchar(255), " +
+                    "UNIQUE KEY identifierLoad_localid_idx (localid)" +
+                    ") ENGINE=Innodb DEFAULT CHARSET=utf8");
+            staged = true;
+
+            // Rows that repeat a localid already in the staging table are dropped by the unique key
+            InputStream in = new FileInputStream(spool);
+            try {
+                stmt.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(in);
+                stmt.execute("LOAD DATA LOCAL INFILE 'identifierLoad.tsv' IGNORE INTO TABLE identifierLoad " +
+                        "CHARACTER SET utf8 (line, webaddress, localid)");
+            } finally {
+                stmt.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(null);
+                in.close();
+            }
+            reportRepeated(spool, report);
+            reportExisting(report);
+
+            identifierBlock.lockAllocation(db, conn, false);
+            PreparedStatement insert = conn.prepareStatement("INSERT INTO identifiers " +
+                    "(webaddress, localid, loadedSetUUID, datasets_id) " +
+                    "SELECT webaddress, localid, ?, ? FROM identifierLoad ORDER BY line");
+            try {
+                insert.setString(1, loadedSetUUID);
+                insert.setInt(2, datasets_id);
+                report.setLoaded(insert.executeUpdate());
+            } finally {
+                db.close(insert, null);
+            }
+            if (claim != null) {
+                claim.checkClaim(db, conn);
+            }
+            conn.commit();
+        } catch (IOException e) {
+            rollback();
+            throw new ServerErrorException("Server Error", "IOException while spooling identifiers for a bulk load", e);
+        } catch (SQLException e) {
+            rollback();
+            throw new ServerErrorException(e);
+        } catch (RuntimeException e) {
+            rollback();
+            throw e;
+        } finally {
+            if (staged) {
+                try {
+                    stmt.execute("DROP TEMPORARY TABLE IF EXISTS identifierLoad");
+                } catch (SQLException e) {
+                    logger.warn("SQLException trying to drop the identifierLoad staging table.", e);
+                }
+            }
+            db.close(stmt, null);
+            try {
+                conn.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                logger.warn("SQLException thrown while trying to restore autocommit.", e);
+            }
+            if (spool != null) {
+                spool.delete();
+            }
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+        logger.info("Bulk loaded {} of {} identifiers for loaded set {} in {} ms ({} rows/sec)",
+                new Object[]{report.getLoaded(), report.getRows(), loadedSetUUID, elapsed,
+                        report.getLoaded() * 1000 / elapsed});
+        return report;
+    }
+
+    /**
+     * Write the rows as LOAD DATA's default tab separated format, numbering each line
+     *
+     * @return the number of rows written
+     */
+    private long spool(Iterator<elementRow> rows, File spool) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spool), "UTF-8"));
+        long line = 0;
+        try {
+            while (rows.hasNext()) {
+                elementRow row = rows.next();
+                line++;
+                out.write(Long.toString(line));
+                out.write('\t');
+                out.write(escape(row.webAddress == null ? null : row.webAddress.toString()));
+                out.write('\t');
+                out.write(escape(row.localid));
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        return line;
+    }
+
+    /**
+     * Find the lines that did not make it into the staging table by walking the spool file alongside the loaded line
+     * numbers, both in line order, then report each as repeated if an earlier line with its localid was staged.
+     * The streamed line numbers tie up the connection, so the skipped lines are set aside in a second file first.
+     */
+    private void reportRepeated(File spool, bulkLoadReport report) throws SQLException, IOException {
+        File skipped = File.createTempFile("identifierLoadSkipped", ".tsv");
+        try {
+            if (findSkipped(spool, skipped) > 0) {
+                confirmRepeated(skipped, report);
+            }
+        } finally {
+            skipped.delete();
+        }
+    }
+
+    /**
+     * Copy the spooled lines missing from the staging table to the skipped file
+     *
+     * @return the number of lines copied
+     */
+    private long findSkipped(File spool, File skipped) throws SQLException, IOException {
+        PreparedStatement select = conn.prepareStatement("SELECT line FROM identifierLoad ORDER BY line",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        select.setFetchSize(Integer.MIN_VALUE);
+        ResultSet rs = null;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(spool), "UTF-8"));
+        Writer out = null;
+        long count = 0;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(skipped), "UTF-8"));
+            rs = select.executeQuery();
+            long nextLoaded = rs.next() ? rs.getLong("line") : Long.MAX_VALUE;
+            String spooled;
+            long line = 0;
+            while ((spooled = in.readLine()) != null) {
+                line++;
+                if (line == nextLoaded) {
+                    nextLoaded = rs.next() ? rs.getLong("line") : Long.MAX_VALUE;
+                } else {
+                    out.write(spooled);
+                    out.write('\n');
+                    count++;
+                }
+            }
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+            db.close(select, rs);
+        }
+        return count;
+    }
+
+    /**
+     * Report each skipped line as repeated if the staging table holds an earlier line with the same localid, and
+     * as rejected otherwise
+     */
+    private void confirmRepeated(File skipped, bulkLoadReport report) throws SQLException, IOException {
+        PreparedStatement select = conn.prepareStatement("SELECT line FROM identifierLoad WHERE localid = ?");
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(skipped), "UTF-8"));
+        try {
+            String spooled;
+            while ((spooled = in.readLine()) != null) {
+                long line = Long.parseLong(spooled.substring(0, spooled.indexOf('\t')));
+                String localid = unescape(spooled.substring(spooled.lastIndexOf('\t') + 1));
+                boolean repeated = false;
+                if (localid != null) {
+                    select.setString(1, localid);
+                    ResultSet rs = select.executeQuery();
+                    try {
+                        repeated = rs.next() && rs.getLong("line") < line;
+                    } finally {
+                        rs.close();
+                    }
+                }
+                if (!repeated) {
+                    logger.warn("Line {} of bulk load was not staged and does not repeat an earlier localid", line);
+                }
+                report.addDuplicate(line, localid, repeated ? bulkLoadReport.REPEATED : bulkLoadReport.REJECTED);
+            }
+        } finally {
+            in.close();
+            db.close(select, null);
+        }
+    }
+
+    /**
+     * Report and remove staged rows whose localid already exists in the dataset
+     */
+    private void reportExisting(bulkLoadReport report) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("SELECT l.line, l.localid FROM identifierLoad l, identifiers i " +
+                "WHERE i.localid = l.localid AND i.datasets_id = ? ORDER BY l.line");
+        ResultSet rs = null;
+        try {
+            stmt.setInt(1, datasets_id);
+            rs = stmt.executeQuery();
+            boolean found = false;
+            while (rs.next()) {
+                found = true;
+                report.addDuplicate(rs.getLong("line"), rs.getString("localid"), bulkLoadReport.EXISTS);
+            }
+            db.close(stmt, rs);
+            rs = null;
+
+            if (found) {
+                stmt = conn.prepareStatement("DELETE l FROM identifierLoad l, identifiers i " +
+                        "WHERE i.localid = l.localid AND i.datasets_id = ?");
+                stmt.setInt(1, datasets_id);
+                stmt.executeUpdate();
+            }
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
+
+    private void rollback() {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            logger.warn("SQLException trying to roll back a bulk load.", e);
+        }
+    }
+
+    /**
+     * Escape a value for LOAD DATA's default format, where \N is NULL
+     */
+    static String escape(String value) {
+        if (value == null) {
+            return "\\N";
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\0':
+                    sb.append("\\0");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String value) {
+        if (value.equals("\\N")) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case '0':
+                        sb.append('\0');
+                        break;
+                    default:
+                        sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
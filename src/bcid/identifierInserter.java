@@ -0,0 +1,347 @@
+package bcid;
+
+import bcidExceptions.BadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Inserts rows into the identifiers table for one loaded set using a single prepared statement and JDBC batching.
+ * The statement always has the same shape, so it is prepared once and can be served from the statement cache, and
+ * with rewriteBatchedStatements turned on Connector/J sends each batch as one multi-row INSERT.
+ * <p/>
+ * Rows are sent every mintBatchSize rows and committed every mintTransactionSize rows, both read from the
+ * settings file.  Call finish() to send and commit whatever is left, and close() in a finally block.
+ * <p/>
+ * If a listener is given, the identifiers_id the database assigned to each row is read back from the generated keys
+ * of each batch and passed to the listener once the row is committed, so nothing has to be queried afterwards.
+ * This relies on InnoDB handing out consecutive AUTO_INCREMENT values to a multi-row INSERT, which is the case for
+ * the default innodb_autoinc_lock_mode of 1.
+ * <p/>
+ * If screen() is called, each batch is checked for localids that are repeated or already exist in the dataset before
+ * it is sent, and rejected with a BadRequestException instead of failing on the unique index and being rolled back.
+ * A localidFilter keeps the exact lookups down to the few localids it cannot rule out.
+ * <p/>
+ * Each transaction takes identifierBlock's allocation lock in share mode before its first insert, so a block can
+ * never be reserved over AUTO_INCREMENT values this inserter holds but has not committed yet.
+ */
+class identifierInserter {
+    private static Logger logger = LoggerFactory.getLogger(identifierInserter.class);
+
+    static final String INSERT_SQL = "INSERT INTO identifiers (webaddress, localid, loadedSetUUID, datasets_id, ezidRequest) " +
+            "VALUES (?,?,?,?,?)";
+
+    private final database db;
+    private final Connection conn;
+    private final String loadedSetUUID;
+    private final int ezidRequest;
+    private final int batchSize;
+    private final int transactionSize;
+    private final boolean autoCommit;
+    private final keyListener listener;
+    private PreparedStatement insertStatement;
+
+    // Set by claim()
+    private mintRequest claim;
+
+    // Set by screen()
+    private localidFilter filter;
+    private int screenedDatasets_id;
+    private final Set<String> batchNormalized = new HashSet<String>();
+    private final List<String> candidates = new ArrayList<String>();
+
+    // localids of the rows in the current batch, and ids and localids inserted but not yet committed
+    private final String[] batchLocalids;
+    private long[] uncommittedIds;
+    private String[] uncommittedLocalids;
+
+    private int batched = 0;
+    private int uncommitted = 0;
+    private long inserted = 0;
+    private final long begin = System.currentTimeMillis();
+
+    /**
+     * @param db            used to close the statement
+     * @param conn          the connection to insert with; autocommit is turned off until close()
+     * @param loadedSetUUID the set every inserted row belongs to
+     * @param ezidRequest   whether an EZID should be requested for the inserted rows
+     */
+    identifierInserter(database db, Connection conn, String loadedSetUUID, boolean ezidRequest) throws SQLException {
+        this(db, conn, loadedSetUUID, ezidRequest, null);
+    }
+
+    /**
+     * @param db            used to close the statement
+     * @param conn          the connection to insert with; autocommit is turned off until close()
+     * @param loadedSetUUID the set every inserted row belongs to
+     * @param ezidRequest   whether an EZID should be requested for the inserted rows
+     * @param listener      told about every row once it is committed, may be null
+     */
+    identifierInserter(database db, Connection conn, String loadedSetUUID, boolean ezidRequest, keyListener listener)
+            throws SQLException {
+        this.db = db;
+        this.listener = listener;
+        this.conn = conn;
+        this.loadedSetUUID = loadedSetUUID;
+        this.ezidRequest = ezidRequest ? 1 : 0;
+
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        batchSize = Math.max(1, Integer.parseInt(sm.retrieveValue("mintBatchSize", "1000")));
+        transactionSize = Math.max(batchSize, Integer.parseInt(sm.retrieveValue("mintTransactionSize", "10000")));
+
+        batchLocalids = new String[batchSize];
+        if (listener != null) {
+            uncommittedIds = new long[batchSize];
+            uncommittedLocalids = new String[batchSize];
+        }
+
+        autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        if (listener != null) {
+            insertStatement = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+        } else {
+            insertStatement = conn.prepareStatement(INSERT_SQL);
+        }
+    }
+
+    /**
+     * Told about each row once it has been committed
+     */
+    interface keyListener {
+        void inserted(long identifiers_id, String localid) throws IOException;
+    }
+
+    /**
+     * Reject batches containing a localid that is repeated or already used in the dataset.  Every row added after
+     * this must belong to that dataset.
+     *
+     * @param filter      the filter for the dataset
+     * @param datasets_id
+     */
+    void screen(localidFilter filter, int datasets_id) {
+        this.filter = filter;
+        this.screenedDatasets_id = datasets_id;
+    }
+
+    /**
+     * Only commit while a mint request still holds its claim, checked in each transaction just before it commits
+     *
+     * @param claim
+     */
+    void claim(mintRequest claim) {
+        this.claim = claim;
+    }
+
+    /**
+     * Queue one row, sending the batch and committing as the configured sizes are reached
+     *
+     * @param webAddress may be null
+     * @param localid    may be null
+     * @param datasets_id
+     */
+    void add(String webAddress, String localid, int datasets_id) throws SQLException, IOException {
+        if (webAddress == null) {
+            insertStatement.setNull(1, Types.VARCHAR);
+        } else {
+            insertStatement.setString(1, webAddress);
+        }
+        if (localid == null) {
+            insertStatement.setNull(2, Types.VARCHAR);
+        } else {
+            insertStatement.setString(2, localid);
+        }
+        insertStatement.setString(3, loadedSetUUID);
+        insertStatement.setInt(4, datasets_id);
+        insertStatement.setInt(5, ezidRequest);
+        if (filter != null && localid != null) {
+            if (!batchNormalized.add(localidFilter.normalize(localid))) {
+                throw new BadRequestException("localid " + localid + " is repeated in the request");
+            }
+            if (filter.mightContain(localid)) {
+                candidates.add(localid);
+            }
+            // Added now so that a repeat in a later batch is looked up; it is in the database by then
+            filter.add(localid);
+        }
+        insertStatement.addBatch();
+        batchLocalids[batched] = localid;
+
+        if (++batched >= batchSize) {
+            executeBatch();
+            if (uncommitted >= transactionSize) {
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Send and commit any remaining rows
+     *
+     * @return the number of rows inserted
+     */
+    long finish() throws SQLException, IOException {
+        executeBatch();
+        commit();
+        long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+        logger.info("Inserted {} identifiers for loaded set {} in {} ms ({} rows/sec)",
+                new Object[]{inserted, loadedSetUUID, elapsed, inserted * 1000 / elapsed});
+        return inserted;
+    }
+
+    /**
+     * Roll back anything not yet committed, close the statement, and restore the connection's autocommit mode
+     */
+    void close() {
+        try {
+            if (uncommitted > 0 || batched > 0) {
+                conn.rollback();
+            }
+        } catch (SQLException e) {
+            logger.warn("SQLException trying to roll back an unfinished insert into identifiers.", e);
+        }
+        db.close(insertStatement, null);
+        insertStatement = null;
+        try {
+            conn.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            logger.warn("SQLException thrown while trying to restore autocommit.", e);
+        }
+    }
+
+    private void executeBatch() throws SQLException {
+        if (batched == 0) {
+            return;
+        }
+        if (filter != null) {
+            rejectExisting();
+        }
+        if (uncommitted == 0) {
+            identifierBlock.lockAllocation(db, conn, false);
+        }
+        try {
+            insertStatement.executeBatch();
+        } catch (SQLException e) {
+            // The filter can miss a localid committed by another mint while it was being rebuilt, in which case the
+            // unique index catches it instead
+            if (filter != null && isDuplicateKey(e)) {
+                throw new BadRequestException("A localid in this request already exists in this dataset",
+                        e.getMessage());
+            }
+            throw e;
+        }
+        if (listener != null) {
+            collectKeys();
+        }
+        insertStatement.clearBatch();
+        if (listener == null) {
+            Arrays.fill(batchLocalids, 0, batched, null);
+        }
+        uncommitted += batched;
+        batched = 0;
+    }
+
+    /**
+     * Look up the localids in this batch that the filter could not rule out, and throw if any of them is used
+     */
+    private void rejectExisting() throws SQLException {
+        batchNormalized.clear();
+        if (candidates.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder("SELECT localid FROM identifiers WHERE datasets_id = ? AND localid IN (");
+        for (int i = 0; i < candidates.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(") LIMIT 1");
+
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement(sql.toString());
+            stmt.setInt(1, screenedDatasets_id);
+            for (int i = 0; i < candidates.size(); i++) {
+                stmt.setString(i + 2, candidates.get(i));
+            }
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                throw new BadRequestException("localid " + rs.getString("localid") + " already exists in this dataset");
+            }
+        } finally {
+            db.close(stmt, rs);
+            candidates.clear();
+        }
+    }
+
+    // 1062 is MySQL's duplicate entry error, which Connector/J may wrap in a BatchUpdateException
+    private static boolean isDuplicateKey(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException && ((SQLException) t).getErrorCode() == 1062) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void collectKeys() throws SQLException {
+        if (uncommittedIds.length < uncommitted + batched) {
+            int size = Math.max(uncommitted + batched, uncommittedIds.length * 2);
+            uncommittedIds = Arrays.copyOf(uncommittedIds, size);
+            uncommittedLocalids = Arrays.copyOf(uncommittedLocalids, size);
+        }
+        ResultSet rs = insertStatement.getGeneratedKeys();
+        int keys = 0;
+        try {
+            while (rs.next()) {
+                if (keys < batched) {
+                    uncommittedIds[uncommitted + keys] = rs.getLong(1);
+                    uncommittedLocalids[uncommitted + keys] = batchLocalids[keys];
+                    batchLocalids[keys] = null;
+                }
+                keys++;
+            }
+        } finally {
+            rs.close();
+        }
+        if (keys != batched) {
+            throw new SQLException("Expected " + batched + " generated keys from the identifiers insert but got " + keys);
+        }
+    }
+
+    private void commit() throws SQLException, IOException {
+        if (uncommitted == 0) {
+            return;
+        }
+        if (claim != null) {
+            claim.checkClaim(db, conn);
+        }
+        conn.commit();
+        inserted += uncommitted;
+        int committed = uncommitted;
+        uncommitted = 0;
+        if (listener != null) {
+            for (int i = 0; i < committed; i++) {
+                listener.inserted(uncommittedIds[i], uncommittedLocalids[i]);
+                uncommittedLocalids[i] = null;
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+            logger.debug("Committed {} identifiers for loaded set {} ({} rows/sec)",
+                    new Object[]{inserted, loadedSetUUID, inserted * 1000 / elapsed});
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package bcid;
+
+import java.io.IOException;
+
+/**
+ * Receives identifiers one at a time as they are minted or read back, so callers can stream them out instead of
+ * collecting them in a list.
+ */
+public interface identifierWriter {
+
+    public void write(String identifier) throws IOException;
+}
@@ -1,25 +1,20 @@
 package bcid;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import util.timer;
-
-import java.io.BufferedReader;
-import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.StringTokenizer;
 
 /**
- * Parse an input File and construct an element Iterator which can be fetched
+ * Parse pipe delimited localid|webaddress input for a dataset into elementRows.  Rows are read lazily by
+ * iterator(), so only the current line is held in memory, and nothing is looked up in the database per line: the
+ * dataset's id and prefix are taken once from the dataGroupMinter the input is parsed for.
  */
-public class inputFileParser {
+public class inputFileParser implements Iterable<elementRow> {
 
-    private static Logger logger = LoggerFactory.getLogger(inputFileParser.class);
-    public ArrayList<bcid> elementArrayList = new ArrayList();
+    private final String inputString;
+    private Reader reader;
+    private final Integer datasets_id;
+    private final String prefix;
 
     /**
      * Main method to demonstrate how this is used
@@ -31,71 +26,76 @@ public class inputFileParser {
         /*
         String sampleInputStringFromTextBox = "" +
 
-                "MBIO056\thttp://biocode.berkeley.edu/specimens/MBIO56\n" +
+                "MBIO056|http://biocode.berkeley.edu/specimens/MBIO56\n" +
                 "56\n";
-        inputFileParser parse = null;
-        try {
-            parse = new inputFileParser(sampleInputStringFromTextBox, DATASET_ID);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (URISyntaxException e) {
-            System.out.println("Invalid URI specified");
-        }
+        inputFileParser parse = new inputFileParser(sampleInputStringFromTextBox, dataset);
 
-        Iterator pi = parse.iterator();
+        Iterator<elementRow> pi = parse.iterator();
         while (pi.hasNext()) {
-            element b = (element)pi.next();
-             System.out.println("sourceid = " + b.sourceID + ";webaddres = " + b.webAddress );
+            elementRow row = pi.next();
+            System.out.println("localid = " + row.localid + ";webaddress = " + row.webAddress);
         }
         */
 
     }
 
     /**
-     * Parse an input file and turn it into an Iterator containing elements
+     * Parse an input string.  The string may be iterated over more than once.
      *
      * @param inputString
-     * @throws java.io.IOException
-     * @throws java.net.URISyntaxException
+     * @param dataset     the dataset the elements will be minted into
      */
-    public inputFileParser(String inputString, dataGroupMinter  dataset ) throws IOException, URISyntaxException {
-
-        // TODO: check that user_id can write to dataset_id
-
-        BufferedReader readbuffer = new BufferedReader(new StringReader(inputString));
-        String strRead;
-        while ((strRead = readbuffer.readLine()) != null) {
-            String sourceID = null;
-            URI webAddress = null;
+    public inputFileParser(String inputString, dataGroupMinter dataset) {
+        this.inputString = inputString;
+        this.datasets_id = dataset.getDatasets_id();
+        this.prefix = dataset.identifier == null ? null : dataset.identifier.toString();
+    }
 
-            // Break string up into tokens, using pipe as the delimiter
-            StringTokenizer st = new StringTokenizer(strRead, "|");
-            int count = 0;
-            while (st.hasMoreTokens()) {
-                if (count == 0) {
-                    sourceID = st.nextToken();
-                } else if (count == 1) {
-                    try {
-                        webAddress = new URI(st.nextToken());
-                    } catch (NullPointerException e) {
-                        //TODO should we silence this exception?
-                        logger.warn("NullPointerException for webAddress in the file: {}", inputString, e);
-                        webAddress = null;
-                    }
-                }
-                count++;
-            }
+    /**
+     * Parse input from a reader, such as an uploaded file.  The input can only be iterated over once.
+     *
+     * @param reader
+     * @param dataset the dataset the elements will be minted into
+     */
+    public inputFileParser(Reader reader, dataGroupMinter dataset) {
+        this.inputString = null;
+        this.reader = reader;
+        this.datasets_id = dataset.getDatasets_id();
+        this.prefix = dataset.identifier == null ? null : dataset.identifier.toString();
+    }
 
-            elementArrayList.add(new bcid(sourceID, webAddress, dataset.getDatasets_id()));
+    /**
+     * Return a lazy iterator over the rows of the input
+     *
+     * @return
+     */
+    public Iterator<elementRow> iterator() {
+        if (inputString != null) {
+            return new elementRowReader(new StringReader(inputString));
         }
+        if (reader == null) {
+            throw new IllegalStateException("The input of this inputFileParser has already been read");
+        }
+        Reader r = reader;
+        reader = null;
+        return new elementRowReader(r);
+    }
+
+    /**
+     * The dataset the input is parsed for
+     *
+     * @return
+     */
+    public Integer getDatasets_id() {
+        return datasets_id;
     }
 
     /**
-     * Return an iterator of element objects
+     * The prefix of the dataset the input is parsed for
      *
-     * @return Iterator of BCIDs
+     * @return
      */
-    public Iterator iterator() {
-        return elementArrayList.iterator();
+    public String getPrefix() {
+        return prefix;
     }
 }
@@ -0,0 +1,81 @@
+package bcid;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of checking element input before anything is minted: how many lines and rows were read, and which
+ * lines could not be parsed and why.  Only the first few errors are kept, so the report stays small however many
+ * there are.
+ */
+public class inputValidationReport {
+    private final String format;
+    private final int limit;
+    private long lines;
+    private long rows;
+    private long errorCount;
+    private final List<JSONObject> errors = new ArrayList<JSONObject>();
+
+    inputValidationReport(String format, int limit) {
+        this.format = format;
+        this.limit = limit;
+    }
+
+    void addLines(long lines) {
+        this.lines += lines;
+    }
+
+    void addRows(long rows) {
+        this.rows += rows;
+    }
+
+    void addError(long line, String error) {
+        errorCount++;
+        if (errors.size() < limit) {
+            JSONObject e = new JSONObject();
+            e.put("line", line);
+            e.put("error", error);
+            errors.add(e);
+        }
+    }
+
+    /**
+     * The number of lines read from the input
+     *
+     * @return
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * The number of valid rows, not counting skipped header and blank lines
+     *
+     * @return
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public boolean isValid() {
+        return errorCount == 0;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject report = new JSONObject();
+        report.put("format", format);
+        report.put("lines", lines);
+        report.put("rows", rows);
+        report.put("valid", isValid());
+        report.put("errorCount", errorCount);
+        report.put("errors", JSONArray.fromObject(errors));
+        return report;
+    }
+}
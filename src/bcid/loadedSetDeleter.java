@@ -0,0 +1,286 @@
+package bcid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the identifiers of a loaded set a chunk at a time, in identifiers_id order, so a multi-million row delete
+ * never holds locks or undo long enough to stall minting and resolution.  Each chunk is its own transaction.
+ * <p/>
+ * delete() removes everything before it returns, for callers that are about to mint the same localids again.
+ * deleteInBackground() hands the chunks to a background thread that pauses between them, so cleaning up after a
+ * failed request does not hold up the request thread.  Chunk size and pause come from the mintDeleteChunkSize and
+ * mintDeletePause settings.
+ * <p/>
+ * Every delete is recorded in the loadedSetDeletes table under its own id along with how many rows it has removed
+ * so far.  A delete that was interrupted, by a restart for instance, is still marked running there and is picked up
+ * again by resumeAll().
+ */
+public class loadedSetDeleter {
+    private static Logger logger = LoggerFactory.getLogger(loadedSetDeleter.class);
+
+    static final String RUNNING = "running";
+    static final String COMPLETE = "complete";
+
+    private static ThreadPoolExecutor executor;
+
+    private final database db;
+    private final int chunkSize;
+    private final long pause;
+
+    /**
+     * @param db the database to delete with; it must not be read-only
+     */
+    public loadedSetDeleter(database db) {
+        this.db = db;
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        chunkSize = Math.max(1, Integer.parseInt(sm.retrieveValue("mintDeleteChunkSize", "5000")));
+        pause = Long.parseLong(sm.retrieveValue("mintDeletePause", "100"));
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "loaded-set-deleter");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Delete every identifier, and any reserved block, belonging to a loaded set, without pausing between chunks
+     *
+     * @param loadedSetUUID
+     *
+     * @return the number of identifiers deleted
+     *
+     * @throws SQLException if a chunk fails; the delete stays marked as running and can be resumed
+     */
+    public long delete(String loadedSetUUID) throws SQLException {
+        int loadedSetDeletes_id = record(loadedSetUUID);
+        deleteBlocks(loadedSetUUID);
+        return deleteChunks(loadedSetDeletes_id, loadedSetUUID, false);
+    }
+
+    /**
+     * Record the delete of a loaded set and remove its reserved blocks, then leave its identifiers to the
+     * background thread
+     *
+     * @param loadedSetUUID
+     *
+     * @throws SQLException if the delete could not be recorded
+     */
+    public void deleteInBackground(String loadedSetUUID) throws SQLException {
+        int loadedSetDeletes_id = record(loadedSetUUID);
+        deleteBlocks(loadedSetUUID);
+        queue(loadedSetDeletes_id, loadedSetUUID);
+    }
+
+    /**
+     * Finish every delete that is still marked as running, pausing between chunks.  Only call this from a
+     * background thread.
+     */
+    public void resumeAll() {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = db.getConn().prepareStatement("SELECT loadedSetDeletes_id, loadedSetUUID FROM loadedSetDeletes " +
+                    "WHERE status=? ORDER BY loadedSetDeletes_id");
+            stmt.setString(1, RUNNING);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                queue(rs.getInt("loadedSetDeletes_id"), rs.getString("loadedSetUUID"));
+            }
+        } catch (SQLException e) {
+            logger.warn("SQLException trying to find unfinished deletes of loaded sets.", e);
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
+
+    /**
+     * Queue any deletes interrupted by the last shutdown on the background thread
+     */
+    public static void resumeAllInBackground() {
+        try {
+            getExecutor().execute(new Runnable() {
+                public void run() {
+                    database db = new database(false);
+                    try {
+                        new loadedSetDeleter(db).resumeAll();
+                    } catch (RuntimeException e) {
+                        logger.warn("Unable to resume unfinished deletes of loaded sets.", e);
+                    } finally {
+                        db.close();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Unable to resume unfinished deletes of loaded sets, they will be resumed at the next start.", e);
+        }
+    }
+
+    /**
+     * Stop the background thread.  Deletes it has not finished stay marked as running and are resumed at the next
+     * start.
+     */
+    public static void shutdown() {
+        ThreadPoolExecutor toStop;
+        synchronized (loadedSetDeleter.class) {
+            toStop = executor;
+            executor = null;
+        }
+        if (toStop == null) {
+            return;
+        }
+        toStop.shutdownNow();
+        try {
+            if (!toStop.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("The loaded set deleter was still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void queue(final int loadedSetDeletes_id, final String loadedSetUUID) {
+        try {
+            getExecutor().execute(new Runnable() {
+                public void run() {
+                    database db = new database(false);
+                    try {
+                        new loadedSetDeleter(db).deleteChunks(loadedSetDeletes_id, loadedSetUUID, true);
+                    } catch (SQLException e) {
+                        logger.warn("SQLException deleting loaded set {}, it will be resumed at the next start.",
+                                loadedSetUUID, e);
+                    } catch (RuntimeException e) {
+                        logger.warn("Unable to delete loaded set {}, it will be resumed at the next start.",
+                                loadedSetUUID, e);
+                    } finally {
+                        db.close();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Unable to queue the delete of loaded set {}, it will be resumed at the next start.",
+                    loadedSetUUID, e);
+        }
+    }
+
+    // Blocks are a single row each, so they can go at once
+    private void deleteBlocks(String loadedSetUUID) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = db.getConn().prepareStatement("DELETE FROM identifierBlocks WHERE loadedSetUUID=?");
+            stmt.setString(1, loadedSetUUID);
+            stmt.executeUpdate();
+        } finally {
+            db.close(stmt, null);
+        }
+    }
+
+    /**
+     * Delete the identifiers a chunk at a time and mark the delete complete.  If the thread is interrupted while
+     * pausing the delete is left marked as running.
+     *
+     * @return the number of identifiers deleted
+     */
+    private long deleteChunks(int loadedSetDeletes_id, String loadedSetUUID, boolean pausing) throws SQLException {
+        long deleted = 0;
+        long begin = System.currentTimeMillis();
+        PreparedStatement chunk = null;
+        PreparedStatement progress = null;
+        try {
+            chunk = db.getConn().prepareStatement("DELETE FROM identifiers WHERE loadedSetUUID=? " +
+                    "ORDER BY identifiers_id LIMIT ?");
+            chunk.setString(1, loadedSetUUID);
+            chunk.setInt(2, chunkSize);
+            progress = db.getConn().prepareStatement("UPDATE loadedSetDeletes SET deleted = deleted + ? " +
+                    "WHERE loadedSetDeletes_id=?");
+            progress.setInt(2, loadedSetDeletes_id);
+
+            while (true) {
+                int count = chunk.executeUpdate();
+                deleted += count;
+                if (count > 0) {
+                    progress.setLong(1, count);
+                    progress.executeUpdate();
+                    logger.debug("Deleted {} identifiers so far from loaded set {}", deleted, loadedSetUUID);
+                }
+                if (count < chunkSize) {
+                    break;
+                }
+                if (pausing && pause > 0) {
+                    try {
+                        Thread.sleep(pause);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        logger.warn("Delete of loaded set {} interrupted after {} identifiers, it will be resumed later",
+                                loadedSetUUID, deleted);
+                        return deleted;
+                    }
+                }
+            }
+        } finally {
+            db.close(chunk, null);
+            db.close(progress, null);
+        }
+
+        finish(loadedSetDeletes_id);
+        logger.info("Deleted {} identifiers from loaded set {} in {} ms",
+                new Object[]{deleted, loadedSetUUID, System.currentTimeMillis() - begin});
+        return deleted;
+    }
+
+    /**
+     * @return the id of the new loadedSetDeletes row
+     */
+    private int record(String loadedSetUUID) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = db.getConn().prepareStatement("INSERT INTO loadedSetDeletes (loadedSetUUID, status) VALUES (?,?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            stmt.setString(1, loadedSetUUID);
+            stmt.setString(2, RUNNING);
+            stmt.executeUpdate();
+            rs = stmt.getGeneratedKeys();
+            if (!rs.next()) {
+                throw new SQLException("No id was generated for the delete of loaded set " + loadedSetUUID);
+            }
+            return rs.getInt(1);
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
+
+    private void finish(int loadedSetDeletes_id) throws SQLException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = db.getConn().prepareStatement("UPDATE loadedSetDeletes SET status=? WHERE loadedSetDeletes_id=?");
+            stmt.setString(1, COMPLETE);
+            stmt.setInt(2, loadedSetDeletes_id);
+            stmt.executeUpdate();
+        } finally {
+            db.close(stmt, null);
+        }
+    }
+}
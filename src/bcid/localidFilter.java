@@ -0,0 +1,288 @@
+package bcid;
+
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+/**
+ * A Bloom filter of the localids already used in one dataset.  It answers "definitely not used" or "possibly used",
+ * so a batch of new elements only needs an exact lookup for the few localids the filter is unsure about.
+ * <p/>
+ * Filters are built lazily from the identifiers table the first time a dataset is minted into and kept for the
+ * localidFilterMaxDatasets most recently used datasets.  Minting adds each new localid as it is inserted.  A filter
+ * never forgets a localid, so deleted or rolled back localids only cause extra exact lookups, and one that has
+ * grown well past the size it was built for is rebuilt.  Only one thread builds a dataset's filter at a time; any
+ * other thread that needs it waits for that build rather than starting its own.  localids are compared the way the
+ * identifiers_localid_datasets_id_idx index compares them under utf8_general_ci: ignoring case, accents and trailing
+ * spaces.
+ */
+public class localidFilter {
+    private static Logger logger = LoggerFactory.getLogger(localidFilter.class);
+
+    private static final Map<Integer, localidFilter> filters = new LinkedHashMap<Integer, localidFilter>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Integer, localidFilter> eldest) {
+            return size() > maxDatasets();
+        }
+    };
+
+    // Builds in progress, guarded by the filters lock
+    private static final Map<Integer, pendingBuild> building = new HashMap<Integer, pendingBuild>();
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashes;
+    private final long capacity;
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param capacity          the number of localids the filter is sized for
+     * @param falsePositiveRate the chance of answering "possibly used" for an unused localid when full
+     */
+    localidFilter(long capacity, double falsePositiveRate) {
+        this.capacity = Math.max(capacity, 1024);
+        long m = (long) Math.ceil(-this.capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+        numBits = (long) words * 64;
+        numHashes = Math.max(1, (int) Math.round((double) numBits / this.capacity * Math.log(2)));
+        bits = new AtomicLongArray(words);
+    }
+
+    /**
+     * Get the filter for a dataset, building it if it is not cached or has outgrown its size
+     *
+     * @param db          used to read the existing localids if the filter has to be built
+     * @param datasets_id
+     *
+     * @return
+     */
+    public static localidFilter forDataset(database db, int datasets_id) {
+        pendingBuild pending;
+        boolean started = false;
+        synchronized (filters) {
+            localidFilter filter = filters.get(datasets_id);
+            if (filter != null && filter.count.get() <= filter.capacity * 2) {
+                return filter;
+            }
+            pending = building.get(datasets_id);
+            if (pending == null) {
+                pending = new pendingBuild();
+                building.put(datasets_id, pending);
+                started = true;
+            }
+        }
+        if (!started) {
+            // Another thread is building this filter already
+            return pending.await(datasets_id);
+        }
+
+        localidFilter filter = null;
+        try {
+            filter = build(db, datasets_id);
+        } finally {
+            synchronized (filters) {
+                building.remove(datasets_id);
+                // A filter built while the dataset was invalidated may be missing what was added, so only its
+                // waiters use it
+                if (filter != null && !pending.invalidated) {
+                    filters.put(datasets_id, filter);
+                }
+            }
+            pending.finish(filter);
+        }
+        return filter;
+    }
+
+    /**
+     * Drop the cached filter for a dataset, so it is rebuilt the next time it is needed.  Call this after adding
+     * localids by any means other than identifierInserter.
+     *
+     * @param datasets_id
+     */
+    public static void invalidate(int datasets_id) {
+        synchronized (filters) {
+            filters.remove(datasets_id);
+            pendingBuild pending = building.get(datasets_id);
+            if (pending != null) {
+                pending.invalidated = true;
+            }
+        }
+    }
+
+    /**
+     * Whether the localid may already be used
+     *
+     * @param localid
+     *
+     * @return false if the localid is certainly not used
+     */
+    public boolean mightContain(String localid) {
+        long[] hashes = hash(localid);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = index(hashes, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record a localid as used
+     *
+     * @param localid
+     */
+    public void add(String localid) {
+        long[] hashes = hash(localid);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = index(hashes, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+            } while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * The form of a localid that the unique index compares
+     *
+     * @param localid
+     *
+     * @return
+     */
+    static String normalize(String localid) {
+        int end = localid.length();
+        while (end > 0 && localid.charAt(end - 1) == ' ') {
+            end--;
+        }
+        String trimmed = localid.substring(0, end);
+        for (int i = 0; i < trimmed.length(); i++) {
+            if (trimmed.charAt(i) >= 0x80) {
+                // Fold accents as utf8_general_ci does, by dropping the combining marks of the decomposed form
+                trimmed = COMBINING_MARKS.matcher(Normalizer.normalize(trimmed, Normalizer.Form.NFD)).replaceAll("");
+                break;
+            }
+        }
+        return trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    private long index(long[] hashes, int i) {
+        long combined = hashes[0] + i * hashes[1];
+        return (combined & Long.MAX_VALUE) % numBits;
+    }
+
+    private static long[] hash(String localid) {
+        String normalized = normalize(localid);
+        long h1 = 0x9E3779B97F4A7C15L;
+        long h2 = 0xC2B2AE3D27D4EB4FL;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            h1 = (h1 ^ c) * 0x100000001B3L;
+            h2 = (h2 + c) * 0xFF51AFD7ED558CCDL;
+        }
+        return new long[]{mix(h1), mix(h2) | 1};
+    }
+
+    // The MurmurHash3 finalizer, to spread the bits of each hash
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static localidFilter build(database db, int datasets_id) {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        double falsePositiveRate = Double.parseDouble(sm.retrieveValue("localidFilterFalsePositiveRate", "0.01"));
+        long begin = System.currentTimeMillis();
+
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = db.getConn().prepareStatement("SELECT count(*) as count FROM identifiers WHERE datasets_id = ?");
+            stmt.setInt(1, datasets_id);
+            rs = stmt.executeQuery();
+            long existing = rs.next() ? rs.getLong("count") : 0;
+            db.close(stmt, rs);
+
+            // Leave room for the dataset to double before it has to be rebuilt
+            localidFilter filter = new localidFilter(existing * 2, falsePositiveRate);
+
+            stmt = db.getConn().prepareStatement("SELECT localid FROM identifiers WHERE datasets_id = ?",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            stmt.setInt(1, datasets_id);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                String localid = rs.getString("localid");
+                if (localid != null) {
+                    filter.add(localid);
+                }
+            }
+            logger.info("Built localid filter for dataset {} from {} identifiers in {} ms",
+                    new Object[]{datasets_id, filter.count.get(), System.currentTimeMillis() - begin});
+            return filter;
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
+
+    /**
+     * A filter being built by one thread, which any other thread needing the same dataset waits for
+     */
+    private static class pendingBuild {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile localidFilter filter;
+        // Set, under the filters lock, if the dataset is invalidated while the filter is being built
+        boolean invalidated;
+
+        void finish(localidFilter filter) {
+            this.filter = filter;
+            done.countDown();
+        }
+
+        localidFilter await(int datasets_id) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServerErrorException("Server Error", "Interrupted while waiting for the localid filter " +
+                        "of dataset " + datasets_id, e);
+            }
+            if (filter == null) {
+                throw new ServerErrorException("Server Error", "Unable to build the localid filter of dataset " +
+                        datasets_id);
+            }
+            return filter;
+        }
+    }
+
+    private static int maxDatasets() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        return Integer.parseInt(sm.retrieveValue("localidFilterMaxDatasets", "20"));
+    }
+}
@@ -0,0 +1,303 @@
+package bcid;
+
+import net.sf.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A request to mint a list of elements into a dataset, run in the background by mintJobQueue.  The job keeps track
+ * of its state and of how many identifiers have been committed so far, so clients can poll it instead of holding a
+ * request open for the whole load.  Loads of more than mintBulkThreshold lines use elementMinter.bulkLoad, and the
+ * job then also reports any rows skipped as duplicates.
+ * <p/>
+ * The input is either a string or a file in any format elementRowParser understands.  A file is deleted once the
+ * job has finished, or once it is cancelled if it never gets to run.
+ * <p/>
+ * The job picks its loadedSetUUID before it starts minting.  If it fails part way through, whatever it already
+ * committed under that loadedSetUUID is deleted again; if even that fails, the loadedSetUUID is left in the job's
+ * status so the rows can be found and removed later.
+ * <p/>
+ * A job may be tied to a mintRequest with setMintRequest.  It then reuses, and first clears out, the loadedSetUUID
+ * of an earlier attempt with the same requestKey, only commits while it holds the request's claim, and records its
+ * final status as the request's result.  A failed job leaves its rows for the retry to clear out.
+ */
+public class mintJob implements Runnable {
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String COMPLETE = "complete";
+    public static final String FAILED = "failed";
+
+    private static Logger logger = LoggerFactory.getLogger(mintJob.class);
+
+    private final String jobId = UUID.randomUUID().toString();
+    private final String username;
+    private final int datasets_id;
+    private final long submitted = System.currentTimeMillis();
+    private final AtomicLong minted = new AtomicLong();
+
+    private String data;
+    private File input;
+    private final elementRowParser parser;
+    private final long rows;
+    private volatile String status = QUEUED;
+    private volatile String loadedSetUUID;
+    private volatile String error;
+    private volatile bulkLoadReport report;
+    private volatile long started;
+    private volatile long finished;
+    private mintRequest mintRequest;
+
+    /**
+     * @param username    the user who submitted the job
+     * @param datasets_id the dataset to mint into
+     * @param data        pipe delimited localid|webaddress lines, as accepted by elementRowReader
+     */
+    public mintJob(String username, int datasets_id, String data) {
+        this(username, datasets_id, data, elementRowParser.forFormat(elementRowParser.PIPE));
+    }
+
+    /**
+     * @param username    the user who submitted the job
+     * @param datasets_id the dataset to mint into
+     * @param data        element input lines
+     * @param parser      the format of the lines
+     */
+    public mintJob(String username, int datasets_id, String data, elementRowParser parser) {
+        this.username = username;
+        this.datasets_id = datasets_id;
+        this.data = data;
+        this.parser = parser;
+        this.rows = -1;
+    }
+
+    /**
+     * @param username    the user who submitted the job
+     * @param datasets_id the dataset to mint into
+     * @param input       a UTF-8 file of element input, optionally gzipped, already checked with parallelRowReader.validate
+     * @param parser      the format of the file
+     * @param rows        the number of rows in the file
+     */
+    public mintJob(String username, int datasets_id, File input, elementRowParser parser, long rows) {
+        this.username = username;
+        this.datasets_id = datasets_id;
+        this.input = input;
+        this.parser = parser;
+        this.rows = rows;
+    }
+
+    /**
+     * Make this job the attempt of a mint request that has been claimed for it
+     *
+     * @param mintRequest
+     */
+    public void setMintRequest(mintRequest mintRequest) {
+        this.mintRequest = mintRequest;
+    }
+
+    public void run() {
+        started = System.currentTimeMillis();
+        status = RUNNING;
+        elementMinter minter = null;
+        Reader reader = null;
+        String uuid = UUID.randomUUID().toString();
+        try {
+            minter = new elementMinter(datasets_id);
+            if (mintRequest != null) {
+                if (mintRequest.getLoadedSetUUID() != null) {
+                    // Clear out whatever an earlier attempt with this key managed to insert
+                    uuid = mintRequest.getLoadedSetUUID();
+                    minter.deleteLoadedSetUUID(uuid);
+                }
+                mintRequest.begin(datasets_id, uuid);
+                minter.setMintRequest(mintRequest);
+            }
+            boolean bulk = isBulk();
+            if (data != null) {
+                reader = new StringReader(data);
+            } else {
+                reader = elementInput.open(new FileInputStream(input));
+            }
+            Iterator<elementRow> elements = new parallelRowReader(reader, parser);
+            if (bulk) {
+                report = minter.bulkLoad(elements, uuid);
+                minted.set(report.getLoaded());
+            } else {
+                minter.mintList(elements, new identifierWriter() {
+                    public void write(String identifier) {
+                        minted.incrementAndGet();
+                    }
+                }, uuid);
+            }
+            loadedSetUUID = uuid;
+            if (mintRequest != null) {
+                JSONObject result = toJSON();
+                result.put("status", COMPLETE);
+                mintRequest.complete(result.toString());
+            }
+            status = COMPLETE;
+        } catch (IOException e) {
+            fail(e, minter, uuid);
+        } catch (RuntimeException e) {
+            fail(e, minter, uuid);
+        } finally {
+            if (minter != null) {
+                minter.close();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.warn("IOException closing the input of mint job {}", jobId, e);
+                }
+            }
+            if (input != null) {
+                input.delete();
+                input = null;
+            }
+            data = null;
+            finished = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Loads with more than mintBulkThreshold lines go through the bulk loader
+     */
+    private boolean isBulk() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        long threshold = Long.parseLong(sm.retrieveValue("mintBulkThreshold", "100000"));
+        if (rows >= 0) {
+            return rows > threshold;
+        }
+        long lines = 0;
+        for (int i = data.indexOf('\n'); i >= 0 && lines <= threshold; i = data.indexOf('\n', i + 1)) {
+            lines++;
+        }
+        return lines > threshold;
+    }
+
+    /**
+     * Mark the job failed and delete whatever it committed before failing
+     */
+    private void fail(Exception e, elementMinter minter, String uuid) {
+        logger.warn("Mint job {} for dataset {} failed after {} identifiers", new Object[]{jobId, datasets_id, minted.get(), e});
+        error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+        if (mintRequest != null) {
+            // The loaded set is shared with any retry, which clears it out itself
+            mintRequest.fail();
+        } else if (minted.get() > 0 && minter != null) {
+            try {
+                minter.deleteLoadedSetUUIDInBackground(uuid);
+                minted.set(0);
+            } catch (RuntimeException deleteException) {
+                logger.warn("Unable to delete the {} identifiers mint job {} committed under loaded set {}",
+                        new Object[]{minted.get(), jobId, uuid, deleteException});
+                loadedSetUUID = uuid;
+                error += "; the identifiers already minted could not be deleted and remain under loadedSetUUID " + uuid;
+            }
+        }
+        status = FAILED;
+    }
+
+    /**
+     * Fail a job that was queued but will never run, deleting its input
+     *
+     * @param reason
+     */
+    void cancel(String reason) {
+        error = reason;
+        status = FAILED;
+        if (mintRequest != null) {
+            mintRequest.fail();
+        }
+        if (input != null) {
+            input.delete();
+            input = null;
+        }
+        data = null;
+        finished = System.currentTimeMillis();
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getDatasets_id() {
+        return datasets_id;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * The number of identifiers committed so far
+     *
+     * @return
+     */
+    public long getMinted() {
+        return minted.get();
+    }
+
+    /**
+     * The loadedSetUUID of the minted identifiers, once the job is complete.  A failed job only has one if
+     * identifiers it committed could not be deleted again.
+     *
+     * @return
+     */
+    public String getLoadedSetUUID() {
+        return loadedSetUUID;
+    }
+
+    /**
+     * Whether the job has stopped, successfully or not
+     *
+     * @return
+     */
+    public boolean isFinished() {
+        return finished != 0;
+    }
+
+    long getFinishedTime() {
+        return finished;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject job = new JSONObject();
+        job.put("jobId", jobId);
+        job.put("status", status);
+        job.put("datasets_id", datasets_id);
+        job.put("minted", minted.get());
+        job.put("submitted", submitted);
+        if (started != 0) {
+            job.put("started", started);
+        }
+        if (finished != 0) {
+            job.put("finished", finished);
+        }
+        if (loadedSetUUID != null) {
+            job.put("loadedSetUUID", loadedSetUUID);
+        }
+        if (error != null) {
+            job.put("error", error);
+        }
+        if (report != null) {
+            job.put("bulkLoad", report.toJSON());
+        }
+        return job;
+    }
+}
@@ -0,0 +1,129 @@
+package bcid;
+
+import bcidExceptions.ServiceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs mint jobs on a small, bounded pool of background threads and remembers them so their status can be looked
+ * up.  When every thread is busy and the queue is full new jobs are refused rather than piling up.  Finished jobs
+ * are forgotten after mintJobRetention milliseconds.
+ */
+public class mintJobQueue {
+    private static Logger logger = LoggerFactory.getLogger(mintJobQueue.class);
+
+    private static ThreadPoolExecutor executor;
+    private static volatile long retention;
+    private static final ConcurrentHashMap<String, mintJob> jobs = new ConcurrentHashMap<String, mintJob>();
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            int threads = Integer.parseInt(sm.retrieveValue("mintJobThreads", "2"));
+            int queueSize = Integer.parseInt(sm.retrieveValue("mintJobQueueSize", "20"));
+            retention = Long.parseLong(sm.retrieveValue("mintJobRetention", "86400000"));
+
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "mint-job-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Queue a job to run in the background
+     *
+     * @param job
+     *
+     * @throws ServiceUnavailableException if the queue is full
+     */
+    public static void submit(mintJob job) {
+        ThreadPoolExecutor executor = getExecutor();
+        purgeFinished();
+        jobs.put(job.getJobId(), job);
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getJobId());
+            throw new ServiceUnavailableException("Too many mint jobs are waiting, please try again later",
+                    "mint job queue is full: " + executor.getQueue().size() + " waiting, " +
+                            executor.getActiveCount() + " running");
+        }
+        logger.info("Queued mint job {} for dataset {}", job.getJobId(), job.getDatasets_id());
+    }
+
+    /**
+     * Look up a job by id
+     *
+     * @param jobId
+     *
+     * @return the job, or null if there is no such job or it finished too long ago
+     */
+    public static mintJob get(String jobId) {
+        purgeFinished();
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Stop accepting jobs and give running jobs a few seconds to finish.  Jobs still waiting in the queue are not
+     * started; they are marked failed and their input files deleted.
+     */
+    public static void shutdown() {
+        ThreadPoolExecutor toStop;
+        synchronized (mintJobQueue.class) {
+            toStop = executor;
+            executor = null;
+        }
+        if (toStop == null) {
+            return;
+        }
+        toStop.shutdown();
+        List<Runnable> dropped = new ArrayList<Runnable>();
+        toStop.getQueue().drainTo(dropped);
+        try {
+            if (!toStop.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("{} mint jobs were still running at shutdown", toStop.getActiveCount());
+                dropped.addAll(toStop.shutdownNow());
+            }
+        } catch (InterruptedException e) {
+            dropped.addAll(toStop.shutdownNow());
+            Thread.currentThread().interrupt();
+        }
+        for (Runnable r : dropped) {
+            mintJob job = (mintJob) r;
+            job.cancel("The server shut down before this job started, please submit it again");
+            logger.info("Cancelled queued mint job {} for dataset {}", job.getJobId(), job.getDatasets_id());
+        }
+    }
+
+    private static void purgeFinished() {
+        long cutoff = System.currentTimeMillis() - retention;
+        Iterator<mintJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            mintJob job = it.next();
+            if (job.isFinished() && job.getFinishedTime() < cutoff) {
+                it.remove();
+            }
+        }
+    }
+}
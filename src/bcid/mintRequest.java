@@ -0,0 +1,281 @@
+package bcid;
+
+import bcidExceptions.BadRequestException;
+import bcidExceptions.ConflictRequestException;
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Makes a mint request idempotent.  Clients may send a requestKey with a mint request, and the key is recorded in
+ * the mintRequests table along with the dataset and loadedSetUUID the request produced.  When the same user sends
+ * the same key again, because an earlier attempt timed out for instance, the caller is told the request is already
+ * complete and can hand back the original result instead of minting again.
+ * <p/>
+ * A request that failed, or that has been pending for longer than mintRequestTimeout seconds, may be claimed again.
+ * It then keeps its datasets_id and loadedSetUUID, so the caller can clear out what the earlier attempt left behind.
+ * <p/>
+ * Each claim increments the request's attempt number, and an attempt can only record progress, complete, or commit
+ * identifiers (see elementMinter.setMintRequest) while its number is still the current one.  So an attempt that
+ * was thought dead and reclaimed cannot go on to commit alongside the retry that replaced it.
+ */
+public class mintRequest {
+    public static final String PENDING = "pending";
+    public static final String COMPLETE = "complete";
+    public static final String FAILED = "failed";
+
+    private static Logger logger = LoggerFactory.getLogger(mintRequest.class);
+
+    private final int users_id;
+    private final String requestKey;
+    private int attempt;
+    private String status;
+    private Integer datasets_id;
+    private String loadedSetUUID;
+    private String result;
+
+    /**
+     * Look up a request key, claiming it for the caller if it is new or may be retried
+     *
+     * @param users_id
+     * @param requestKey
+     *
+     * @throws ConflictRequestException if another request with this key is still running
+     */
+    public mintRequest(int users_id, String requestKey) {
+        if (requestKey.length() > 64) {
+            throw new BadRequestException("requestKey must be at most 64 characters");
+        }
+        this.users_id = users_id;
+        this.requestKey = requestKey;
+
+        database db = new database(false);
+        try {
+            if (insert(db) || reclaim(db)) {
+                load(db);
+                status = PENDING;
+            } else {
+                load(db);
+                if (!COMPLETE.equals(status)) {
+                    throw new ConflictRequestException("A request with this requestKey is still running, please try again later");
+                }
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Whether the request already finished, in which case getResult(), getDatasets_id() and getLoadedSetUUID()
+     * describe what it produced
+     *
+     * @return
+     */
+    public boolean isComplete() {
+        return COMPLETE.equals(status);
+    }
+
+    /**
+     * The dataset an earlier attempt minted into, or null
+     *
+     * @return
+     */
+    public Integer getDatasets_id() {
+        return datasets_id;
+    }
+
+    /**
+     * The loadedSetUUID an earlier attempt used, or null
+     *
+     * @return
+     */
+    public String getLoadedSetUUID() {
+        return loadedSetUUID;
+    }
+
+    /**
+     * The stored response of a completed request, if the caller saved one
+     *
+     * @return
+     */
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * Record where the request is minting to, before it starts inserting
+     *
+     * @param datasets_id
+     * @param loadedSetUUID may be null if the request does not mint elements
+     */
+    public void begin(int datasets_id, String loadedSetUUID) {
+        this.datasets_id = datasets_id;
+        this.loadedSetUUID = loadedSetUUID;
+        if (update("UPDATE mintRequests SET datasets_id = ?, loadedSetUUID = ? " +
+                "WHERE users_id = ? AND requestKey = ? AND attempt = ?", datasets_id, loadedSetUUID) == 0) {
+            throw superseded();
+        }
+    }
+
+    /**
+     * Mark the request complete
+     *
+     * @param result the response to hand back to repeats of this request, may be null
+     *
+     * @throws ConflictRequestException if a retry has claimed the request since this attempt did
+     */
+    public void complete(String result) {
+        this.result = result;
+        if (update("UPDATE mintRequests SET status = '" + COMPLETE + "', result = ? " +
+                "WHERE users_id = ? AND requestKey = ? AND attempt = ?", result) == 0) {
+            throw superseded();
+        }
+        status = COMPLETE;
+    }
+
+    /**
+     * Mark the request failed so it can be retried with the same key.  Nothing is changed if a retry has already
+     * claimed it.
+     */
+    public void fail() {
+        status = FAILED;
+        try {
+            update("UPDATE mintRequests SET status = '" + FAILED + "' WHERE users_id = ? AND requestKey = ? AND attempt = ?");
+        } catch (ServerErrorException e) {
+            // The request stays pending and can be claimed again after mintRequestTimeout
+            logger.warn("Unable to mark mint request {} as failed.", requestKey, e);
+        }
+    }
+
+    /**
+     * Check, in the transaction about to commit identifiers for this request, that no retry has claimed the
+     * request since this attempt did.  The row is locked in share mode, so a retry cannot claim it while the
+     * transaction is open.
+     *
+     * @param db   used to close the statement
+     * @param conn the connection that is about to commit
+     *
+     * @throws ConflictRequestException if a retry has claimed the request
+     */
+    void checkClaim(database db, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT attempt FROM mintRequests WHERE users_id = ? AND requestKey = ? " +
+                    "LOCK IN SHARE MODE");
+            stmt.setInt(1, users_id);
+            stmt.setString(2, requestKey);
+            rs = stmt.executeQuery();
+            if (!rs.next() || rs.getInt("attempt") != attempt) {
+                throw superseded();
+            }
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
+
+    private ConflictRequestException superseded() {
+        return new ConflictRequestException("A later request with this requestKey has taken over, please check its result",
+                "mint request " + requestKey + " attempt " + attempt + " was reclaimed by a retry");
+    }
+
+    private boolean insert(database db) {
+        PreparedStatement stmt = null;
+        try {
+            stmt = db.getConn().prepareStatement("INSERT INTO mintRequests (users_id, requestKey, status) VALUES (?,?,?)");
+            stmt.setInt(1, users_id);
+            stmt.setString(2, requestKey);
+            stmt.setString(3, PENDING);
+            stmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            // 23000 is a duplicate key, meaning this key has been used before
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return false;
+            }
+            throw new ServerErrorException(e);
+        } finally {
+            db.close(stmt, null);
+        }
+    }
+
+    private boolean reclaim(database db) {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        int timeout = Integer.parseInt(sm.retrieveValue("mintRequestTimeout", "3600"));
+
+        PreparedStatement stmt = null;
+        try {
+            stmt = db.getConn().prepareStatement("UPDATE mintRequests SET status = ?, attempt = attempt + 1, ts = CURRENT_TIMESTAMP " +
+                    "WHERE users_id = ? AND requestKey = ? " +
+                    "AND (status = ? OR (status = ? AND ts < CURRENT_TIMESTAMP - INTERVAL ? SECOND))");
+            stmt.setString(1, PENDING);
+            stmt.setInt(2, users_id);
+            stmt.setString(3, requestKey);
+            stmt.setString(4, FAILED);
+            stmt.setString(5, PENDING);
+            stmt.setInt(6, timeout);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        } finally {
+            db.close(stmt, null);
+        }
+    }
+
+    private void load(database db) {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = db.getConn().prepareStatement("SELECT attempt, status, datasets_id, loadedSetUUID, result FROM mintRequests " +
+                    "WHERE users_id = ? AND requestKey = ?");
+            stmt.setInt(1, users_id);
+            stmt.setString(2, requestKey);
+            rs = stmt.executeQuery();
+            if (rs.next()) {
+                attempt = rs.getInt("attempt");
+                status = rs.getString("status");
+                int id = rs.getInt("datasets_id");
+                datasets_id = rs.wasNull() ? null : id;
+                loadedSetUUID = rs.getString("loadedSetUUID");
+                result = rs.getString("result");
+            }
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        } finally {
+            db.close(stmt, rs);
+        }
+    }
+
+    /**
+     * Run an update whose last three parameters are users_id, requestKey and attempt
+     *
+     * @return the number of rows updated
+     */
+    private int update(String sql, Object... values) {
+        database db = new database(false);
+        PreparedStatement stmt = null;
+        try {
+            stmt = db.getConn().prepareStatement(sql);
+            int i = 1;
+            for (Object value : values) {
+                stmt.setObject(i++, value);
+            }
+            stmt.setInt(i++, users_id);
+            stmt.setString(i++, requestKey);
+            stmt.setInt(i, attempt);
+            return stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new ServerErrorException(e);
+        } finally {
+            db.close(stmt, null);
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package bcid;
+
+import bcidExceptions.BadRequestException;
+import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads element input like elementRowReader, but parses and validates it on several cores.  Lines are read in
+ * chunks of inputParseChunkLines on the calling thread and each chunk is parsed on a shared pool of inputParseThreads
+ * threads.  Rows still come out in input order, and only a few chunks per thread are held in memory at a time.
+ * <p/>
+ * Use validate() to check a whole input and get a report of every invalid line without keeping any rows, then
+ * read it again with the iterator to mint it.  Nothing here touches the database.
+ */
+public class parallelRowReader implements Iterator<elementRow> {
+    private static Logger logger = LoggerFactory.getLogger(parallelRowReader.class);
+
+    private static ThreadPoolExecutor executor;
+
+    private final BufferedReader reader;
+    private final elementRowParser parser;
+    private final boolean keepRows;
+    private final int chunkLines;
+    private final int maxInFlight;
+    private final ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+    private long linesRead = 0;
+    private boolean eof = false;
+    private List<elementRow> current;
+    private int index;
+
+    public parallelRowReader(Reader reader, elementRowParser parser) {
+        this(reader, parser, true);
+    }
+
+    private parallelRowReader(Reader reader, elementRowParser parser, boolean keepRows) {
+        if (reader instanceof BufferedReader) {
+            this.reader = (BufferedReader) reader;
+        } else {
+            this.reader = new BufferedReader(reader);
+        }
+        this.parser = parser;
+        this.keepRows = keepRows;
+
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        chunkLines = Math.max(1, Integer.parseInt(sm.retrieveValue("inputParseChunkLines", "10000")));
+        maxInFlight = getExecutor().getMaximumPoolSize() * 2;
+    }
+
+    /**
+     * Parse all of the input and report on it, without keeping the rows
+     *
+     * @param reader
+     * @param parser
+     *
+     * @return
+     */
+    public static inputValidationReport validate(Reader reader, elementRowParser parser) {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        inputValidationReport report = new inputValidationReport(parser.getFormat(),
+                Integer.parseInt(sm.retrieveValue("inputErrorReportLimit", "1000")));
+
+        long begin = System.currentTimeMillis();
+        parallelRowReader r = new parallelRowReader(reader, parser, false);
+        Chunk chunk;
+        while ((chunk = r.nextChunk()) != null) {
+            report.addLines(chunk.lines);
+            report.addRows(chunk.rowCount);
+            for (int i = 0; i < chunk.errorLines.size(); i++) {
+                report.addError(chunk.errorLines.get(i), chunk.errors.get(i));
+            }
+        }
+        logger.info("Validated {} lines of {} input in {} ms, {} errors", new Object[]{report.getLines(),
+                parser.getFormat(), System.currentTimeMillis() - begin, report.getErrorCount()});
+        return report;
+    }
+
+    /**
+     * @throws BadRequestException at the first invalid line
+     */
+    public boolean hasNext() {
+        while (current == null || index >= current.size()) {
+            Chunk chunk = nextChunk();
+            if (chunk == null) {
+                return false;
+            }
+            if (!chunk.errors.isEmpty()) {
+                throw new BadRequestException("Invalid input on line " + chunk.errorLines.get(0) + ": " + chunk.errors.get(0));
+            }
+            current = chunk.rows;
+            index = 0;
+        }
+        return true;
+    }
+
+    public elementRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        elementRow row = current.get(index);
+        current.set(index++, null);
+        return row;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop the parsing threads.  Called when the application shuts down.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Wait for the next chunk in input order, keeping the pool supplied with chunks to parse
+     *
+     * @return the chunk, or null at the end of the input
+     */
+    private Chunk nextChunk() {
+        fill();
+        Future<Chunk> future = inFlight.poll();
+        if (future == null) {
+            return null;
+        }
+        try {
+            Chunk chunk = future.get();
+            fill();
+            return chunk;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerErrorException("Server Error", "Interrupted while parsing input", e);
+        } catch (ExecutionException e) {
+            throw new ServerErrorException("Server Error", "Exception while parsing input", e.getCause());
+        }
+    }
+
+    private void fill() {
+        while (!eof && inFlight.size() < maxInFlight) {
+            List<String> lines = new ArrayList<String>(chunkLines);
+            long firstLine = linesRead + 1;
+            try {
+                String line;
+                while (lines.size() < chunkLines && (line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } catch (IOException e) {
+                throw new ServerErrorException("Server Error", "IOException while reading input on line " +
+                        (linesRead + lines.size() + 1), e);
+            }
+            if (lines.size() < chunkLines) {
+                eof = true;
+            }
+            if (lines.isEmpty()) {
+                return;
+            }
+            linesRead += lines.size();
+            inFlight.add(getExecutor().submit(new Chunk(parser, lines, firstLine, keepRows)));
+        }
+    }
+
+    /**
+     * The shared pool that input is parsed on
+     */
+    static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            int threads = Integer.parseInt(sm.retrieveValue("inputParseThreads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "input-parser-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * A run of consecutive lines, parsed on a pool thread
+     */
+    private static final class Chunk implements Callable<Chunk> {
+        private final elementRowParser parser;
+        private final long firstLine;
+        private final boolean keepRows;
+        private List<String> input;
+
+        final int lines;
+        final List<elementRow> rows;
+        long rowCount;
+        final List<Long> errorLines = new ArrayList<Long>();
+        final List<String> errors = new ArrayList<String>();
+
+        Chunk(elementRowParser parser, List<String> input, long firstLine, boolean keepRows) {
+            this.parser = parser;
+            this.input = input;
+            this.firstLine = firstLine;
+            this.keepRows = keepRows;
+            this.lines = input.size();
+            this.rows = keepRows ? new ArrayList<elementRow>(input.size()) : null;
+        }
+
+        public Chunk call() {
+            for (int i = 0; i < input.size(); i++) {
+                long lineNumber = firstLine + i;
+                try {
+                    elementRow row = parser.parse(input.get(i), lineNumber);
+                    if (row != null) {
+                        rowCount++;
+                        if (keepRows) {
+                            rows.add(row);
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    errorLines.add(lineNumber);
+                    errors.add(e.getMessage());
+                }
+            }
+            input = null;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package bcid;
+
+import net.sf.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers where ARKs resolve to, so resolving the same ARK again doesn't repeat resolver's dataset, project and
+ * metadata queries.  Up to resolutionCacheSize of the most recently used ARKs are kept, each for at most
+ * resolutionCacheTTL milliseconds.  Both settings are read again whenever the settings file is reloaded.
+ * <p/>
+ * The cache is split into SEGMENTS independently locked LRU maps, chosen by the ARK's hash, so concurrent
+ * resolutions rarely wait on each other.  Each segment holds its share of resolutionCacheSize, so the ARKs evicted
+ * are the least recently used of their segment rather than of the whole cache.
+ * <p/>
+ * Entries for a dataset are dropped as soon as the dataset is changed through this application: when its
+ * configuration is updated, when it is attached to an expedition, and when a dataset is minted.  Other application
+ * servers and direct database edits are only picked up once the TTL expires.
+ * <p/>
+ * A resolution that was already reading the dataset when it was changed, or that read it from a replica which had
+ * not caught up yet, could cache the old target again.  So resolutions take a ticket with begin() before they read,
+ * and put() drops the result if its dataset has been invalidated since.  For resolutionCacheInvalidationWindow
+ * milliseconds after a dataset is invalidated, recentlyInvalidated() tells resolutions to read it from the primary.
+ */
+public class resolutionCache {
+    private static Logger logger = LoggerFactory.getLogger(resolutionCache.class);
+
+    static final int SEGMENTS = 16;
+
+    private static final segment[] segments = new segment[SEGMENTS];
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new segment();
+        }
+    }
+
+    /**
+     * One independently locked part of the cache, in least recently used order.  Synchronize on the segment to use it.
+     */
+    private static class segment extends LinkedHashMap<String, resolution> {
+        private static final long serialVersionUID = 1L;
+
+        segment() {
+            super(16, 0.75f, true);
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<String, resolution> eldest) {
+            if (size() > (maxSize + SEGMENTS - 1) / SEGMENTS) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong expirations = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+    private static final AtomicLong stalePuts = new AtomicLong();
+
+    // Counts invalidations, so a ticket from begin() tells which of them a resolution may have missed
+    private static final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * When a dataset was last invalidated
+     */
+    private static class invalidation {
+        final long sequence;
+        final long at;
+
+        invalidation(long sequence, long at) {
+            this.sequence = sequence;
+            this.at = at;
+        }
+    }
+
+    // Datasets invalidated within the window, oldest first.  Synchronize on the map to use it.
+    private static final LinkedHashMap<Integer, invalidation> invalidated = new LinkedHashMap<Integer, invalidation>();
+    // The newest invalidation dropped from invalidated; tickets older than it can no longer be checked
+    private static long forgottenSequence = 0;
+
+    private static volatile int maxSize;
+    private static volatile long ttl;
+    private static volatile long invalidationWindow;
+    // The SettingsManager generation maxSize and ttl were read from
+    private static volatile long settingsGeneration = -1;
+
+    /**
+     * Read the size and TTL if the settings have been reloaded since they were last read
+     */
+    private static void loadSettings() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        long generation = sm.getGeneration();
+        if (generation == settingsGeneration) {
+            return;
+        }
+        synchronized (resolutionCache.class) {
+            if (generation != settingsGeneration) {
+                maxSize = Integer.parseInt(sm.retrieveValue("resolutionCacheSize", "10000"));
+                ttl = Long.parseLong(sm.retrieveValue("resolutionCacheTTL", "300000"));
+                invalidationWindow = Long.parseLong(sm.retrieveValue("resolutionCacheInvalidationWindow", "5000"));
+                settingsGeneration = generation;
+            }
+        }
+    }
+
+    private static segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % SEGMENTS];
+    }
+
+    /**
+     * Where one ARK resolves to
+     */
+    public static class resolution {
+        private final int datasets_id;
+        private final URI target;
+        private final URI tabTarget;
+        private final String graph;
+        private final long expires;
+
+        resolution(int datasets_id, URI target, URI tabTarget, String graph, long expires) {
+            this.datasets_id = datasets_id;
+            this.target = target;
+            this.tabTarget = tabTarget;
+            this.graph = graph;
+            this.expires = expires;
+        }
+
+        public int getDatasets_id() {
+            return datasets_id;
+        }
+
+        /**
+         * The target of resolver.resolveARK
+         *
+         * @return
+         */
+        public URI getTarget() {
+            return target;
+        }
+
+        /**
+         * The target of resolver.resolveArkAs("tab"), or null if the dataset has no graph
+         *
+         * @return
+         */
+        public URI getTabTarget() {
+            return tabTarget;
+        }
+
+        public String getGraph() {
+            return graph;
+        }
+    }
+
+    /**
+     * Normalise an ARK to the form it is cached under
+     *
+     * @param ark
+     *
+     * @return
+     */
+    public static String key(String ark) {
+        return ark.trim();
+    }
+
+    /**
+     * Look up an ARK
+     *
+     * @param ark
+     *
+     * @return the cached resolution, or null if the ARK has not been resolved recently
+     */
+    public static resolution get(String ark) {
+        String key = key(ark);
+        segment cache = segmentFor(key);
+        synchronized (cache) {
+            resolution r = cache.get(key);
+            if (r != null && r.expires <= System.currentTimeMillis()) {
+                cache.remove(key);
+                expirations.incrementAndGet();
+                r = null;
+            }
+            if (r == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Take a ticket before reading a dataset to resolve one of its ARKs, to pass to put()
+     *
+     * @return
+     */
+    public static long begin() {
+        return sequence.get();
+    }
+
+    /**
+     * Whether a dataset was invalidated within the last resolutionCacheInvalidationWindow milliseconds, in which
+     * case a replica may not have caught up with the change and it should be read from the primary
+     *
+     * @param datasets_id
+     *
+     * @return
+     */
+    public static boolean recentlyInvalidated(int datasets_id) {
+        loadSettings();
+        synchronized (invalidated) {
+            prune();
+            return invalidated.containsKey(datasets_id);
+        }
+    }
+
+    /**
+     * Drop invalidations older than the window.  Call with invalidated locked.
+     */
+    private static void prune() {
+        long horizon = System.currentTimeMillis() - invalidationWindow;
+        Iterator<invalidation> it = invalidated.values().iterator();
+        while (it.hasNext()) {
+            invalidation i = it.next();
+            if (i.at >= horizon) {
+                break;
+            }
+            forgottenSequence = Math.max(forgottenSequence, i.sequence);
+            it.remove();
+        }
+    }
+
+    /**
+     * Record that a dataset changed, before its entries are dropped
+     */
+    private static void recordInvalidation(int datasets_id) {
+        loadSettings();
+        synchronized (invalidated) {
+            // Re-inserted so the map stays oldest first
+            invalidated.remove(datasets_id);
+            invalidated.put(datasets_id, new invalidation(sequence.incrementAndGet(), System.currentTimeMillis()));
+            prune();
+        }
+    }
+
+    /**
+     * Whether a dataset may have changed since a ticket was taken
+     */
+    private static boolean changedSince(int datasets_id, long ticket) {
+        synchronized (invalidated) {
+            if (ticket < forgottenSequence) {
+                return true;
+            }
+            invalidation i = invalidated.get(datasets_id);
+            return i != null && i.sequence > ticket;
+        }
+    }
+
+    /**
+     * Remember what an ARK resolved to, unless its dataset has been invalidated since the resolution began
+     *
+     * @param ark
+     * @param datasets_id the dataset the ARK belongs to
+     * @param ticket      what begin() returned before the dataset was read
+     * @param target      the result of resolver.resolveARK
+     * @param tabTarget   the result of resolver.resolveArkAs("tab"), or null if the dataset has no graph
+     * @param graph
+     *
+     * @return the resolution, whether or not it was cached
+     */
+    public static resolution put(String ark, int datasets_id, long ticket, URI target, URI tabTarget, String graph) {
+        loadSettings();
+        resolution r = new resolution(datasets_id, target, tabTarget, graph, System.currentTimeMillis() + ttl);
+        if (changedSince(datasets_id, ticket)) {
+            stalePuts.incrementAndGet();
+            return r;
+        }
+        if (maxSize > 0 && ttl > 0) {
+            String key = key(ark);
+            segment cache = segmentFor(key);
+            synchronized (cache) {
+                cache.put(key, r);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Forget every ARK of a dataset
+     *
+     * @param datasets_id
+     */
+    public static void invalidate(int datasets_id) {
+        recordInvalidation(datasets_id);
+        int removed = 0;
+        for (segment cache : segments) {
+            synchronized (cache) {
+                Iterator<resolution> it = cache.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next().datasets_id == datasets_id) {
+                        it.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        invalidations.incrementAndGet();
+        logger.debug("Invalidated {} cached resolutions of dataset {}", removed, datasets_id);
+    }
+
+    /**
+     * Forget every ARK of a dataset, given the dataset's prefix.  The shoulder ends at its first digit, so every ARK
+     * that starts with a prefix belongs to that dataset.
+     *
+     * @param prefix
+     */
+    public static void invalidate(String prefix) {
+        Integer datasets_id = datasetFilter.datasetsId(prefix);
+        if (datasets_id != null) {
+            recordInvalidation(datasets_id);
+        }
+        int removed = 0;
+        for (segment cache : segments) {
+            synchronized (cache) {
+                Iterator<String> it = cache.keySet().iterator();
+                while (it.hasNext()) {
+                    if (it.next().startsWith(prefix)) {
+                        it.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        invalidations.incrementAndGet();
+        logger.debug("Invalidated {} cached resolutions of {}", removed, prefix);
+    }
+
+    /**
+     * Forget everything
+     */
+    public static void clear() {
+        for (segment cache : segments) {
+            synchronized (cache) {
+                cache.clear();
+            }
+        }
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * The cache's size and hit, miss, expiry, eviction and invalidation counts
+     *
+     * @return
+     */
+    public static JSONObject toJSON() {
+        loadSettings();
+        JSONObject stats = new JSONObject();
+        int size = 0;
+        for (segment cache : segments) {
+            synchronized (cache) {
+                size += cache.size();
+            }
+        }
+        stats.put("size", size);
+        stats.put("segments", SEGMENTS);
+        stats.put("maxSize", maxSize);
+        stats.put("ttl", ttl);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("expirations", expirations.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("stalePuts", stalePuts.get());
+        synchronized (invalidated) {
+            prune();
+            stats.put("recentlyInvalidated", invalidated.size());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,150 @@
+package bcid;
+
+import bcidExceptions.ServiceUnavailableException;
+import net.sf.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.SettingsManager;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs resolutions that need the database on resolverThreads threads of their own, so a slow database ties up these
+ * threads and not the container's.  At most resolverQueueSize resolutions wait for a thread; beyond that they are
+ * refused, and the client is asked to retry after resolverRetryAfter seconds.
+ */
+public class resolutionQueue {
+    private static Logger logger = LoggerFactory.getLogger(resolutionQueue.class);
+
+    private static ThreadPoolExecutor executor;
+    private static final AtomicLong rejected = new AtomicLong();
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            SettingsManager sm = SettingsManager.getInstance();
+            sm.loadProperties();
+            int threads = Integer.parseInt(sm.retrieveValue("resolverThreads", "16"));
+            int queueSize = Integer.parseInt(sm.retrieveValue("resolverQueueSize", "200"));
+
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "resolver-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Queue a resolution
+     *
+     * @param resolution
+     *
+     * @return the resolution's Future, to cancel it with
+     *
+     * @throws ServiceUnavailableException if every thread is busy and the queue is full
+     */
+    public static Future<?> submit(Runnable resolution) {
+        ThreadPoolExecutor executor = getExecutor();
+        try {
+            return executor.submit(resolution);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new ServiceUnavailableException("Too many identifiers are being resolved, please try again later",
+                    "resolution queue is full: " + executor.getQueue().size() + " waiting, " +
+                            executor.getActiveCount() + " running");
+        }
+    }
+
+    /**
+     * Cancel a resolution whose client has stopped waiting.  One still queued gives up its place straight away; a
+     * running one has its thread interrupted.
+     *
+     * @param resolution
+     */
+    public static void cancel(Future<?> resolution) {
+        if (resolution.cancel(true)) {
+            ThreadPoolExecutor executor;
+            synchronized (resolutionQueue.class) {
+                executor = resolutionQueue.executor;
+            }
+            if (executor != null) {
+                executor.purge();
+            }
+        }
+    }
+
+    /**
+     * How long, in seconds, a refused client should wait before retrying
+     *
+     * @return
+     */
+    public static int getRetryAfter() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        return Integer.parseInt(sm.retrieveValue("resolverRetryAfter", "5"));
+    }
+
+    /**
+     * How long, in milliseconds, a resolution may take before the client is told to retry
+     *
+     * @return
+     */
+    public static long getTimeout() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        return Long.parseLong(sm.retrieveValue("resolverTimeout", "30000"));
+    }
+
+    /**
+     * The number of resolutions running and waiting, and how many have been refused because the queue was full
+     *
+     * @return
+     */
+    public static JSONObject toJSON() {
+        JSONObject stats = new JSONObject();
+        ThreadPoolExecutor executor = getExecutor();
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("completed", executor.getCompletedTaskCount());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+
+    /**
+     * Stop taking resolutions and give those in progress a few seconds to finish
+     */
+    public static void shutdown() {
+        ThreadPoolExecutor toStop;
+        synchronized (resolutionQueue.class) {
+            toStop = executor;
+            executor = null;
+        }
+        if (toStop == null) {
+            return;
+        }
+        toStop.shutdown();
+        try {
+            if (!toStop.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("{} resolutions were still running at shutdown", toStop.getActiveCount());
+                toStop.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            toStop.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package bcid;
 import bcid.Renderer.JSONRenderer;
 import bcid.Renderer.RDFRenderer;
 import bcid.Renderer.Renderer;
+import bcidExceptions.NotFoundRequestException;
 import bcidExceptions.ServerErrorException;
 import ezid.EZIDException;
 import ezid.EZIDService;
@@ -15,6 +16,7 @@ import java.net.URISyntaxException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
 
 /**
  * Resolves any incoming identifier to the BCID and/or EZID systems.
@@ -29,6 +31,7 @@ public class resolver extends database {
     String sourceID = null;        // The local identifier
     BigInteger element_id = null;
     Integer datagroup_id = null;
+    datasetRecord dataset = null;
     public boolean forwardingResolution = false;
     public String graph = null;
     static SettingsManager sm;
@@ -58,13 +61,19 @@ public class resolver extends database {
         // The piece to decode is ark:/NAAN/bcidIdentifer (anything else after a last trailing "/" not decoded)
         StringBuilder stringBuilder = new StringBuilder();
 
-        String bits[] = ark.split("/", 3);
-        // just want the first chunk between the "/"'s
-        naan = bits[1];
-        // Now decipher the shoulder and sourceID in the next bit
-        setShoulderAndSourceID(bits[2]);
-        // Call setDataGroup() to set datagroup_id
-        setDataGroup();
+        try {
+            String bits[] = ark.split("/", 3);
+            // just want the first chunk between the "/"'s
+            naan = bits[1];
+            // Now decipher the shoulder and sourceID in the next bit
+            setShoulderAndSourceID(bits[2]);
+            // Call setDataGroup() to set datagroup_id
+            setDataGroup();
+        } catch (RuntimeException e) {
+            // The caller never gets a resolver to close, so give the connection back here
+            close();
+            throw e;
+        }
     }
 
     /**
@@ -140,28 +149,36 @@ public class resolver extends database {
      * @param a
      */
     private void setShoulderAndSourceID(String a) {
-        boolean reachedShoulder = false;
-        StringBuilder sbShoulder = new StringBuilder();
-        StringBuilder sbSourceID = new StringBuilder();
+        String[] split = splitShoulderAndSourceID(a, sm.getDivider());
+        shoulder = split[0];
+        sourceID = split[1];
+    }
 
+    /**
+     * Split the part of an ARK after the NAAN into the shoulder, which runs up to and including the first digit,
+     * and the sourceID after it, with the divider between them removed
+     *
+     * @param a       the shoulder plus identifier
+     * @param divider the divider between shoulder and sourceID
+     *
+     * @return the shoulder and the sourceID, which is empty if there is none
+     */
+    public static String[] splitShoulderAndSourceID(String a, String divider) {
+        int end = a.length();
         for (int i = 0; i < a.length(); i++) {
-            char c = a.charAt(i);
-            if (!reachedShoulder)
-                sbShoulder.append(c);
-            else
-                sbSourceID.append(c);
-            if (Character.isDigit(c))
-                reachedShoulder = true;
+            if (Character.isDigit(a.charAt(i))) {
+                end = i + 1;
+                break;
+            }
         }
-        shoulder = sbShoulder.toString();
-        sourceID = sbSourceID.toString();
+        String shoulder = a.substring(0, end);
+        String sourceID = a.substring(end);
 
         // String the slash between the shoulder and the sourceID
-        if (!sm.retrieveValue("divider").equals("")) {
-            if (sourceID.startsWith(sm.retrieveValue("divider"))) {
-                sourceID = sourceID.substring(1);
-            }
+        if (!divider.equals("") && sourceID.startsWith(divider)) {
+            sourceID = sourceID.substring(1);
         }
+        return new String[]{shoulder, sourceID};
     }
 
     /**
@@ -171,63 +188,22 @@ public class resolver extends database {
      * @return JSON String with content for the interface
      */
     public URI resolveARK() throws URISyntaxException {
-        bcid bcid = null;
         URI resolution = null;
 
         // First  option is check if dataset, then look at other options after this is determined
         if (isDataGroup()) {
-            bcid = new bcid(sourceID, datagroup_id);
-
-            String resolutionTarget = "";
-            if (bcid.getResolutionTarget() != null) {
-                resolutionTarget = bcid.getResolutionTarget().toString().trim();
-            }
-
-            // Group has a specified resolution target
-            if (bcid.getResolutionTarget() != null && !resolutionTarget.equals("")) {
-                // A resolution target is specified AND there is a sourceID
-                if (sourceID != null && bcid.getResolutionTarget() != null && !sourceID.trim().equals("") && !bcid.getResolutionTarget().equals("")) {
-                    forwardingResolution = true;
-
-                    // Immediately return resolution result
-                    resolution = new URI(bcid.getResolutionTarget() + sourceID);
-                }
-                // If the database indicates this is a suffixPassthrough dataset then return the MetadataTarget
-                else if (bcid.getDatasetsSuffixPassthrough()) {
-                    resolution = bcid.getMetadataTarget();
-                }
-                // If there is some resolution target then return that
-                else if (bcid.getResolutionTarget() != null && !bcid.getResolutionTarget().toString().equalsIgnoreCase("null")) {
-                    forwardingResolution = true;
-                    resolution = bcid.getResolutionTarget();
-                }
-                // All other cases just return metadata
-                else {
-                    resolution = bcid.getMetadataTarget();
-                }
-            }
-            // This is a group and no resolution target is specified then just return metadata.
-            else {
-                resolution = bcid.getMetadataTarget();
-            }
-
+            // The dataset was read along with its project when the datagroup was set, so this takes no queries
+            forwardingResolution = dataset().isForwarding(sourceID);
+            resolution = dataset().resolve(sourceID);
+        } else {
+            throw new NotFoundRequestException(ark + " is not in a BCID data group");
         }
 
         // Set the graph variable
-        this.graph = bcid.getGraph();
-
-        // Debugging:
-        //System.out.println("datagroup_id = " + datagroup_id);
+        this.graph = dataset().getGraph();
 
-       // There are cases where project can be null, don't get caught on exception
-        try {
-            this.project = getProjectID(datagroup_id);
-        } catch (Exception e) {
-            // do nothing, project is just null?
-        }
-
-        // Project is empty after this call!
-        //System.out.println("project = " + this.project);
+        // Project is "" if the dataset has not been attached to one
+        this.project = dataset().getProject_id();
 
         return resolution;
     }
@@ -240,27 +216,10 @@ public class resolver extends database {
     public String printMetadata(Renderer renderer) {
         GenericIdentifier bcid = null;
 
-        // First  option is check if dataset, then look at other options after this is determined
-        if (setDataGroup()) {
-
-            bcid = new bcid(datagroup_id);
-
-            // Has a registered, resolvable suffix
-            //if (isResolvableSuffix(datagroup_id)) {
-            //    bcid = new bcid(element_id, ark);
-            //}
-            // Has a suffix, but not resolvable
-            //else {
-            try {
-                if (sourceID != null && bcid.getResolutionTarget() != null) {
-                    bcid = new bcid(sourceID, bcid.getResolutionTarget(), datagroup_id);
-                }
-            } catch (URISyntaxException e) {
-                //TODO should we silence this exception?
-                logger.warn("URISyntaxException thrown", e);
-            }
-            //}
-
+        // First  option is check if dataset, then look at other options after this is determined.  The constructor
+        // already read the dataset, so the bcid is built from that rather than queried again.
+        if (isDataGroup()) {
+            bcid = new bcid(dataset(), sourceID);
         }
         return renderer.render(bcid);
     }
@@ -347,7 +306,7 @@ public class resolver extends database {
      * @return
      */
     private boolean setDataGroup() {
-        // Test Dataset is #1
+        // Test Dataset is #1, which always exists, so it is only read if it is resolved
         if (shoulder.equals("fk4") && naan.equals("99999")) {
             datagroup_id = 1;
             return true;
@@ -359,28 +318,41 @@ public class resolver extends database {
         if (datagroup_id == null) {
             return false;
         } else {
-            // Now we need to figure out if this datasets_id exists or not in the database
-            String select = "SELECT count(*) as count FROM datasets where datasets_id = ?";
-            PreparedStatement stmt = null;
-            ResultSet rs = null;
-            try {
-                stmt = conn.prepareStatement(select);
-                stmt.setInt(1, datagroup_id);
-                rs = stmt.executeQuery();
-                rs.next();
-                int count = rs.getInt("count");
-                if (count < 1) {
-                    datagroup_id = null;
-                    return false;
-                } else {
-                    return true;
-                }
-            } catch (SQLException e) {
-                throw new ServerErrorException(e);
-            } finally {
-                close(stmt, rs);
+            // Shoulders of datasets that were never minted are turned away without a query
+            if (!datasetFilter.mightExist(datagroup_id)) {
+                datagroup_id = null;
+                return false;
+            }
+            // Now we need to figure out if this datasets_id exists or not in the database, reading everything
+            // resolveARK needs about it while we are there
+            dataset = datasetRecord.lookup(this, datagroup_id);
+            if (dataset == null) {
+                // Only remember it as missing once the primary agrees
+                dataset = datasetRecord.lookupOnPrimary(Collections.singleton(datagroup_id)).get(datagroup_id);
+            }
+            if (dataset == null) {
+                datasetFilter.markMissing(datagroup_id);
+                datagroup_id = null;
+                return false;
+            } else {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The dataset of this ARK, read when the data group was set, or on first use for the test dataset
+     *
+     * @return
+     */
+    private datasetRecord dataset() {
+        if (dataset == null) {
+            dataset = datasetRecord.lookup(this, datagroup_id);
+            if (dataset == null) {
+                throw new NotFoundRequestException(ark + " is not in a BCID data group");
             }
         }
+        return dataset;
     }
 
     /**
@@ -402,8 +374,9 @@ public class resolver extends database {
             stmt = conn.prepareStatement(sql);
             stmt.setInt(1, datasets_id);
             rs = stmt.executeQuery();
-            rs.next();
-            project_id = rs.getString("project_id");
+            if (rs.next()) {
+                project_id = rs.getString("project_id");
+            }
 
 
         } catch (SQLException e) {
@@ -434,8 +407,9 @@ public class resolver extends database {
                 stmt = conn.prepareStatement(select);
                 stmt.setString(1, sourceID);
                 rs = stmt.executeQuery();
-                rs.next();
-                element_id = new BigInteger(rs.getString("identifiers_id"));
+                if (rs.next()) {
+                    element_id = new BigInteger(rs.getString("identifiers_id"));
+                }
             } catch (SQLException e) {
                 throw new ServerErrorException(e);
             } finally {
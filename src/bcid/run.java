@@ -22,7 +22,6 @@ import java.net.URISyntaxException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.UUID;
 
@@ -32,7 +31,7 @@ import java.util.UUID;
  */
 public class run {
     // a testData file to use for various tests in this class
-    ArrayList testDatafile;
+    inputFileParser testDatafile;
 
     private static Logger logger = LoggerFactory.getLogger(run.class);
 
@@ -53,13 +52,10 @@ public class run {
           */
 
         try {
-            testDatafile = new inputFileParser(readFile(path), dataset).elementArrayList;
+            testDatafile = new inputFileParser(readFile(path), dataset);
         } catch (IOException e) {
             //TODO should we silence this exception?
             logger.warn("IOException thrown", e);
-        } catch (URISyntaxException e) {
-            //TODO should we silence this exception?
-            logger.warn("URISyntaxException thrown", e);
         }
         System.out.println("  Successfully created test dataset");
     }
@@ -87,7 +83,7 @@ public class run {
 
         // Create a bcid for localId without Suffix passthrough
         System.out.println("\nCreate bcids WITHOUT suffix passthrough from test dataset ...");
-        String datasetIdentifier = minter.mintList(testDatafile);
+        String datasetIdentifier = minter.mintList(testDatafile.iterator());
         System.out.println("  datasetIdentifier = " + datasetIdentifier);
         Iterator ezids1It = minter.getIdentifiers(datasetIdentifier).iterator();
         while (ezids1It.hasNext()) {
@@ -99,7 +95,7 @@ public class run {
         // Create a bcid for each localId's  with Suffix passthrough
         System.out.println("\nCreate bcids WITH suffix passthrough from test dataset ...");
         System.out.println("  datasetIdentifier = " + datasetIdentifier);
-        datasetIdentifier = minter.mintList(testDatafile);
+        datasetIdentifier = minter.mintList(testDatafile.iterator());
         Iterator ezids2It = minter.getIdentifiers(datasetIdentifier).iterator();
         while (ezids2It.hasNext()) {
             System.out.println("  " + ezids2It.next());
@@ -125,12 +121,12 @@ public class run {
                 UUID.randomUUID() + "\thttp://biocode.berkeley.edu/specimens/MBIO57\n" +
                 UUID.randomUUID() + "\n" +
                 UUID.randomUUID();
-        ArrayList localUUIDs = new inputFileParser(uuidInputStringFromTextBox, minter).elementArrayList;
+        inputFileParser localUUIDs = new inputFileParser(uuidInputStringFromTextBox, minter);
         System.out.println("  Successfully created test uuid dataset");
 
         // Create a bcid for each localId's
         System.out.println("\nCreating bcids with uuid suffix passthrough from test uuid dataset (FSU case) ...");
-        datasetIdentifier = minter.mintList(localUUIDs);
+        datasetIdentifier = minter.mintList(localUUIDs.iterator());
         System.out.println("  datasetIdentifier = " + datasetIdentifier);
         Iterator uuidsIt = minter.getIdentifiers(datasetIdentifier).iterator();
         while (uuidsIt.hasNext()) {
@@ -149,12 +145,12 @@ public class run {
                 UUID.randomUUID() + "\thttp://biocode.berkeley.edu/specimens/MBIO57\n" +
                 UUID.randomUUID() + "\n" +
                 UUID.randomUUID();
-        ArrayList localUUIDs2 = new inputFileParser(uuidInputStringFromTextBox2, minter).elementArrayList;
+        inputFileParser localUUIDs2 = new inputFileParser(uuidInputStringFromTextBox2, minter);
         System.out.println("  Successfully created test uuid dataset #2");
 
         // Create a bcid for each localId's
         System.out.println("\nCreating bcidS WITHOUT uuid suffix passthrough from test uuid dataset #2 ...");
-        datasetIdentifier = minter.mintList(localUUIDs2);
+        datasetIdentifier = minter.mintList(localUUIDs2.iterator());
         Iterator uuidsIt2 = minter.getIdentifiers(datasetIdentifier).iterator();
         while (uuidsIt2.hasNext()) {
             System.out.println("  " + uuidsIt2.next());
@@ -238,11 +234,9 @@ public class run {
         String path = Thread.currentThread().getContextClassLoader().getResource("bigfile.txt").getFile();
         System.out.println("\nReading input file = " + path + " ...");
         try {
-            testDatafile = new inputFileParser(readFile(path), dataset).elementArrayList;
+            testDatafile = new inputFileParser(readFile(path), dataset);
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (URISyntaxException e) {
-            e.printStackTrace();
         }
 
 
@@ -250,8 +244,8 @@ public class run {
         elementMinter minter = new elementMinter(dataset.getDatasets_id());
 
         // Mint a list of identifiers
-        System.out.println("\nPreparing to mint " + testDatafile.size()+ " identifiers");
-        String datasetUUID = minter.mintList(testDatafile);
+        System.out.println("\nPreparing to mint identifiers");
+        String datasetUUID = minter.mintList(testDatafile.iterator());
 
         // Return the list of identifiers that were made here
         System.out.println(JSONArray.fromObject(minter.getIdentifiers(datasetUUID)).toString());
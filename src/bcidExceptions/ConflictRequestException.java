@@ -0,0 +1,20 @@
+package bcidExceptions;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * An exception that encapsulates requests that conflict with one already in progress
+ */
+public class ConflictRequestException extends BCIDAbstractException {
+    private static final long serialVersionUID = 1L;
+
+    private static Integer httpStatusCode = Response.Status.CONFLICT.getStatusCode();
+
+    public ConflictRequestException(String usrMessage) {
+        super(usrMessage, httpStatusCode);
+    }
+
+    public ConflictRequestException(String usrMessage, String developerMessage) {
+        super(usrMessage, developerMessage, httpStatusCode);
+    }
+}
@@ -0,0 +1,20 @@
+package bcidExceptions;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * An exception that encapsulates requests for something that does not exist
+ */
+public class NotFoundRequestException extends BCIDAbstractException {
+    private static final long serialVersionUID = 1L;
+
+    private static Integer httpStatusCode = Response.Status.NOT_FOUND.getStatusCode();
+
+    public NotFoundRequestException(String usrMessage) {
+        super(usrMessage, httpStatusCode);
+    }
+
+    public NotFoundRequestException(String usrMessage, String developerMessage) {
+        super(usrMessage, developerMessage, httpStatusCode);
+    }
+}
@@ -0,0 +1,20 @@
+package bcidExceptions;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * An exception that encapsulates requests turned away because the server is too busy to take them
+ */
+public class ServiceUnavailableException extends BCIDAbstractException {
+    private static final long serialVersionUID = 1L;
+
+    private static Integer httpStatusCode = Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+
+    public ServiceUnavailableException(String usrMessage) {
+        super(usrMessage, httpStatusCode);
+    }
+
+    public ServiceUnavailableException(String usrMessage, String developerMessage) {
+        super(usrMessage, developerMessage, httpStatusCode);
+    }
+}
@@ -0,0 +1,92 @@
+package rest;
+
+import bcid.arkBatchResolver;
+import bcid.arkBatchValidator;
+import bcid.elementInput;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * REST interface for checking and resolving ARKs in bulk instead of one request at a time.
+ */
+@Path("arks")
+public class arkService {
+
+    /**
+     * Validate and decode a list of ARKs, one per line, optionally gzipped.  The response has one JSON object per
+     * line of input, in the same order, giving the naan, shoulder, datasets_id and either the identifiers_id or the
+     * localid each ARK decodes to, or the error that makes it invalid.  The ARKs are decoded without the database,
+     * and results are streamed back as they are ready.
+     *
+     * @param exists also look up whether each valid ARK refers to something that has been minted
+     * @param body
+     *
+     * @return newline delimited JSON, one result per ARK
+     */
+    @POST
+    @Path("/validate")
+    @Consumes({MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM, "application/gzip", "application/x-gzip"})
+    @Produces("application/x-ndjson")
+    public Response validate(@QueryParam("exists") @DefaultValue("false") final boolean exists,
+                             final InputStream body) {
+        StreamingOutput output = new StreamingOutput() {
+            public void write(OutputStream out) throws IOException {
+                Reader reader = elementInput.open(body);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+                try {
+                    new arkBatchValidator(exists).validate(reader, writer);
+                    writer.flush();
+                } finally {
+                    reader.close();
+                }
+            }
+        };
+        return Response.ok(output).build();
+    }
+
+    /**
+     * Resolve a list of ARKs, one per line, optionally gzipped.  The response has one JSON object per line of input,
+     * in the same order, giving where the ARK resolves to, its metadata page, its dataset's graph and project, and
+     * the metadata the resolver's metadata page shows (title, who, what, when, doi, ...), or found:false for ARKs
+     * that are not in any dataset.  Each dataset is read from the database once however many
+     * of its ARKs are listed, and results are streamed back as they are ready.
+     *
+     * @param body
+     *
+     * @return newline delimited JSON, one result per ARK
+     */
+    @POST
+    @Path("/resolve")
+    @Consumes({MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM, "application/gzip", "application/x-gzip"})
+    @Produces("application/x-ndjson")
+    public Response resolve(final InputStream body) {
+        StreamingOutput output = new StreamingOutput() {
+            public void write(OutputStream out) throws IOException {
+                Reader reader = elementInput.open(body);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+                try {
+                    new arkBatchResolver().resolve(reader, writer);
+                    writer.flush();
+                } finally {
+                    reader.close();
+                }
+            }
+        };
+        return Response.ok(output).build();
+    }
+}
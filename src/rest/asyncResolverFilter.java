@@ -0,0 +1,271 @@
+package rest;
+
+import bcid.Renderer.HTMLTableRenderer;
+import bcid.Renderer.RDFRenderer;
+import bcid.datasetFilter;
+import bcid.resolutionCache;
+import bcid.resolutionQueue;
+import bcidExceptions.BCIDAbstractException;
+import bcidExceptions.NotFoundRequestException;
+import bcidExceptions.ServerErrorException;
+import bcidExceptions.ServiceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.errorInfo;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serves GETs of the ark: resolver and metadata resources without holding a container thread while the database is
+ * queried.  ARKs in the resolution cache and ARKs of datasets that don't exist are answered straight away.  Anything
+ * else is suspended with Servlet 3 async and handed to resolutionQueue.  When that queue is full the client gets a
+ * 503 with a Retry-After header; when the work takes longer than resolverTimeout it is cancelled and the client gets
+ * the same.
+ * <p/>
+ * Responses are the same as resolverService and resolverMetadataService give.  This is a filter mapped at
+ * /id/ark:/* and /id/metadata/* in front of the Jersey servlet, rather than a servlet of its own, so any request it
+ * does not answer, such as another method or a path those resources don't match, still reaches Jersey.  The filter
+ * and the Jersey servlet must both be async-supported.
+ */
+public class asyncResolverFilter implements Filter {
+    private static Logger logger = LoggerFactory.getLogger(asyncResolverFilter.class);
+
+    /**
+     * What to send back once the work is done
+     */
+    private interface outcome {
+        void send(AsyncContext context) throws IOException;
+    }
+
+    /**
+     * Work to run on the resolution queue
+     */
+    private interface work {
+        outcome run();
+    }
+
+    public void init(FilterConfig filterConfig) {
+    }
+
+    public void destroy() {
+    }
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        if (!request.getMethod().equals("GET") || !serve(request, response)) {
+            chain.doFilter(req, res);
+        }
+    }
+
+    /**
+     * Answer a GET the Jersey resolver or metadata resource would match
+     *
+     * @return false if this is not such a request, and Jersey should have it
+     */
+    private boolean serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final String accept = request.getHeader("Accept");
+        // Jersey is mapped at /id/*, so the path info is "/ark:/..." or "/metadata/..."
+        String path = request.getPathInfo() == null ? "" : request.getPathInfo();
+        String[] segments = path.startsWith("/") ? path.substring(1).split("/", -1) : new String[0];
+
+        if (matches(segments, 4) && segments[0].equals("metadata")) {
+            final String element = segments[1].trim() + "/" + segments[2] + "/" + segments[3].trim();
+            if (!datasetFilter.mightResolve(element)) {
+                sendError(request, response, new NotFoundRequestException("Unable to find identifier " + element));
+                return true;
+            }
+            suspend(request, new work() {
+                public outcome run() {
+                    return metadata(element, accept);
+                }
+            });
+            return true;
+        } else if (matches(segments, 3) && segments[0].equals("ark:")) {
+            final String element = resolverService.element(segments[1], segments[2]);
+            resolutionCache.resolution cached = resolutionCache.get(element);
+            if (cached != null) {
+                response.setStatus(HttpServletResponse.SC_SEE_OTHER);
+                response.setHeader("Location", resolverService.redirectFor(cached, accept).toString());
+                return true;
+            }
+            if (!datasetFilter.mightResolve(element)) {
+                sendError(request, response, new NotFoundRequestException("Unable to find identifier " + element));
+                return true;
+            }
+            suspend(request, new work() {
+                public outcome run() {
+                    return redirect(resolverService.redirectFor(resolverService.resolve(element), accept));
+                }
+            });
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether a path has exactly the given number of segments, none of them empty, as the Jersey resources
+     * require
+     */
+    private static boolean matches(String[] segments, int count) {
+        if (segments.length != count) {
+            return false;
+        }
+        for (String segment : segments) {
+            if (segment.equals("")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Suspend the request and run the work on the resolution queue.  Whichever of the work, a timeout or a refusal
+     * finishes first sends the response.  A timeout cancels the work, so it gives up its place in the queue or has
+     * its thread interrupted.
+     */
+    private void suspend(final HttpServletRequest request, final work work) throws IOException {
+        final AsyncContext context = request.startAsync();
+        context.setTimeout(resolutionQueue.getTimeout());
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Future<?>> resolution = new AtomicReference<Future<?>>();
+
+        context.addListener(new AsyncListener() {
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (done.compareAndSet(false, true)) {
+                    logger.warn("Timed out resolving {}", request.getPathInfo());
+                    Future<?> running = resolution.get();
+                    if (running != null) {
+                        resolutionQueue.cancel(running);
+                    }
+                    sendError(request, (HttpServletResponse) context.getResponse(),
+                            new ServiceUnavailableException("Resolution is taking too long, please try again later"));
+                    context.complete();
+                }
+            }
+
+            public void onComplete(AsyncEvent event) {
+            }
+
+            public void onError(AsyncEvent event) {
+            }
+
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        try {
+            resolution.set(resolutionQueue.submit(new Runnable() {
+                public void run() {
+                    // Don't start on work whose client has already been told to retry
+                    if (done.get()) {
+                        return;
+                    }
+                    outcome outcome;
+                    try {
+                        outcome = work.run();
+                    } catch (BCIDAbstractException e) {
+                        outcome = error(request, e);
+                    } catch (RuntimeException e) {
+                        logger.warn("Exception resolving {}", request.getPathInfo(), e);
+                        outcome = error(request, new ServerErrorException(e));
+                    }
+                    if (done.compareAndSet(false, true)) {
+                        try {
+                            outcome.send(context);
+                        } catch (IOException e) {
+                            logger.debug("IOException sending resolution of {}", request.getPathInfo(), e);
+                            context.complete();
+                        }
+                    }
+                }
+            }));
+        } catch (ServiceUnavailableException e) {
+            if (done.compareAndSet(false, true)) {
+                sendError(request, (HttpServletResponse) context.getResponse(), e);
+                context.complete();
+            }
+        }
+    }
+
+    private static outcome redirect(final URI location) {
+        return new outcome() {
+            public void send(AsyncContext context) {
+                HttpServletResponse response = (HttpServletResponse) context.getResponse();
+                response.setStatus(HttpServletResponse.SC_SEE_OTHER);
+                response.setHeader("Location", location.toString());
+                context.complete();
+            }
+        };
+    }
+
+    private static outcome metadata(String element, String accept) {
+        if (resolverMetadataService.isRDF(accept)) {
+            final String rdf = resolverMetadataService.render(element, new RDFRenderer());
+            return new outcome() {
+                public void send(AsyncContext context) throws IOException {
+                    HttpServletResponse response = (HttpServletResponse) context.getResponse();
+                    response.setContentType("application/rdf+xml;charset=UTF-8");
+                    response.getWriter().write(rdf);
+                    context.complete();
+                }
+            };
+        }
+        // Render the same JSP template resolverMetadataService's Viewable does, with the model as "it"
+        final Map<String, Object> map = new HashMap<String, Object>();
+        map.put("response", resolverMetadataService.render(element, new HTMLTableRenderer()));
+        return new outcome() {
+            public void send(AsyncContext context) {
+                context.getRequest().setAttribute("it", map);
+                context.dispatch("/WEB-INF/jsp_template/index.jsp");
+            }
+        };
+    }
+
+    private static outcome error(final HttpServletRequest request, final BCIDAbstractException e) {
+        return new outcome() {
+            public void send(AsyncContext context) throws IOException {
+                sendError(request, (HttpServletResponse) context.getResponse(), e);
+                context.complete();
+            }
+        };
+    }
+
+    /**
+     * Send an error as exceptionMapper would, with a Retry-After header if the server is too busy
+     */
+    private static void sendError(HttpServletRequest request, HttpServletResponse response, BCIDAbstractException e)
+            throws IOException {
+        errorInfo info = new errorInfo(e.getUsrMessage(), e.getDeveloperMessage(), e.getHttpStatusCode(), e);
+        response.setStatus(e.getHttpStatusCode());
+        if (e instanceof ServiceUnavailableException) {
+            response.setHeader("Retry-After", String.valueOf(resolutionQueue.getRetryAfter()));
+        }
+        String accept = request.getHeader("Accept");
+        if (accept != null && accept.contains("application/json")) {
+            response.setContentType("application/json;charset=UTF-8");
+            response.getWriter().write(info.toJSON());
+        } else {
+            response.setContentType("text/html;charset=UTF-8");
+            response.getWriter().write(info.toHTMLTable());
+        }
+    }
+}
@@ -2,8 +2,12 @@ package rest;
 
 import bcid.*;
 import bcidExceptions.BadRequestException;
+import bcidExceptions.ForbiddenRequestException;
 import bcidExceptions.ServerErrorException;
-import net.sf.json.JSONArray;
+import com.sun.jersey.multipart.FormDataParam;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.SettingsManager;
@@ -19,10 +23,21 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.lang.String;
-import java.net.URISyntaxException;
-import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.UUID;
 
 /**
  * REST interface for creating elements, to be called from the interface or other consuming applications.
@@ -102,8 +117,11 @@ public class elementService {
      * @param data
      * @param doi
      * @param webaddress
+     * @param requestKey optional key identifying this request; repeating a completed request with the same key
+     *                   returns its identifiers again instead of minting new ones
+     * @param format     the format of data: pipe (the default), csv, tsv or ndjson
      * @param request
-     * @return
+     * @return the minted identifiers, or a report of the invalid lines in data
      */
     @POST
     @Path("/creator")
@@ -116,22 +134,570 @@ public class elementService {
                             @FormParam("webaddress") String webaddress,
                             @FormParam("graph") String graph,
                             @FormParam("suffixPassThrough") String stringSuffixPassThrough,
+                            @FormParam("requestKey") String requestKey,
+                            @FormParam("format") String format,
                             @Context HttpServletRequest request) {
 
-        dataGroupMinter dataset;
-        database db;
-        Boolean suffixPassthrough = false;
         HttpSession session = request.getSession();
         String username = session.getAttribute("user").toString();
 
+        // Check every line before anything is created
+        final elementRowParser parser = elementRowParser.forFormat(format);
+        if (data == null) {
+            throw new BadRequestException("No data was given to mint");
+        }
+        inputValidationReport validation = parallelRowReader.validate(new StringReader(data), parser);
+        if (!validation.isValid()) {
+            return invalidInput(validation);
+        }
 
-        // Initialize database
-        db = new database();
+        Integer user_id = getUserId(username);
+
+        mintRequest mintRequest = claim(user_id, requestKey);
+        if (mintRequest != null && mintRequest.isComplete()) {
+            return Response.ok(streamIdentifiers(mintRequest.getDatasets_id(), mintRequest.getLoadedSetUUID())).build();
+        }
+
+        File spool = null;
+        boolean minted = false;
+        try {
+            // A retried request keeps minting into the dataset its first attempt created
+            Integer datasets_id;
+            if (mintRequest != null && mintRequest.getDatasets_id() != null) {
+                datasets_id = mintRequest.getDatasets_id();
+            } else {
+                datasets_id = getDatasetsId(user_id, dataset_id, title, resourceType, doi, webaddress, graph,
+                        stringSuffixPassThrough);
+            }
+
+            // Create a bcid Minter instance
+            final elementMinter minter = new elementMinter(datasets_id);
+            minter.setMintRequest(mintRequest);
+            String loadedSetUUID = UUID.randomUUID().toString();
+            try {
+                if (mintRequest != null) {
+                    if (mintRequest.getLoadedSetUUID() != null) {
+                        // Clear out whatever an earlier attempt with this key managed to insert
+                        loadedSetUUID = mintRequest.getLoadedSetUUID();
+                        minter.deleteLoadedSetUUID(loadedSetUUID);
+                    }
+                    mintRequest.begin(datasets_id, loadedSetUUID);
+                }
+
+                // Mint the identifiers, parsing the input a chunk at a time
+                spool = mintToSpool(minter, new parallelRowReader(new StringReader(data), parser), loadedSetUUID);
+                if (mintRequest != null) {
+                    mintRequest.complete(null);
+                }
+                minted = true;
+            } finally {
+                // Without a requestKey nothing will retry this request, so remove whatever the periodic commits
+                // already inserted, as mintUpload does.  With one, the retry clears it out instead.
+                if (!minted && mintRequest == null) {
+                    try {
+                        minter.deleteLoadedSetUUIDInBackground(loadedSetUUID);
+                    } catch (RuntimeException e) {
+                        logger.warn("Unable to delete loaded set {} after a failed mint", loadedSetUUID, e);
+                    }
+                }
+                minter.close();
+            }
+        } catch (IOException e) {
+            if (mintRequest != null) {
+                mintRequest.fail();
+            }
+            throw new ServerErrorException("Server Error", "IOException while writing minted identifiers", e);
+        } catch (RuntimeException e) {
+            if (mintRequest != null) {
+                mintRequest.fail();
+            }
+            throw e;
+        } finally {
+            if (!minted && spool != null) {
+                spool.delete();
+            }
+        }
+
+        // Send an Email that this completed
+       /* sendEmail sendEmail = new sendEmail(sm.retrieveValue("mailUser"),
+                sm.retrieveValue("mailPassword"),
+                sm.retrieveValue("mailFrom"),
+                sm.retrieveValue("mailTo"),
+                "New Elements From " + username,
+                returnVal);
+        sendEmail.start();
+        */
+
+        // Array of identifiers
+        return Response.ok(streamSpool(spool)).build();
+    }
+
+    /**
+     * Create a bunch of BCIDs from an uploaded file, sent as the "file" part of a multipart form along with the same
+     * fields as creator.  The file may be gzip compressed.  jersey-multipart has to read the whole form before this
+     * method is called, so mimepull buffers the file, to a temporary file once it passes a few kilobytes, and
+     * minting only starts once the upload is complete.  Send large files as the request body instead, see
+     * uploadStream, to have them minted as they arrive.  If the file turns out to contain an invalid line, whatever
+     * was minted from it is deleted again.  A requestKey makes the upload idempotent, as for creator.
+     *
+     * @return the minted identifiers as a JSON array
+     */
+    @POST
+    @Path("/upload")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response uploadForm(@FormDataParam("datasetList") Integer dataset_id,
+                               @FormDataParam("title") String title,
+                               @FormDataParam("resourceTypesMinusDataset") Integer resourceType,
+                               @FormDataParam("doi") String doi,
+                               @FormDataParam("webaddress") String webaddress,
+                               @FormDataParam("graph") String graph,
+                               @FormDataParam("suffixPassThrough") String stringSuffixPassThrough,
+                               @FormDataParam("format") String format,
+                               @FormDataParam("requestKey") String requestKey,
+                               @FormDataParam("file") InputStream file,
+                               @Context HttpServletRequest request) {
+        String username = request.getSession().getAttribute("user").toString();
+        if (file == null) {
+            throw new BadRequestException("No file was uploaded");
+        }
+        elementRowParser parser = elementRowParser.forFormat(format);
+        Integer user_id = getUserId(username);
+        mintRequest mintRequest = claim(user_id, requestKey);
+        if (mintRequest != null && mintRequest.isComplete()) {
+            return Response.ok(streamIdentifiers(mintRequest.getDatasets_id(), mintRequest.getLoadedSetUUID())).build();
+        }
 
-        // Get the user_id
-        Integer user_id = db.getUserId(username);
+        Integer datasets_id;
+        try {
+            // A retried request keeps minting into the dataset its first attempt created
+            if (mintRequest != null && mintRequest.getDatasets_id() != null) {
+                datasets_id = mintRequest.getDatasets_id();
+            } else {
+                datasets_id = getDatasetsId(user_id, dataset_id, title, resourceType, doi, webaddress, graph,
+                        stringSuffixPassThrough == null ? "" : stringSuffixPassThrough);
+            }
+        } catch (RuntimeException e) {
+            if (mintRequest != null) {
+                mintRequest.fail();
+            }
+            throw e;
+        }
+        return Response.ok(streamSpool(mintUpload(datasets_id, parser, file, mintRequest))).build();
+    }
 
-        db.close();
+    /**
+     * Create a bunch of BCIDs in an existing dataset from a file sent as the request body, optionally gzip
+     * compressed.  Unlike uploadForm, nothing is buffered: the body is minted as it arrives.
+     *
+     * @param datasets_id the dataset to mint into
+     * @param format      pipe (the default), csv, tsv or ndjson
+     * @param requestKey  optional key making the upload idempotent, as for creator
+     * @param body
+     *
+     * @return the minted identifiers as a JSON array
+     *
+     * @throws ForbiddenRequestException if the dataset belongs to another user
+     */
+    @POST
+    @Path("/upload")
+    @Consumes({MediaType.APPLICATION_OCTET_STREAM, "application/gzip", "application/x-gzip"})
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response uploadStream(@QueryParam("datasets_id") Integer datasets_id,
+                                 @QueryParam("format") String format,
+                                 @QueryParam("requestKey") String requestKey,
+                                 InputStream body,
+                                 @Context HttpServletRequest request) {
+        String username = request.getSession().getAttribute("user").toString();
+        if (datasets_id == null || datasets_id == 0) {
+            throw new BadRequestException("A datasets_id to mint into is required");
+        }
+        elementRowParser parser = elementRowParser.forFormat(format);
+        Integer user_id = getUserId(username);
+        datasets_id = getDatasetsId(user_id, datasets_id, null, null, null, null, null, null);
+        mintRequest mintRequest = claim(user_id, requestKey);
+        if (mintRequest != null && mintRequest.isComplete()) {
+            return Response.ok(streamIdentifiers(mintRequest.getDatasets_id(), mintRequest.getLoadedSetUUID())).build();
+        }
+        return Response.ok(streamSpool(mintUpload(datasets_id, parser, body, mintRequest))).build();
+    }
+
+    /**
+     * Mint an uploaded stream into a dataset.  If it fails part way through, anything already committed is deleted,
+     * or, when there is a mint request, left for its retry to clear out.
+     *
+     * @param mintRequest the claimed request this upload is an attempt of, may be null
+     *
+     * @return a temporary file holding the identifiers as a JSON array
+     */
+    private File mintUpload(int datasets_id, elementRowParser parser, InputStream in, mintRequest mintRequest) {
+        elementMinter minter = new elementMinter(datasets_id);
+        minter.setMintRequest(mintRequest);
+        String loadedSetUUID = UUID.randomUUID().toString();
+        Reader reader = null;
+        boolean minted = false;
+        try {
+            if (mintRequest != null) {
+                if (mintRequest.getLoadedSetUUID() != null) {
+                    // Clear out whatever an earlier attempt with this key managed to insert
+                    loadedSetUUID = mintRequest.getLoadedSetUUID();
+                    minter.deleteLoadedSetUUID(loadedSetUUID);
+                }
+                mintRequest.begin(datasets_id, loadedSetUUID);
+            }
+            reader = elementInput.open(in);
+            File spool = mintToSpool(minter, new parallelRowReader(reader, parser), loadedSetUUID);
+            if (mintRequest != null) {
+                try {
+                    mintRequest.complete(null);
+                } catch (RuntimeException e) {
+                    spool.delete();
+                    throw e;
+                }
+            }
+            minted = true;
+            return spool;
+        } catch (IOException e) {
+            throw new ServerErrorException("Server Error", "IOException while reading the uploaded elements", e);
+        } finally {
+            if (!minted) {
+                if (mintRequest != null) {
+                    mintRequest.fail();
+                } else {
+                    try {
+                        minter.deleteLoadedSetUUIDInBackground(loadedSetUUID);
+                    } catch (RuntimeException e) {
+                        logger.warn("Unable to delete loaded set {} after a failed upload", loadedSetUUID, e);
+                    }
+                }
+            }
+            minter.close();
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.warn("IOException closing an uploaded file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mint rows, writing the encoded identifiers to a temporary file as a JSON array as they are committed.  Spooling
+     * them means a failure part way through is still reported as an error response rather than a truncated array.
+     *
+     * @return the temporary file, to be sent with streamSpool
+     */
+    private File mintToSpool(elementMinter minter, Iterator<elementRow> rows, String loadedSetUUID) throws IOException {
+        File spool = File.createTempFile("identifiers", ".json");
+        boolean written = false;
+        try {
+            final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spool), "UTF-8"));
+            try {
+                out.write("[");
+                minter.mintList(rows, new identifierWriter() {
+                    boolean first = true;
+
+                    public void write(String identifier) throws IOException {
+                        if (!first) {
+                            out.write(",");
+                        }
+                        first = false;
+                        out.write(JSONUtils.quote(identifier));
+                    }
+                }, loadedSetUUID);
+                out.write("]");
+            } finally {
+                out.close();
+            }
+            written = true;
+            return spool;
+        } finally {
+            if (!written) {
+                spool.delete();
+            }
+        }
+    }
+
+    /**
+     * Send a file written by mintToSpool, deleting it afterwards
+     */
+    private StreamingOutput streamSpool(final File identifiers) {
+        return new StreamingOutput() {
+            public void write(OutputStream output) throws IOException {
+                try {
+                    InputStream in = new FileInputStream(identifiers);
+                    try {
+                        IOUtils.copy(in, output);
+                    } finally {
+                        in.close();
+                    }
+                } finally {
+                    identifiers.delete();
+                }
+            }
+        };
+    }
+
+    /**
+     * Queue a bunch of BCIDs to be created in the background.  Takes the same parameters as creator, but returns
+     * straight away with the id of a job that can be polled at jobs/{jobId}.  data is checked before the job is
+     * queued, and a report of its invalid lines is returned instead if there are any.  With a requestKey, a repeat of
+     * a request whose job has completed gets the job's final status back instead of starting another.
+     *
+     * @return String with JSON response
+     */
+    @POST
+    @Path("/jobs")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response submitJob(@FormParam("datasetList") Integer dataset_id,
+                              @FormParam("title") String title,
+                              @FormParam("resourceTypesMinusDataset") Integer resourceType,
+                              @FormParam("data") String data,
+                              @FormParam("doi") String doi,
+                              @FormParam("webaddress") String webaddress,
+                              @FormParam("graph") String graph,
+                              @FormParam("suffixPassThrough") String stringSuffixPassThrough,
+                              @FormParam("format") String format,
+                              @FormParam("requestKey") String requestKey,
+                              @Context HttpServletRequest request) {
+        HttpSession session = request.getSession();
+        String username = session.getAttribute("user").toString();
+        elementRowParser parser = elementRowParser.forFormat(format);
+        if (data == null) {
+            throw new BadRequestException("No data was given to mint");
+        }
+        inputValidationReport validation = parallelRowReader.validate(new StringReader(data), parser);
+        if (!validation.isValid()) {
+            return invalidInput(validation);
+        }
+        Integer user_id = getUserId(username);
+        mintRequest mintRequest = claim(user_id, requestKey);
+        if (mintRequest != null && mintRequest.isComplete()) {
+            return Response.ok(mintRequest.getResult()).build();
+        }
+
+        mintJob job;
+        try {
+            // A retried request keeps minting into the dataset its first attempt created
+            Integer datasets_id;
+            if (mintRequest != null && mintRequest.getDatasets_id() != null) {
+                datasets_id = mintRequest.getDatasets_id();
+            } else {
+                datasets_id = getDatasetsId(user_id, dataset_id, title, resourceType, doi, webaddress, graph,
+                        stringSuffixPassThrough);
+            }
+            job = new mintJob(username, datasets_id, data, parser);
+            job.setMintRequest(mintRequest);
+            mintJobQueue.submit(job);
+        } catch (RuntimeException e) {
+            if (mintRequest != null) {
+                mintRequest.fail();
+            }
+            throw e;
+        }
+        return Response.status(Response.Status.ACCEPTED).entity(job.toJSON().toString()).build();
+    }
+
+    /**
+     * Queue a large file of elements to be minted into an existing dataset the caller owns.  The file is sent as the
+     * request body, in the format given by the format parameter or, failing that, by its content type: text/csv,
+     * text/tab-separated-values or application/x-ndjson, otherwise pipe delimited.  It may be gzip compressed, in
+     * which case it is kept compressed until the job reads it.  The whole file is checked on
+     * several cores before the job is queued, and a report of its invalid lines is returned instead if there are any.
+     *
+     * @param datasets_id the dataset to mint into
+     * @param format      pipe, csv, tsv or ndjson
+     * @param requestKey  optional key making the request idempotent, as for jobs
+     * @param contentType
+     * @param body        the elements, UTF-8 encoded
+     *
+     * @return String with JSON response
+     *
+     * @throws ForbiddenRequestException if the dataset belongs to another user, before any of the body is read
+     */
+    @POST
+    @Path("/bulk")
+    @Consumes(MediaType.WILDCARD)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response submitBulk(@QueryParam("datasets_id") Integer datasets_id,
+                               @QueryParam("format") String format,
+                               @QueryParam("requestKey") String requestKey,
+                               @HeaderParam("Content-Type") String contentType,
+                               InputStream body,
+                               @Context HttpServletRequest request) {
+        String username = request.getSession().getAttribute("user").toString();
+        if (datasets_id == null || datasets_id == 0) {
+            throw new BadRequestException("A datasets_id to mint into is required");
+        }
+        elementRowParser parser = elementRowParser.forFormat(format == null ? formatOf(contentType) : format);
+        Integer user_id = getUserId(username);
+        datasets_id = getDatasetsId(user_id, datasets_id, null, null, null, null, null, null);
+        mintRequest mintRequest = claim(user_id, requestKey);
+        if (mintRequest != null && mintRequest.isComplete()) {
+            return Response.ok(mintRequest.getResult()).build();
+        }
+
+        File spool = null;
+        boolean queued = false;
+        try {
+            spool = File.createTempFile("elements", ".txt");
+            OutputStream out = new FileOutputStream(spool);
+            try {
+                IOUtils.copy(body, out);
+            } finally {
+                out.close();
+            }
+
+            inputValidationReport validation;
+            Reader in = elementInput.open(new FileInputStream(spool));
+            try {
+                validation = parallelRowReader.validate(in, parser);
+            } finally {
+                in.close();
+            }
+            if (!validation.isValid()) {
+                return invalidInput(validation);
+            }
+
+            mintJob job = new mintJob(username, datasets_id, spool, parser, validation.getRows());
+            job.setMintRequest(mintRequest);
+            mintJobQueue.submit(job);
+            queued = true;
+
+            JSONObject response = job.toJSON();
+            response.put("validation", validation.toJSON());
+            return Response.status(Response.Status.ACCEPTED).entity(response.toString()).build();
+        } catch (IOException e) {
+            throw new ServerErrorException("Server Error", "IOException while reading the uploaded elements", e);
+        } finally {
+            if (!queued) {
+                if (mintRequest != null) {
+                    mintRequest.fail();
+                }
+                if (spool != null) {
+                    spool.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * The state and progress of a mint job
+     *
+     * @param jobId
+     *
+     * @return String with JSON response
+     */
+    @GET
+    @Path("/jobs/{jobId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response jobStatus(@PathParam("jobId") String jobId,
+                              @Context HttpServletRequest request) {
+        return Response.ok(getJob(jobId, request).toJSON().toString()).build();
+    }
+
+    /**
+     * The identifiers minted by a completed mint job, as a JSON array
+     *
+     * @param jobId
+     *
+     * @return String with JSON response
+     */
+    @GET
+    @Path("/jobs/{jobId}/identifiers")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response jobIdentifiers(@PathParam("jobId") String jobId,
+                                   @Context HttpServletRequest request) {
+        mintJob job = getJob(jobId, request);
+        if (!mintJob.COMPLETE.equals(job.getStatus())) {
+            throw new BadRequestException("Mint job " + jobId + " is " + job.getStatus() + ", not complete");
+        }
+        return Response.ok(streamIdentifiers(job.getDatasets_id(), job.getLoadedSetUUID())).build();
+    }
+
+    /**
+     * Write the identifiers of a loaded set to the response as a JSON array, reading them back from the database
+     * as they are sent
+     */
+    private StreamingOutput streamIdentifiers(final int datasets_id, final String loadedSetUUID) {
+        return new StreamingOutput() {
+            public void write(OutputStream output) throws IOException {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+                elementMinter minter = new elementMinter(datasets_id);
+                try {
+                    writer.write("[");
+                    minter.writeIdentifiers(loadedSetUUID, new identifierWriter() {
+                        boolean first = true;
+
+                        public void write(String identifier) throws IOException {
+                            if (!first) {
+                                writer.write(",");
+                            }
+                            first = false;
+                            writer.write(JSONUtils.quote(identifier));
+                        }
+                    });
+                    writer.write("]");
+                    writer.flush();
+                } finally {
+                    minter.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * A 400 response listing the invalid lines of some input
+     */
+    private Response invalidInput(inputValidationReport validation) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(validation.toJSON().toString()).build();
+    }
+
+    /**
+     * The input format implied by a content type
+     */
+    private String formatOf(String contentType) {
+        if (contentType == null) {
+            return elementRowParser.PIPE;
+        }
+        String type = contentType.toLowerCase();
+        if (type.startsWith("text/csv")) {
+            return elementRowParser.CSV;
+        } else if (type.startsWith("text/tab-separated-values")) {
+            return elementRowParser.TSV;
+        } else if (type.startsWith("application/x-ndjson")) {
+            return elementRowParser.NDJSON;
+        }
+        return elementRowParser.PIPE;
+    }
+
+    /**
+     * Look up a job belonging to the logged in user
+     */
+    private mintJob getJob(String jobId, HttpServletRequest request) {
+        String username = request.getSession().getAttribute("user").toString();
+        mintJob job = mintJobQueue.get(jobId);
+        if (job == null) {
+            throw new BadRequestException("No mint job " + jobId + " was found, it may have expired");
+        }
+        if (!job.getUsername().equals(username)) {
+            throw new ForbiddenRequestException("Mint job " + jobId + " belongs to another user");
+        }
+        return job;
+    }
+
+    /**
+     * Find the dataset that elements are being minted into, creating a new one if dataset_id is 0
+     *
+     * @return the datasets_id
+     *
+     * @throws ForbiddenRequestException if an existing dataset belongs to another user
+     */
+    private Integer getDatasetsId(Integer user_id, Integer dataset_id, String title, Integer resourceType, String doi,
+                                  String webaddress, String graph, String stringSuffixPassThrough) {
+        dataGroupMinter dataset;
+        Boolean suffixPassthrough = false;
 
         // Request creation of new dataset
         if (dataset_id == 0) {
@@ -161,7 +727,7 @@ public class elementService {
             dataset = new dataGroupMinter(true, suffixPassthrough);
             // we don't know DOI or webaddress from this call, so we set them to NULL
             dataset.mint(
-                    new Integer(sm.retrieveValue("bcidNAAN")),
+                    sm.getBcidNAAN(),
                     user_id,
                     new ResourceTypes().get(resourceType).uri,
                     doi,
@@ -173,47 +739,41 @@ public class elementService {
         } else {
             dataset = new dataGroupMinter(dataset_id);
 
-            // TODO: check that dataset.users_id matches the user that is logged in!
+            // Only the dataset's owner may mint into it
+            if (!dataset.getUsers_id().equals(user_id)) {
+                dataset.close();
+                throw new ForbiddenRequestException("You do not own dataset " + dataset_id,
+                        "user " + user_id + " tried to mint into dataset " + dataset_id + " of user " +
+                                dataset.getUsers_id());
+            }
+        }
 
+        try {
+            return dataset.getDatasets_id();
+        } finally {
+            dataset.close();
         }
+    }
 
-        // Create a bcid Minter instance
-        elementMinter minter = null;
-        minter = new elementMinter(dataset.getDatasets_id());
+    /**
+     * Claim a requestKey for the user, as described in mintRequest
+     *
+     * @return the claimed request, or null if no requestKey was given
+     */
+    private mintRequest claim(Integer user_id, String requestKey) {
+        if (requestKey == null || requestKey.trim().equals("")) {
+            return null;
+        }
+        return new mintRequest(user_id, requestKey.trim());
+    }
 
+    private Integer getUserId(String username) {
+        // Initialize database
+        database db = new database();
         try {
-            // Parse input file
-            ArrayList elements = null;
-            elements = new inputFileParser(data, dataset).elementArrayList;
-
-            // Mint the list of identifiers
-            String datasetUUID = null;
-            datasetUUID = minter.mintList(elements);
-
-            // Array of identifiers, or an error message
-            String returnVal = JSONArray.fromObject(minter.getIdentifiers(datasetUUID)).toString();
-
-
-            // Send an Email that this completed
-           /* sendEmail sendEmail = new sendEmail(sm.retrieveValue("mailUser"),
-                    sm.retrieveValue("mailPassword"),
-                    sm.retrieveValue("mailFrom"),
-                    sm.retrieveValue("mailTo"),
-                    "New Elements From " + username,
-                    returnVal);
-            sendEmail.start();
-            */
-            dataset.close();
-            minter.close();
-            return Response.ok(returnVal).build();
-        } catch (URISyntaxException e) {
-            dataset.close();
-            minter.close();
-            throw new ServerErrorException("Server Error", "URISyntaxException while parsing input file: " + data, e);
-        } catch (IOException e) {
-            dataset.close();
-            minter.close();
-            throw new ServerErrorException("Server Error", "IOException while parsing input file: " + data, e);
+            return db.getUserId(username);
+        } finally {
+            db.close();
         }
     }
 }
\ No newline at end of file
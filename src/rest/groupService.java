@@ -7,6 +7,7 @@ import bcid.dataGroupMinter;
 import bcid.expeditionMinter;
 import bcid.database;
 import bcid.manageEZID;
+import bcid.mintRequest;
 import bcid.GenericIdentifier;
 import bcid.bcid;
 import bcid.ResourceTypes;
@@ -54,6 +55,8 @@ public class groupService {
      * @param doi
      * @param webaddress
      * @param title
+     * @param requestKey optional key identifying this request; repeating a completed request with the same key
+     *                   returns the original data group instead of minting another
      * @param request
      *
      * @return
@@ -69,6 +72,7 @@ public class groupService {
                          @FormParam("resourceTypesMinusDataset") Integer resourceTypesMinusDataset,
                          @FormParam("suffixPassThrough") String stringSuffixPassThrough,
                          @FormParam("finalCopy") @DefaultValue("false") Boolean finalCopy,
+                         @FormParam("requestKey") String requestKey,
                          @QueryParam("access_token") String accessToken,
                          @Context HttpServletRequest request) {
 
@@ -124,19 +128,51 @@ public class groupService {
             ezidRequest = false;
         }
 
-        // Mint the data group
-        dataGroupMinter minterDataset = new dataGroupMinter(ezidRequest, suffixPassthrough);
-        minterDataset.mint(
-                new Integer(sm.retrieveValue("bcidNAAN")),
-                user_id,
-                resourceTypeString,
-                doi,
-                webaddress,
-                graph,
-                title,
-                finalCopy);
-        minterDataset.close();
+        mintRequest mintRequest = null;
+        if (requestKey != null && !requestKey.trim().equals("")) {
+            mintRequest = new mintRequest(user_id, requestKey.trim());
+            if (mintRequest.isComplete()) {
+                return Response.ok(mintRequest.getResult()).build();
+            }
+        }
+
+        // Mint the data group, unless an earlier attempt with this requestKey got as far as creating it
+        dataGroupMinter minterDataset;
+        try {
+            if (mintRequest != null && mintRequest.getDatasets_id() != null) {
+                minterDataset = new dataGroupMinter(mintRequest.getDatasets_id());
+                minterDataset.close();
+            } else {
+                minterDataset = new dataGroupMinter(ezidRequest, suffixPassthrough);
+                try {
+                    Integer datasets_id = minterDataset.mint(
+                            sm.getBcidNAAN(),
+                            user_id,
+                            resourceTypeString,
+                            doi,
+                            webaddress,
+                            graph,
+                            title,
+                            finalCopy);
+                    // Recorded straight away so that a retry hands this data group back instead of making another
+                    if (mintRequest != null) {
+                        mintRequest.begin(datasets_id, null);
+                    }
+                } finally {
+                    minterDataset.close();
+                }
+            }
+        } catch (RuntimeException e) {
+            if (mintRequest != null) {
+                mintRequest.fail();
+            }
+            throw e;
+        }
         String datasetPrefix = minterDataset.getPrefix();
+        String response = "{\"prefix\": \"" + datasetPrefix + "\"}";
+        if (mintRequest != null) {
+            mintRequest.complete(response);
+        }
 
         // Create EZIDs right away for Dataset level Identifiers
         // Initialize ezid account
@@ -157,7 +193,7 @@ public class groupService {
             }
         }
 
-        return Response.ok("{\"prefix\": \"" + datasetPrefix + "\"}").build();
+        return Response.ok(response).build();
     }
 
     /**
@@ -171,10 +207,16 @@ public class groupService {
     @Path("/metadata/{dataset_id}")
     @Produces(MediaType.APPLICATION_JSON)
     public String run(@PathParam("dataset_id") Integer dataset_id) {
-        GenericIdentifier bcid = new bcid(dataset_id);
-        Renderer renderer = new JSONRenderer();
+        // Metadata lookups only read, so they can be served by the replica database
+        database.beginReadOnly();
+        try {
+            GenericIdentifier bcid = new bcid(dataset_id);
+            Renderer renderer = new JSONRenderer();
 
-        return "[" + renderer.render(bcid) + "]";
+            return "[" + renderer.render(bcid) + "]";
+        } finally {
+            database.endReadOnly();
+        }
     }
 
     /**
@@ -0,0 +1,100 @@
+package rest;
+
+import bcid.connectionPool;
+import bcid.datasetFilter;
+import bcid.resolutionCache;
+import bcid.resolutionQueue;
+import bcidExceptions.ForbiddenRequestException;
+import bcidExceptions.UnauthorizedRequestException;
+import net.sf.json.JSONArray;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * REST interface for monitoring the database connection pools: borrow wait times, active and idle connection
+ * counts, statement counts, and connections that were borrowed but never returned.  Also reports how well the
+ * resolution cache and the dataset filter are keeping resolution off the database, and how busy the resolution
+ * queue is.  These show the server's internals, so only logged in project admins may see them.
+ */
+@Path("poolService")
+public class poolService {
+
+    @Context
+    static HttpServletRequest request;
+
+    /**
+     * Make sure the caller is logged in and a project admin
+     */
+    private static void checkAdmin() {
+        HttpSession session = request.getSession();
+        if (session.getAttribute("user") == null) {
+            throw new UnauthorizedRequestException("You must be logged in to view server statistics.");
+        }
+        if (session.getAttribute("projectAdmin") == null) {
+            throw new ForbiddenRequestException("You must be a project admin to view server statistics.");
+        }
+    }
+
+    /**
+     * Return the counters of every connection pool as a JSON array
+     *
+     * @return
+     */
+    @GET
+    @Path("/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response stats() {
+        checkAdmin();
+        JSONArray pools = new JSONArray();
+        for (connectionPool pool : connectionPool.getPools()) {
+            pools.add(pool.toJSON());
+        }
+        return Response.ok(pools.toString()).build();
+    }
+
+    /**
+     * Return the size and hit, miss, expiry, eviction and invalidation counts of the resolution cache
+     *
+     * @return
+     */
+    @GET
+    @Path("/resolutionCache")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response resolutionCacheStats() {
+        checkAdmin();
+        return Response.ok(resolutionCache.toJSON().toString()).build();
+    }
+
+    /**
+     * Return the size of the dataset filter and how many lookups it and the negative cache have turned away
+     *
+     * @return
+     */
+    @GET
+    @Path("/datasetFilter")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response datasetFilterStats() {
+        checkAdmin();
+        return Response.ok(datasetFilter.toJSON().toString()).build();
+    }
+
+    /**
+     * Return the number of resolutions running, waiting and refused on the resolution queue
+     *
+     * @return
+     */
+    @GET
+    @Path("/resolutionQueue")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response resolutionQueueStats() {
+        checkAdmin();
+        return Response.ok(resolutionQueue.toJSON().toString()).build();
+    }
+}
@@ -70,9 +70,16 @@ public class projectService {
             db.close();
         }
         
-        projectMinter project = new projectMinter();
-        String response = project.listProjects(userId);
-        project.close();
+        // Project listings only read, so they can be served by the replica database
+        String response;
+        database.beginReadOnly();
+        try {
+            projectMinter project = new projectMinter();
+            response = project.listProjects(userId);
+            project.close();
+        } finally {
+            database.endReadOnly();
+        }
 
         return Response.ok(response).header("Access-Control-Allow-Origin", "*").build();
     }
@@ -99,10 +106,16 @@ public class projectService {
             HttpSession session = request.getSession();
             username = (String) session.getAttribute("user");
         }
-        projectMinter project= new projectMinter();
-
-        String response = project.getLatestGraphs(project_id, username);
-        project.close();
+        // Project listings only read, so they can be served by the replica database
+        String response;
+        database.beginReadOnly();
+        try {
+            projectMinter project = new projectMinter();
+            response = project.getLatestGraphs(project_id, username);
+            project.close();
+        } finally {
+            database.endReadOnly();
+        }
 
         return Response.ok(response).header("Access-Control-Allow-Origin", "*").build();
     }
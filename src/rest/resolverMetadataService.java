@@ -1,7 +1,10 @@
 package rest;
 
 import bcid.Renderer.*;
+import bcid.database;
+import bcid.datasetFilter;
 import bcid.resolver;
+import bcidExceptions.NotFoundRequestException;
 import com.sun.jersey.api.view.Viewable;
 import util.SettingsManager;
 
@@ -76,23 +79,56 @@ public class resolverMetadataService {
 
 */
         // Return an appropriate response based on the Accepts header that was passed in.
-        //
-        resolver r = new resolver(element);
-        if (accept.equalsIgnoreCase("application/rdf+xml")) {
+        if (isRDF(accept)) {
             // Return RDF when the Accepts header specifies rdf+xml
-            String response = r.printMetadata(new RDFRenderer());
-            r.close();
-            return Response.ok(response).build();
+            return Response.ok(render(element, new RDFRenderer())).build();
         } else {
             // This next section uses the Jersey Viewable class, which is a type of Model, View, Controller
             // construct, enabling us to pass content JSP code to a JSP template.  We do this in this section
             // so we can have a REST style call and provide human readable content with BCID header/footer
             Map<String, Object> map = new HashMap<String, Object>();
-            String response = r.printMetadata(new HTMLTableRenderer());
-            r.close();
-            map.put("response", response);
+            map.put("response", render(element, new HTMLTableRenderer()));
             return Response.ok(new Viewable("/index", map)).build();
             //return Response.ok(response).build();
         }
     }
+
+    /**
+     * Whether the Accepts header asks for RDF rather than an HTML page
+     *
+     * @param accept
+     *
+     * @return
+     */
+    static boolean isRDF(String accept) {
+        return "application/rdf+xml".equalsIgnoreCase(accept);
+    }
+
+    /**
+     * Render the metadata of an ARK
+     *
+     * @param element
+     * @param renderer
+     *
+     * @return
+     */
+    static String render(String element, Renderer renderer) {
+        // ARKs of datasets that don't exist are answered without a connection or a query
+        if (!datasetFilter.mightResolve(element)) {
+            throw new NotFoundRequestException("Unable to find identifier " + element);
+        }
+
+        // Metadata lookups only read, so they can be served by the replica database
+        database.beginReadOnly();
+        resolver r = null;
+        try {
+            r = new resolver(element);
+            return r.printMetadata(renderer);
+        } finally {
+            if (r != null) {
+                r.close();
+            }
+            database.endReadOnly();
+        }
+    }
 }
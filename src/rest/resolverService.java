@@ -1,8 +1,12 @@
 package rest;
 
 import bcid.Renderer.RDFRenderer;
+import bcid.database;
+import bcid.datasetFilter;
+import bcid.resolutionCache;
 import bcid.resolver;
 import bcidExceptions.BadRequestException;
+import bcidExceptions.NotFoundRequestException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,7 +26,6 @@ import java.net.URISyntaxException;
 @Path("ark:")
 public class resolverService {
 
-    String scheme = "ark:";
     @Context
     static ServletContext context;
     @Context
@@ -46,67 +49,94 @@ public class resolverService {
             @PathParam("shoulderPlusIdentifier") String shoulderPlusIdentifier,
             @HeaderParam("accept") String accept) {
 
-        shoulderPlusIdentifier = shoulderPlusIdentifier.trim();
+        String element = element(naan, shoulderPlusIdentifier);
 
-        // Structure the identifier element from path parameters
-        String element = scheme + "/" + naan + "/" + shoulderPlusIdentifier;
+        // Repeated ARKs are answered from the resolution cache without touching the database
+        resolutionCache.resolution resolution = resolutionCache.get(element);
+        if (resolution == null) {
+            resolution = resolve(element);
+        }
 
-        // When the Accept Header = "application/rdf+xml" return Metadata as RDF
-        resolver r = new resolver(element);
-        try {
-            // NOTE: Turning OFF RDF/XML Header resolution and instead opting to use this for
-            // RDF/XML Data
-            //if (accept.equalsIgnoreCase("application/rdf+xml")) {
-            //    return Response.ok(r.printMetadata(new RDFRenderer())).build();
-            // All other Accept Headers, or none specified, then attempt a redirect
+        // The expected response for IDentifiers without a URL
+        return Response.status(Response.Status.SEE_OTHER).location(redirectFor(resolution, accept)).build();
+    }
 
-            // Use this for accept header = "text/tab-separated-values"
-            //} else if {
+    /**
+     * Structure the identifier element from path parameters
+     *
+     * @param naan
+     * @param shoulderPlusIdentifier
+     *
+     * @return
+     */
+    static String element(String naan, String shoulderPlusIdentifier) {
+        return "ark:/" + naan + "/" + shoulderPlusIdentifier.trim();
+    }
 
-            //} else {
-            URI seeOtherUri = null;
-            try {
-                // Resolve data as RDF+XML
-                //System.out.println("accept = " + accept);
-                if (accept.equalsIgnoreCase("rdf+xml") ||
-                        accept.equalsIgnoreCase("application/rdf+xml")) {
-                    seeOtherUri = r.resolveARK();
-                }
-                // This is the default mechanism
-                else {
+    /**
+     * Where to send a client that resolved an ARK with the given Accept header
+     *
+     * @param resolution
+     * @param accept
+     *
+     * @return
+     */
+    static URI redirectFor(resolutionCache.resolution resolution, String accept) {
+        // Resolve data as RDF+XML
+        if ("rdf+xml".equalsIgnoreCase(accept) || "application/rdf+xml".equalsIgnoreCase(accept)) {
+            return resolution.getTarget();
+        }
+        // This is the default mechanism
+        // If graph not null and no forwarding resolution we can return the dataset
+        // FOR NOW, ignoring forwarding resolution and just returning TAB if it isn't rdf+xml accept header
+        // This is because we've hardcoded a response from data.biscicol.org that forces RDF/XML, even if the
+        // user doesn't want that.
+        if (resolution.getTabTarget() != null) {
+            return resolution.getTabTarget();
+        }
+        return resolution.getTarget();
+    }
 
-                    seeOtherUri = r.resolveARK();
-                    // If graph not null and no forwarding resolution we can return the dataset
-                     // if (r.graph != null && !r.forwardingResolution) {
-                    // FOR NOW, ignoring forwarding resolution and just returning TAB if it isn't rdf+xml accept header
-                    // This is because we've hardcoded a response from data.biscicol.org that forces RDF/XML, even if the
-                    // user doesn't want that.
-                    if (r.graph != null ) {
-                        seeOtherUri = r.resolveArkAs("tab");
-                    }
-                }
-                //System.out.println("seeotheruri = " + seeOtherUri);
+    /**
+     * Resolve an ARK that is not in the resolution cache with resolver, and cache the result
+     *
+     * @param element
+     *
+     * @return
+     */
+    static resolutionCache.resolution resolve(String element) {
+        // ARKs of datasets that don't exist are answered without a connection or a query
+        if (!datasetFilter.mightResolve(element)) {
+            throw new NotFoundRequestException("Unable to find identifier " + element);
+        }
 
-            } catch (URISyntaxException e) {
-                logger.warn("URISyntaxException while trying to resolve ARK for element: {}", element, e);
-                throw new BadRequestException("Server error while trying to resolve ARK. Did you supply a valid naan?");
+        // Resolution only reads, so it can be served by the replica database, unless the dataset was changed so
+        // recently that the replica may not have caught up
+        long ticket = resolutionCache.begin();
+        Integer datasets_id = datasetFilter.datasetsId(element);
+        boolean readOnly = datasets_id == null || !resolutionCache.recentlyInvalidated(datasets_id);
+        if (readOnly) {
+            database.beginReadOnly();
+        }
+        resolver r = null;
+        try {
+            r = new resolver(element);
+            URI target = r.resolveARK();
+            URI tabTarget = null;
+            if (r.graph != null) {
+                tabTarget = r.resolveArkAs("tab");
             }
-            // if the URI is null just print metadata
-                /*System.out.println("value of seeOtherUri:" + seeOtherUri.toString() + "END");
-                if (seeOtherUri == null || seeOtherUri.toString().contains("null")) {
-                    try {
-                        return Response.ok(new resolver(element).printMetadata(new RDFRenderer())).build();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        return Response.serverError().entity(new errorInfo(e, request).toJSON()).build();
-                    }
-                } */
-
-            // The expected response for IDentifiers without a URL
-            return Response.status(Response.Status.SEE_OTHER).location(seeOtherUri).build();
-            //}
+            return resolutionCache.put(element, r.getDataGroupID(), ticket, target, tabTarget, r.graph);
+        } catch (URISyntaxException e) {
+            logger.warn("URISyntaxException while trying to resolve ARK for element: {}", element, e);
+            throw new BadRequestException("Server error while trying to resolve ARK. Did you supply a valid naan?");
         } finally {
-            r.close();
+            if (r != null) {
+                r.close();
+            }
+            if (readOnly) {
+                database.endReadOnly();
+            }
         }
     }
 }
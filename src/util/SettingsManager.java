@@ -1,11 +1,26 @@
 package util;
 
 import bcidExceptions.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -15,12 +30,26 @@ import java.util.Properties;
  * use the util.SettingsManager to configure itself.  util.SettingsManager is implemented
  * as a singleton to ensure that all BiSciCol objects use common configuration
  * information.
+ * <p/>
+ * The properties file is read once into an immutable snapshot.  A background thread watches the file and swaps
+ * in a fresh snapshot whenever it changes, so looking up a value never touches the filesystem.  The watcher waits
+ * until the file has stopped changing before reading it, and a file that cannot be parsed or is missing one of
+ * the REQUIRED_KEYS is refused so the previous values stay in effect.
  */
 public class SettingsManager {
-    private static SettingsManager instance = null;
+    private static volatile SettingsManager instance = null;
+    private static Logger logger = LoggerFactory.getLogger(SettingsManager.class);
 
-    private Properties props;
+    // Settings that a reloaded file must still define before it replaces the current values
+    static final String[] REQUIRED_KEYS = {"bcidUrl", "bcidUser", "bcidPassword", "bcidNAAN", "divider",
+            "resolverTargetPrefix", "resolverMetadataPrefix"};
+    // How long the file must go without further changes before the watcher reloads it
+    static final long RELOAD_QUIET_MILLIS = 1000;
+
+    private volatile Snapshot snapshot;
     private String propsfile;
+    private Thread watcher;
+    private WatchService watchService;
 
     protected SettingsManager(String propsfile) {
         this.propsfile = propsfile;
@@ -36,7 +65,9 @@ public class SettingsManager {
      * @return A reference to the global util.SettingsManager object.
      */
     public static SettingsManager getInstance() {
-
+        if (instance != null) {
+            return instance;
+        }
         return getInstance(Thread.currentThread().getContextClassLoader().getResource("bcidsettings.props").getFile());
 
     }
@@ -53,7 +84,7 @@ public class SettingsManager {
      *                  util.SettingsManager.
      * @return A reference to the global util.SettingsManager object.
      */
-    public static SettingsManager getInstance(String propsfile) {
+    public static synchronized SettingsManager getInstance(String propsfile) {
         if (instance == null)
             instance = new SettingsManager(propsfile);
 
@@ -70,32 +101,66 @@ public class SettingsManager {
     }
 
     /**
-     * Specify a properties file for this util.SettingsManager to use.
+     * Specify a properties file for this util.SettingsManager to use.  The file is read on the next call to
+     * loadProperties().
      *
      * @param propsfile The path to a properties file.
      */
-    public void setPropertiesFile(String propsfile) {
+    public synchronized void setPropertiesFile(String propsfile) {
         this.propsfile = propsfile;
+        stopWatching();
+        snapshot = null;
     }
 
     /**
      * Attempt to load the properties file associated with this util.SettingsManager.
      * This method must be called to properly initialize the util.SettingsManager
-     * before it can be used by Configurable classes.
+     * before it can be used by Configurable classes.  The file is only read the first time; after that this
+     * returns immediately and changes to the file are picked up by the file watcher.
      */
     public void loadProperties() {
-        try {
-            props = new Properties();
-            FileInputStream in = new FileInputStream(propsfile);
+        if (snapshot != null) {
+            return;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = readSnapshot();
+                startWatching();
+            }
+        }
+    }
 
-            props.load(in);
-            in.close();
-        } catch (FileNotFoundException e) {
-            throw new ServerErrorException("Server Error",
-                    "Unable to find settings file " + propsfile + ". Make sure you have included this file in the root class of your deployed application!", e);
-        } catch (IOException e) {
-            throw new ServerErrorException("Server Error",
-                    "Error while loading the settings file " + propsfile + ". Is the file correct?", e);
+    /**
+     * Re-read the properties file now and swap in the new values, regardless of whether it has changed.  If the
+     * file cannot be read or leaves out any of the REQUIRED_KEYS then a ServerErrorException is thrown and the
+     * previous values are kept.
+     */
+    public synchronized void reloadProperties() {
+        Snapshot fresh = readSnapshot();
+        for (String key : REQUIRED_KEYS) {
+            if (!fresh.values.containsKey(key)) {
+                throw new ServerErrorException("Server Error",
+                        "The settings file " + propsfile + " no longer defines " + key + ", keeping the previous settings");
+            }
+        }
+        snapshot = fresh;
+    }
+
+    /**
+     * Stop watching the properties file for changes
+     */
+    public synchronized void stopWatching() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("IOException while closing the settings file watcher.", e);
+            }
+            watchService = null;
+        }
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher = null;
         }
     }
 
@@ -122,6 +187,178 @@ public class SettingsManager {
      *         specified default value.
      */
     public String retrieveValue(String key, String defaultval) {
-        return props.getProperty(key, defaultval);
+        String value = current().values.get(key);
+        return value == null ? defaultval : value;
+    }
+
+    /**
+     * The divider that separates the ARK portion and the suffix portion of an identifier
+     *
+     * @return
+     */
+    public String getDivider() {
+        return current().divider;
+    }
+
+    /**
+     * The NAAN that new data groups are minted under
+     *
+     * @return
+     */
+    public Integer getBcidNAAN() {
+        return current().bcidNAAN;
+    }
+
+    /**
+     * The prefix prepended to a webaddress-less identifier when resolving it
+     *
+     * @return
+     */
+    public String getResolverTargetPrefix() {
+        return current().resolverTargetPrefix;
+    }
+
+    /**
+     * The prefix used when resolving an identifier to its metadata page
+     *
+     * @return
+     */
+    public String getResolverMetadataPrefix() {
+        return current().resolverMetadataPrefix;
+    }
+
+    /**
+     * A number that changes every time the settings are read or reloaded, so that classes which parse settings
+     * into fields can tell cheaply when to parse them again
+     *
+     * @return
+     */
+    public long getGeneration() {
+        return current().generation;
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            loadProperties();
+            s = snapshot;
+        }
+        return s;
+    }
+
+    private Snapshot readSnapshot() {
+        Properties props = new Properties();
+        try {
+            FileInputStream in = new FileInputStream(propsfile);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            throw new ServerErrorException("Server Error",
+                    "Unable to find settings file " + propsfile + ". Make sure you have included this file in the root class of your deployed application!", e);
+        } catch (IOException e) {
+            throw new ServerErrorException("Server Error",
+                    "Error while loading the settings file " + propsfile + ". Is the file correct?", e);
+        }
+        return new Snapshot(props);
+    }
+
+    /**
+     * Start a daemon thread that reloads the settings whenever the properties file is modified
+     */
+    private void startWatching() {
+        final File file = new File(propsfile).getAbsoluteFile();
+        File dir = file.getParentFile();
+        if (dir == null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.toPath().register(watchService,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            logger.warn("Unable to watch {} for changes, settings will not be reloaded.", propsfile, e);
+            return;
+        } catch (UnsupportedOperationException e) {
+            logger.warn("Unable to watch {} for changes, settings will not be reloaded.", propsfile, e);
+            return;
+        }
+
+        final WatchService service = watchService;
+        watcher = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        if (!changed(service.take(), file)) {
+                            continue;
+                        }
+                        // Editors and deployment tools often write the file in several steps, so wait for it
+                        // to settle rather than reading it half written
+                        WatchKey key;
+                        while ((key = service.poll(RELOAD_QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                            changed(key, file);
+                        }
+                        try {
+                            reloadProperties();
+                            logger.info("Reloaded settings from {}", file);
+                        } catch (RuntimeException e) {
+                            // Keep serving the last good settings until the file is fixed
+                            logger.warn("Unable to reload settings from {}, keeping the previous values.", file, e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // stopWatching() was called
+                } catch (ClosedWatchServiceException e) {
+                    // stopWatching() was called
+                }
+            }
+        }, "settings-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Consume the events of a watch key and report whether any of them concern the given file
+     */
+    private static boolean changed(WatchKey key, File file) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (context instanceof Path && ((Path) context).toString().equals(file.getName())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * An immutable copy of the properties file, with the values used on every request already parsed
+     */
+    private static final class Snapshot {
+        private static final AtomicLong generations = new AtomicLong();
+
+        final long generation = generations.incrementAndGet();
+        final Map<String, String> values;
+        final String divider;
+        final Integer bcidNAAN;
+        final String resolverTargetPrefix;
+        final String resolverMetadataPrefix;
+
+        Snapshot(Properties props) {
+            Map<String, String> map = new HashMap<String, String>();
+            for (String key : props.stringPropertyNames()) {
+                map.put(key, props.getProperty(key));
+            }
+            values = Collections.unmodifiableMap(map);
+
+            divider = props.getProperty("divider", "");
+            String naan = props.getProperty("bcidNAAN", "").trim();
+            bcidNAAN = naan.equals("") ? null : Integer.valueOf(naan);
+            resolverTargetPrefix = props.getProperty("resolverTargetPrefix", "");
+            resolverMetadataPrefix = props.getProperty("resolverMetadataPrefix", "");
+        }
     }
 }
@@ -0,0 +1,35 @@
+package util;
+
+import bcid.connectionPool;
+import bcid.datasetFilter;
+import bcid.loadedSetDeleter;
+import bcid.mintJobQueue;
+import bcid.parallelRowReader;
+import bcid.resolutionQueue;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Releases resources shared across requests, such as pooled database connections and the threads that
+ * maintain them, when the web application is stopped or redeployed, and picks up background work left unfinished
+ * when it starts.
+ */
+public class shutdownListener implements ServletContextListener {
+
+    public void contextInitialized(ServletContextEvent sce) {
+        // Finish deleting any loaded sets that were part way through when the application last stopped
+        loadedSetDeleter.resumeAllInBackground();
+    }
+
+    public void contextDestroyed(ServletContextEvent sce) {
+        // Let running mint jobs finish with their connections before the pools close
+        mintJobQueue.shutdown();
+        parallelRowReader.shutdown();
+        resolutionQueue.shutdown();
+        datasetFilter.shutdown();
+        loadedSetDeleter.shutdown();
+        connectionPool.shutdownAll();
+        SettingsManager.getInstance().stopWatching();
+    }
+}
@@ -0,0 +1,65 @@
+package unit_tests;
+
+import bcid.dataGroupEncoder;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that dataGroupEncoder produces the same shoulders as the original floating point encoder
+ */
+public class dataGroupEncoderTest {
+    dataGroupEncoder encoder = new dataGroupEncoder();
+
+    // datasets_id and the shoulder the original encoder gave it
+    Object[][] shoulders = {
+            {1, "fk4"},
+            {2, "B2"},
+            {51, "z2"},
+            {52, "AA2"},
+            {100, "Ax2"},
+            {913, "Ru2"},
+            {2652, "zz2"},
+            {2653, "AAA2"},
+            {135303, "zzz2"},
+            {135304, "AAAA2"},
+            {10000000, "AYTiW2"},
+            {351925755, "zzzzz2"}
+    };
+
+    @Test
+    public void testEncode() {
+        for (Object[] shoulder : shoulders) {
+            assertEquals(shoulder[1], encoder.encode(BigInteger.valueOf((Integer) shoulder[0])));
+        }
+    }
+
+    @Test
+    public void testDecode() {
+        for (Object[] shoulder : shoulders) {
+            if (!shoulder[1].equals("fk4")) {
+                assertEquals(BigInteger.valueOf((Integer) shoulder[0]), encoder.decode((String) shoulder[1]));
+                assertEquals(BigInteger.valueOf((Integer) shoulder[0]), encoder.decode("ark:/21547/" + shoulder[1] + "/foo"));
+            }
+        }
+        assertEquals(BigInteger.ONE, encoder.decode("ark:/99999/fk4"));
+    }
+
+    @Test
+    public void testEncodeRange() {
+        String[] range = encoder.encodeRange(0, 6000);
+        for (int i = 0; i < range.length; i++) {
+            assertEquals(encoder.encode(i), range[i]);
+        }
+        range = encoder.encodeRange(135300, 10);
+        for (int i = 0; i < range.length; i++) {
+            assertEquals(encoder.encode(135300 + i), range[i]);
+        }
+        range = encoder.encodeRange(Integer.MAX_VALUE - 2, 3);
+        for (int i = 0; i < range.length; i++) {
+            assertEquals(encoder.encode(Integer.MAX_VALUE - 2 + i), range[i]);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package unit_tests;
+
+import bcid.CheckDigit;
+import bcid.elementEncoder;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import util.SettingsManager;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that elementEncoder's long fast paths produce the same identifiers as the original BigInteger and
+ * commons-codec encoding, and decode them back to the same ids
+ */
+public class elementEncoderTest {
+    String prefix = "ark:/21547/R2";
+    elementEncoder encoder = new elementEncoder(prefix);
+    String divider;
+
+    public elementEncoderTest() {
+        SettingsManager sm = SettingsManager.getInstance();
+        sm.loadProperties();
+        divider = sm.getDivider();
+    }
+
+    /**
+     * The identifiers_ids to check: every small id, the ids either side of each byte boundary, and a random sample
+     */
+    private List<Long> ids() {
+        List<Long> ids = new ArrayList<Long>();
+        for (long id = 0; id < 5000; id++) {
+            ids.add(id);
+        }
+        for (int bits = 7; bits < 63; bits++) {
+            ids.add((1L << bits) - 1);
+            ids.add(1L << bits);
+            ids.add((1L << bits) + 1);
+        }
+        ids.add(Long.MAX_VALUE);
+        Random random = new Random(21547);
+        for (int i = 0; i < 5000; i++) {
+            ids.add(random.nextLong() & Long.MAX_VALUE);
+        }
+        return ids;
+    }
+
+    // How identifiers were encoded before the long fast path
+    private String legacyEncode(BigInteger id) {
+        return new CheckDigit().generate(prefix + divider +
+                new String(new Base64(true).encode(id.toByteArray())).replace("\r\n", ""));
+    }
+
+    @Test
+    public void testEncodeMatchesLegacy() {
+        for (long id : ids()) {
+            String expected = legacyEncode(BigInteger.valueOf(id));
+            assertEquals(expected, encoder.encode(id));
+            assertEquals(expected, encoder.encode(BigInteger.valueOf(id)));
+        }
+        BigInteger big = BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.TEN);
+        assertEquals(legacyEncode(big), encoder.encode(big));
+    }
+
+    @Test
+    public void testDecodeRoundTrip() throws Exception {
+        for (long id : ids()) {
+            String identifier = encoder.encode(id);
+            // decode splits on the divider, so ids whose encoding contains it have never been decodable
+            if (identifier.indexOf(divider, prefix.length() + divider.length()) >= 0) {
+                continue;
+            }
+            assertEquals(identifier, BigInteger.valueOf(id), encoder.decode(identifier));
+            // Anything after a trailing "/" is not part of the encoded id
+            assertEquals(identifier, BigInteger.valueOf(id), encoder.decode(identifier + "/MBIO56"));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package unit_tests;
+
+import bcid.elementRow;
+import bcid.elementRowParser;
+import bcid.elementRowReader;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test that elementRowReader builds rows the way the bcid constructor always did, appending the localid to a
+ * supplied webaddress
+ */
+public class elementRowReaderTest {
+
+    @Test
+    public void testWebaddressIsBaseForLocalid() {
+        elementRowReader reader = new elementRowReader(new StringReader(
+                "MBIO56|http://biocode.berkeley.edu/specimens/\n" +
+                        "MBIO57\n"));
+
+        elementRow row = reader.next();
+        assertEquals("MBIO56", row.localid);
+        assertEquals("http://biocode.berkeley.edu/specimens/MBIO56", row.webAddress.toString());
+
+        row = reader.next();
+        assertEquals("MBIO57", row.localid);
+        assertNull(row.webAddress);
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testEveryFormatAppendsLocalid() {
+        String[][] inputs = {
+                {elementRowParser.CSV, "MBIO56,http://biocode.berkeley.edu/specimens/"},
+                {elementRowParser.TSV, "MBIO56\thttp://biocode.berkeley.edu/specimens/"},
+                {elementRowParser.NDJSON, "{\"localid\": \"MBIO56\", \"webaddress\": \"http://biocode.berkeley.edu/specimens/\"}"}
+        };
+        for (String[] input : inputs) {
+            elementRowReader reader = new elementRowReader(new StringReader(input[1]),
+                    elementRowParser.forFormat(input[0]));
+            assertEquals(input[0], "http://biocode.berkeley.edu/specimens/MBIO56", reader.next().webAddress.toString());
+        }
+    }
+}
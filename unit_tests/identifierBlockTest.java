@@ -0,0 +1,62 @@
+package unit_tests;
+
+import bcid.arkValidation;
+import bcid.arkValidator;
+import bcid.elementEncoder;
+import bcid.identifierBlock;
+import bcid.identifierWriter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that a reserved identifierBlock hands out exactly the identifiers in its range, encoded the same way as
+ * minted elements, so that they validate and decode back into the block
+ */
+public class identifierBlockTest {
+    String prefix = "ark:/21547/R2";
+    identifierBlock block = new identifierBlock(prefix, "1b4e28ba-2fa1-11d2-883f-0016d3cca427", 1000, 25);
+
+    @Test
+    public void testContains() {
+        assertFalse(block.contains(999));
+        assertTrue(block.contains(1000));
+        assertTrue(block.contains(1024));
+        assertFalse(block.contains(1025));
+        assertFalse(new identifierBlock(prefix, null, Long.MAX_VALUE - 1, 1).contains(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testWriteIdentifiers() throws Exception {
+        final List<String> written = new ArrayList<String>();
+        block.writeIdentifiers(new identifierWriter() {
+            public void write(String identifier) {
+                written.add(identifier);
+            }
+        });
+
+        elementEncoder encoder = new elementEncoder(prefix);
+        assertEquals(25, written.size());
+        assertEquals(block.getFirst(), written.get(0));
+        assertEquals(block.getLast(), written.get(24));
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(encoder.encode(1000L + i), written.get(i));
+        }
+    }
+
+    @Test
+    public void testIdentifiersValidateIntoBlock() throws Exception {
+        arkValidator validator = new arkValidator();
+        for (String identifier : new String[]{block.getFirst(), block.getLast()}) {
+            arkValidation v = validator.validate(1, identifier);
+            assertTrue(identifier, v.isValid());
+            assertEquals(arkValidation.ELEMENT, v.getType());
+            assertTrue(identifier, block.contains(v.getIdentifiers_id()));
+        }
+    }
+}